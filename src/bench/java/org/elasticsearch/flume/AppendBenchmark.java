@@ -0,0 +1,84 @@
+package org.elasticsearch.flume;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.elasticsearch.action.ListenableActionFuture;
+import org.elasticsearch.action.index.IndexResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.client.action.index.IndexRequestBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.cloudera.flume.core.Event;
+
+/**
+ * Measures ElasticSearchSink.append() end to end against a mocked Client that completes every request immediately,
+ * so the result is the cost the sink itself adds per event.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AppendBenchmark {
+
+    @Param({"text", "smallJson", "largeJson"})
+    public String body;
+
+    @Param({"8"})
+    public int attributes;
+
+    @Param({"", "logs_%Y-%m-%d"})
+    public String indexPattern;
+
+    private Event event;
+    private ElasticSearchSink sink;
+
+    @Setup
+    @SuppressWarnings("unchecked")
+    public void setUp() throws IOException, InterruptedException {
+        event = BenchmarkEvents.event(body, attributes);
+
+        Client client = mock(Client.class, RETURNS_DEEP_STUBS);
+        IndexRequestBuilder request = mock(IndexRequestBuilder.class);
+        ListenableActionFuture<IndexResponse> future = mock(ListenableActionFuture.class);
+        when(client.prepareIndex(anyString(), anyString(), anyString())).thenReturn(request);
+        when(request.setSource(any(byte[].class))).thenReturn(request);
+        when(request.execute()).thenReturn(future);
+
+        sink = new ElasticSearchSink();
+        sink.setClient(client);
+        if (indexPattern.length() > 0) {
+            sink.setIndexPattern(indexPattern);
+        }
+        sink.open();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException, InterruptedException {
+        sink.close();
+    }
+
+    @Benchmark
+    public void append() throws IOException {
+        sink.append(event);
+    }
+}
@@ -0,0 +1,55 @@
+package org.elasticsearch.flume;
+
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.cloudera.flume.core.Event;
+import com.cloudera.flume.core.Event.Priority;
+import com.cloudera.flume.core.EventImpl;
+
+/**
+ * Events shaped like the traffic the benchmarks are meant to represent.
+ */
+final class BenchmarkEvents {
+
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+    static final long TIMESTAMP = 1312193732123L;
+
+    private BenchmarkEvents() {
+    }
+
+    static Event event(String body, int attributes) {
+        return new EventImpl(body(body), TIMESTAMP, Priority.INFO, 0, "app01.example.com", attrs(attributes));
+    }
+
+    static byte[] body(String kind) {
+        if ("text".equals(kind)) {
+            return "2011-08-01 10:15:32,123 INFO [main] com.example.Service - Processed request in 12ms".getBytes(UTF_8);
+        }
+        if ("smallJson".equals(kind)) {
+            return "{\"level\":\"INFO\",\"logger\":\"com.example.Service\",\"message\":\"Processed request\",\"millis\":12}"
+                    .getBytes(UTF_8);
+        }
+        if ("largeJson".equals(kind)) {
+            StringBuilder json = new StringBuilder("{\"level\":\"ERROR\",\"logger\":\"com.example.Service\",\"frames\":[");
+            for (int i = 0; i < 100; i++) {
+                if (i > 0) {
+                    json.append(',');
+                }
+                json.append("{\"class\":\"com.example.service.Handler").append(i)
+                        .append("\",\"method\":\"handle\",\"file\":\"Handler.java\",\"line\":").append(i * 7).append('}');
+            }
+            return json.append("]}").toString().getBytes(UTF_8);
+        }
+        throw new IllegalArgumentException("Unknown body kind: " + kind);
+    }
+
+    static Map<String, byte[]> attrs(int count) {
+        Map<String, byte[]> attrs = new HashMap<String, byte[]>();
+        for (int i = 0; i < count; i++) {
+            attrs.put("attribute" + i, ("value of attribute " + i).getBytes(UTF_8));
+        }
+        return attrs;
+    }
+}
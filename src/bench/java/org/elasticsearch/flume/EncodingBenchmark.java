@@ -0,0 +1,98 @@
+package org.elasticsearch.flume;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.cloudera.flume.core.Event;
+
+/**
+ * Compares JSON and SMILE documents: building them on the collector (build), and tokenizing them the way a data node
+ * parses a document it is indexing (parse).  The size benchmark builds them too, reporting the bytes it built per
+ * second as size:documentBytes next to its documents per second, the two dividing into bytes on the wire per event.
+ * <p/>
+ * mvn -Pbenchmark test-compile exec:exec -Djmh.args="Encoding"
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EncodingBenchmark {
+
+    @Param({"text", "smallJson", "largeJson"})
+    public String body;
+
+    @Param({"8"})
+    public int attributes;
+
+    @Param({"JSON", "SMILE"})
+    public ElasticSearchSink.Encoding encoding;
+
+    private Event event;
+    private EventSerializer serializer;
+    private byte[] document;
+
+    @Setup
+    public void setUp() throws IOException {
+        event = BenchmarkEvents.event(body, attributes);
+        serializer = new EventSerializer(BenchmarkEvents.UTF_8, ElasticSearchSink.JsonMode.PARSE, encoding);
+        document = serializer.serialize(event);
+    }
+
+    @Benchmark
+    public byte[] build() throws IOException {
+        return serializer.serialize(event);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public void size(DocumentBytes bytes) throws IOException {
+        bytes.documentBytes += serializer.serialize(event).length;
+    }
+
+    @Benchmark
+    public int parse() throws IOException {
+        XContentParser parser = XContentFactory.xContent(document).createParser(document);
+        try {
+            int tokens = 0;
+            while (parser.nextToken() != null) {
+                tokens++;
+            }
+            return tokens;
+        } finally {
+            parser.close();
+        }
+    }
+
+    /**
+     * Reported by JMH as a secondary result of size, in the same unit as its documents per second.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class DocumentBytes {
+        public long documentBytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            documentBytes = 0;
+        }
+    }
+}
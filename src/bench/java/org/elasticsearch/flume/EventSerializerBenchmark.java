@@ -0,0 +1,89 @@
+package org.elasticsearch.flume;
+
+import static org.elasticsearch.common.xcontent.XContentFactory.jsonBuilder;
+
+import java.io.IOException;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.cloudera.flume.core.Event;
+
+/**
+ * Measures building the document for plain text, small and large JSON bodies with few or many attributes, and
+ * compares EventSerializer with the jsonBuilder(), Date and new String() per field approach it replaced.  Run with
+ * the GC profiler to compare allocation rates:
+ * <p/>
+ * mvn -Pbenchmark test-compile exec:exec -Djmh.args="EventSerializer -prof gc"
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EventSerializerBenchmark {
+
+    @Param({"text", "smallJson", "largeJson"})
+    public String body;
+
+    @Param({"0", "8", "64"})
+    public int attributes;
+
+    @Param({"PARSE", "VALIDATE"})
+    public ElasticSearchSink.JsonMode jsonMode;
+
+    private Event event;
+    private EventSerializer serializer;
+
+    @Setup
+    public void setUp() {
+        event = BenchmarkEvents.event(body, attributes);
+        serializer = new EventSerializer(BenchmarkEvents.UTF_8, jsonMode);
+    }
+
+    @Benchmark
+    public byte[] serializer() throws IOException {
+        return serializer.serialize(event);
+    }
+
+    @Benchmark
+    public byte[] jsonBuilderPerEvent() throws IOException {
+        XContentBuilder builder = jsonBuilder()
+                .startObject()
+                .field("timestamp", new Date(event.getTimestamp()))
+                .field("host", event.getHost())
+                .field("priority", event.getPriority().name());
+        XContentType contentType = XContentFactory.xContentType(event.getBody());
+        if (contentType == null) {
+            builder.startObject("message").field("text", new String(event.getBody(), BenchmarkEvents.UTF_8)).endObject();
+        } else {
+            XContentParser parser = XContentFactory.xContent(contentType).createParser(event.getBody());
+            parser.nextToken();
+            builder.field("message").copyCurrentStructure(parser);
+            parser.close();
+        }
+        builder.startObject("fields");
+        for (Map.Entry<String, byte[]> entry : event.getAttrs().entrySet()) {
+            builder.field(entry.getKey(), new String(entry.getValue(), BenchmarkEvents.UTF_8));
+        }
+        builder.endObject();
+        return builder.copiedBytes();
+    }
+}
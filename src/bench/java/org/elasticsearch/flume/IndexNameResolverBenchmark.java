@@ -0,0 +1,66 @@
+package org.elasticsearch.flume;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.cloudera.flume.core.Event;
+import com.cloudera.flume.core.Event.Priority;
+import com.cloudera.flume.core.EventImpl;
+
+/**
+ * Compares IndexNameResolver against calling Event.escapeString() for every event, with events a few seconds apart
+ * as they would arrive at a collector.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IndexNameResolverBenchmark {
+
+    private static final int EVENT_COUNT = 1024;
+    private static final long START_TIMESTAMP = 1312156800000L;
+
+    @Param({"logs_%Y-%m-%d", "logs_%Y-%m-%d-%H"})
+    public String pattern;
+
+    private Event[] events;
+    private IndexNameResolver resolver;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        events = new Event[EVENT_COUNT];
+        for (int i = 0; i < EVENT_COUNT; i++) {
+            events[i] = new EventImpl("message".getBytes(), START_TIMESTAMP + i * 5000L, Priority.INFO, i, "localhost");
+        }
+        resolver = IndexNameResolver.compile(pattern);
+    }
+
+    private Event nextEvent() {
+        next = (next + 1) & (EVENT_COUNT - 1);
+        return events[next];
+    }
+
+    @Benchmark
+    public String escapeString() {
+        return nextEvent().escapeString(pattern);
+    }
+
+    @Benchmark
+    public String resolver() {
+        return resolver.resolve(nextEvent());
+    }
+}
@@ -0,0 +1,86 @@
+package org.elasticsearch.flume;
+
+/**
+ * Tunes the batch size and the in flight request limit from how ElasticSearch responds, additive increase,
+ * multiplicative decrease (AIMD) style.
+ * <p/>
+ * Every response within the target latency grows the batch size by batchSizeStep, and every full window of them grows
+ * the in flight limit by one.  A response slower than the target, or a rejection, halves both, but at most once per
+ * target latency, so the responses of requests sent before the decrease don't shrink the limits again.  Both stay
+ * within their bounds, and the in flight limit can start below its upper bound to leave it room to grow.
+ */
+final class AdaptiveLimits {
+
+    private static final double DECREASE = 0.5;
+
+    private final long targetLatencyNanos;
+    private final int minBatchSize;
+    private final int maxBatchSize;
+    private final int batchSizeStep;
+    private final int minInFlightRequests;
+    private final int maxInFlightRequests;
+
+    // Volatile so they can be read without taking the lock
+    private volatile int batchSize;
+    private volatile int inFlightRequests;
+    private int responsesInWindow;
+    private long lastDecreaseNanos;
+    private boolean decreased;
+
+    AdaptiveLimits(long targetLatencyMillis, int minBatchSize, int maxBatchSize, int batchSize,
+                   int minInFlightRequests, int maxInFlightRequests) {
+        this(targetLatencyMillis, minBatchSize, maxBatchSize, batchSize, minInFlightRequests, maxInFlightRequests,
+                maxInFlightRequests);
+    }
+
+    AdaptiveLimits(long targetLatencyMillis, int minBatchSize, int maxBatchSize, int batchSize,
+                   int minInFlightRequests, int maxInFlightRequests, int inFlightRequests) {
+        if (minBatchSize < 1 || minBatchSize > maxBatchSize) {
+            throw new IllegalArgumentException("Invalid batch size bounds: " + minBatchSize + " to " + maxBatchSize);
+        }
+        if (minInFlightRequests > maxInFlightRequests) {
+            throw new IllegalArgumentException("Invalid in flight request bounds: " + minInFlightRequests + " to "
+                    + maxInFlightRequests);
+        }
+        this.targetLatencyNanos = targetLatencyMillis * 1000000;
+        this.minBatchSize = minBatchSize;
+        this.maxBatchSize = maxBatchSize;
+        this.batchSizeStep = minBatchSize;
+        this.minInFlightRequests = minInFlightRequests;
+        this.maxInFlightRequests = maxInFlightRequests;
+        this.batchSize = Math.max(minBatchSize, Math.min(batchSize, maxBatchSize));
+        this.inFlightRequests = Math.max(minInFlightRequests, Math.min(inFlightRequests, maxInFlightRequests));
+    }
+
+    /**
+     * Adjusts the limits for a response that took latencyNanos, received at now (from System.nanoTime()).  Rejected is
+     * true if ElasticSearch rejected the request or any of its documents for being too busy.
+     */
+    synchronized void onResponse(long latencyNanos, boolean rejected, long now) {
+        if (rejected || latencyNanos > targetLatencyNanos) {
+            if (decreased && now - lastDecreaseNanos < targetLatencyNanos) {
+                return;
+            }
+            batchSize = Math.max(minBatchSize, (int) (batchSize * DECREASE));
+            inFlightRequests = Math.max(minInFlightRequests, (int) (inFlightRequests * DECREASE));
+            responsesInWindow = 0;
+            lastDecreaseNanos = now;
+            decreased = true;
+            return;
+        }
+
+        batchSize = Math.min(maxBatchSize, batchSize + batchSizeStep);
+        if (++responsesInWindow >= inFlightRequests) {
+            inFlightRequests = Math.min(maxInFlightRequests, inFlightRequests + 1);
+            responsesInWindow = 0;
+        }
+    }
+
+    int getBatchSize() {
+        return batchSize;
+    }
+
+    int getInFlightRequests() {
+        return inFlightRequests;
+    }
+}
@@ -0,0 +1,128 @@
+package org.elasticsearch.flume;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentType;
+
+/**
+ * Decides whether each attribute value is text or JSON, without scanning every value of every event.
+ * <p/>
+ * Attributes can be declared text or json up front, and are then never sniffed.  Other attributes are sniffed in full,
+ * which scans the whole value for the start of an object, until LEARN_AFTER values in a row have been text.  After
+ * that only the start of each value is checked, for an object after any leading whitespace or the SMILE header, so a
+ * JSON value, indented or not, is still found, and one that is found sends the attribute back to being sniffed in
+ * full.  At most maxKeys attributes are learned, attributes beyond that are always sniffed in full.
+ */
+final class AttributeTypes {
+
+    enum Type {
+        TEXT, JSON
+    }
+
+    static final int LEARN_AFTER = 16;
+
+    private static final byte[] SMILE_HEADER = {':', ')', '\n'};
+
+    private final Map<String, Type> declared;
+    private final int maxKeys;
+    private final ConcurrentMap<String, Learned> learned = new ConcurrentHashMap<String, Learned>();
+
+    AttributeTypes(Map<String, Type> declared, int maxKeys) {
+        this.declared = declared;
+        this.maxKeys = maxKeys;
+    }
+
+    /**
+     * Parses declared types given as name:type pairs separated by commas, for example "app:text,payload:json".
+     */
+    static Map<String, Type> parse(String types) {
+        Map<String, Type> declared = new HashMap<String, Type>();
+        for (String pair : types.split(",")) {
+            if (pair.trim().length() == 0) {
+                continue;
+            }
+            int colon = pair.lastIndexOf(':');
+            if (colon < 1) {
+                throw new IllegalArgumentException("Expected name:type for attribute type: " + pair);
+            }
+            declared.put(pair.substring(0, colon).trim(), Type.valueOf(pair.substring(colon + 1).trim().toUpperCase()));
+        }
+        return Collections.unmodifiableMap(declared);
+    }
+
+    /**
+     * Returns the content type of the attribute's value, or null if it is text.
+     */
+    XContentType contentType(String name, byte[] value) {
+        if (!declared.isEmpty()) {
+            Type type = declared.get(name);
+            if (type == Type.TEXT) {
+                return null;
+            }
+            if (type == Type.JSON) {
+                return XContentType.JSON;
+            }
+        }
+
+        Learned attribute = learned.get(name);
+        if (attribute == null) {
+            if (learned.size() >= maxKeys) {
+                return XContentFactory.xContentType(value);
+            }
+            attribute = new Learned();
+            Learned existing = learned.putIfAbsent(name, attribute);
+            if (existing != null) {
+                attribute = existing;
+            }
+        }
+        return attribute.contentType(value);
+    }
+
+    int getLearned() {
+        return learned.size();
+    }
+
+    /**
+     * The content type given away by the start of the value, or null if it looks like text.  JSON may be indented, so
+     * whitespace before its object is skipped.
+     */
+    static XContentType leadingContentType(byte[] value) {
+        if (value.length > SMILE_HEADER.length && value[0] == SMILE_HEADER[0] && value[1] == SMILE_HEADER[1]
+                && value[2] == SMILE_HEADER[2]) {
+            return XContentType.SMILE;
+        }
+        for (byte b : value) {
+            if (b == '{') {
+                return XContentType.JSON;
+            }
+            if (b != ' ' && b != '\t' && b != '\n' && b != '\r') {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    private static final class Learned {
+        // Text values seen in a row, racing updates from several threads only make learning a little slower or faster
+        private volatile int textValues;
+
+        XContentType contentType(byte[] value) {
+            int seen = textValues;
+            if (seen >= LEARN_AFTER) {
+                XContentType contentType = leadingContentType(value);
+                if (contentType != null) {
+                    textValues = 0;
+                }
+                return contentType;
+            }
+            XContentType contentType = XContentFactory.xContentType(value);
+            textValues = contentType != null ? 0 : seen + 1;
+            return contentType;
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package org.elasticsearch.flume;
+
+import static org.elasticsearch.node.NodeBuilder.nodeBuilder;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.elasticsearch.client.Client;
+import org.elasticsearch.client.transport.TransportClient;
+import org.elasticsearch.common.settings.ImmutableSettings;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.transport.InetSocketTransportAddress;
+import org.elasticsearch.node.Node;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Shares clients between the sinks in a Flume node that talk to the same cluster, so each cluster costs one set of
+ * connections, thread pools and copy of the cluster state however many sinks there are.  A client is started by the
+ * first sink to acquire it and closed when the last one releases it.
+ */
+final class ClientRegistry {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ClientRegistry.class);
+    private static final int DEFAULT_ELASTICSEARCH_PORT = 9300;
+
+    static final ClientRegistry SHARED = new ClientRegistry();
+
+    private final Map<Key, Entry> entries = new HashMap<Key, Entry>();
+
+    ClientRegistry() {
+    }
+
+    /**
+     * Returns a client for the cluster, discovering it when there are no host names, which must be passed to
+     * release() once the caller is done with it.
+     */
+    synchronized Client acquire(String clusterName, String[] hostNames, boolean localOnly) {
+        Key key = new Key(clusterName, hostNames, localOnly);
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            entry = connect(key);
+            entries.put(key, entry);
+        } else {
+            LOG.info("Sharing ES client for cluster: {} with {} other sinks", clusterName, entry.references);
+        }
+        entry.references++;
+        return entry.client;
+    }
+
+    synchronized void release(Client client) {
+        for (Map.Entry<Key, Entry> mapEntry : entries.entrySet()) {
+            Entry entry = mapEntry.getValue();
+            if (entry.client != client) {
+                continue;
+            }
+            if (--entry.references == 0) {
+                LOG.info("Closing ES client for cluster: {}, no sinks are using it", mapEntry.getKey().clusterName);
+                entries.remove(mapEntry.getKey());
+                entry.close();
+            }
+            return;
+        }
+        throw new IllegalArgumentException("Client was not acquired from this registry: " + client);
+    }
+
+    synchronized int getReferences(Client client) {
+        for (Entry entry : entries.values()) {
+            if (entry.client == client) {
+                return entry.references;
+            }
+        }
+        return 0;
+    }
+
+    private static Entry connect(Key key) {
+        if (key.hostNames.length == 0) {
+            LOG.info("Using ES AutoDiscovery mode");
+            Node node = nodeBuilder().client(true).clusterName(key.clusterName).local(key.localOnly).node();
+            return new Entry(node, node.client());
+        }
+
+        LOG.info("Using provided ES hostnames: {} ", Arrays.toString(key.hostNames));
+        Settings settings = ImmutableSettings.settingsBuilder()
+                .put("cluster.name", key.clusterName)
+                .build();
+
+        TransportClient transportClient = new TransportClient(settings);
+        for (String esHostName : key.hostNames) {
+            LOG.info("Adding TransportClient: {}", esHostName);
+            transportClient = transportClient.addTransportAddress(address(esHostName));
+        }
+        return new Entry(null, transportClient);
+    }
+
+    /**
+     * Parses a host name given as host, host:port or [IPv6 address]:port, using the default transport port if there
+     * isn't one.
+     */
+    static InetSocketTransportAddress address(String hostName) {
+        String host = hostName.trim();
+        String port = null;
+        if (host.startsWith("[")) {
+            int end = host.indexOf(']');
+            if (end < 0) {
+                throw new IllegalArgumentException("Missing ] in host name: " + hostName);
+            }
+            if (end + 1 < host.length()) {
+                if (host.charAt(end + 1) != ':') {
+                    throw new IllegalArgumentException("Expected :port after ] in host name: " + hostName);
+                }
+                port = host.substring(end + 2);
+            }
+            host = host.substring(1, end);
+        } else {
+            int colon = host.indexOf(':');
+            // More than one colon is a bare IPv6 address, which can't have a port
+            if (colon >= 0 && colon == host.lastIndexOf(':')) {
+                port = host.substring(colon + 1);
+                host = host.substring(0, colon);
+            }
+        }
+        if (host.length() == 0) {
+            throw new IllegalArgumentException("Missing host in host name: " + hostName);
+        }
+        try {
+            return new InetSocketTransportAddress(host, port == null ? DEFAULT_ELASTICSEARCH_PORT
+                    : Integer.parseInt(port));
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException("Invalid port in host name: " + hostName);
+        }
+    }
+
+    private static final class Entry {
+        private final Node node;
+        private final Client client;
+        private int references;
+
+        private Entry(Node node, Client client) {
+            this.node = node;
+            this.client = client;
+        }
+
+        private void close() {
+            client.close();
+            if (node != null) {
+                node.close();
+            }
+        }
+    }
+
+    private static final class Key {
+        private final String clusterName;
+        private final String[] hostNames;
+        private final boolean localOnly;
+
+        private Key(String clusterName, String[] hostNames, boolean localOnly) {
+            this.clusterName = clusterName;
+            // The same hosts in a different order reach the same cluster the same way
+            this.hostNames = hostNames.clone();
+            Arrays.sort(this.hostNames);
+            this.localOnly = localOnly;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return clusterName.equals(other.clusterName) && Arrays.equals(hostNames, other.hostNames)
+                    && localOnly == other.localOnly;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * clusterName.hashCode() + Arrays.hashCode(hostNames)) + (localOnly ? 1 : 0);
+        }
+    }
+}
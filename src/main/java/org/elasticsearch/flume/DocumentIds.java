@@ -0,0 +1,167 @@
+package org.elasticsearch.flume;
+
+import java.nio.charset.Charset;
+
+import com.cloudera.flume.core.Event;
+
+/**
+ * Derives a document id from an event's timestamp, nanos, host and body, so an event Flume delivers again gets the
+ * same id and overwrites the document indexed the first time rather than duplicating it.
+ * <p/>
+ * The id is the 128 bit MurmurHash3 of those fields, URL safe base64 encoded into 22 characters.  That is fast to
+ * compute, and collisions between different events are vanishingly unlikely.
+ */
+final class DocumentIds {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final char[] BASE64 = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_".toCharArray();
+    // Buffers that grew beyond this hashing a large event are dropped rather than held by the thread forever
+    private static final int MAX_RETAINED_BUFFER_SIZE = 1024 * 1024;
+
+    private static final ThreadLocal<byte[]> BUFFER = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[1024];
+        }
+    };
+
+    private static final long C1 = 0x87c37b91114253d5L;
+    private static final long C2 = 0x4cf5ad432745937fL;
+
+    private DocumentIds() {
+    }
+
+    static String of(Event e) {
+        byte[] host = e.getHost() == null ? new byte[0] : e.getHost().getBytes(UTF_8);
+        byte[] body = e.getBody();
+        int length = 8 + 8 + 4 + host.length + body.length;
+
+        byte[] buffer = BUFFER.get();
+        if (buffer.length < length) {
+            buffer = new byte[Math.max(length, buffer.length * 2)];
+            if (buffer.length <= MAX_RETAINED_BUFFER_SIZE) {
+                BUFFER.set(buffer);
+            }
+        }
+        int offset = putLong(buffer, 0, e.getTimestamp());
+        offset = putLong(buffer, offset, e.getNanos());
+        // The host's length keeps host "ab" with body "c" apart from host "a" with body "bc"
+        offset = putInt(buffer, offset, host.length);
+        System.arraycopy(host, 0, buffer, offset, host.length);
+        offset += host.length;
+        System.arraycopy(body, 0, buffer, offset, body.length);
+
+        long[] hash = murmur3(buffer, length);
+        return encode(hash[0], hash[1]);
+    }
+
+    /**
+     * MurmurHash3 x64 128 with a seed of 0, returning h1 and h2.
+     */
+    static long[] murmur3(byte[] data, int length) {
+        long h1 = 0;
+        long h2 = 0;
+        int blocks = length / 16;
+        for (int i = 0; i < blocks; i++) {
+            long k1 = getLong(data, i * 16);
+            long k2 = getLong(data, i * 16 + 8);
+
+            h1 ^= mixK1(k1);
+            h1 = Long.rotateLeft(h1, 27);
+            h1 += h2;
+            h1 = h1 * 5 + 0x52dce729;
+
+            h2 ^= mixK2(k2);
+            h2 = Long.rotateLeft(h2, 31);
+            h2 += h1;
+            h2 = h2 * 5 + 0x38495ab5;
+        }
+
+        int tail = blocks * 16;
+        long k1 = 0;
+        long k2 = 0;
+        for (int i = (length & 15) - 1; i >= 8; i--) {
+            k2 ^= (data[tail + i] & 0xffL) << ((i - 8) * 8);
+        }
+        for (int i = Math.min(length & 15, 8) - 1; i >= 0; i--) {
+            k1 ^= (data[tail + i] & 0xffL) << (i * 8);
+        }
+        h1 ^= mixK1(k1);
+        h2 ^= mixK2(k2);
+
+        h1 ^= length;
+        h2 ^= length;
+        h1 += h2;
+        h2 += h1;
+        h1 = fmix(h1);
+        h2 = fmix(h2);
+        h1 += h2;
+        h2 += h1;
+        return new long[]{h1, h2};
+    }
+
+    private static long mixK1(long k1) {
+        k1 *= C1;
+        k1 = Long.rotateLeft(k1, 31);
+        return k1 * C2;
+    }
+
+    private static long mixK2(long k2) {
+        k2 *= C2;
+        k2 = Long.rotateLeft(k2, 33);
+        return k2 * C1;
+    }
+
+    private static long fmix(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+
+    private static long getLong(byte[] data, int offset) {
+        long value = 0;
+        for (int i = 7; i >= 0; i--) {
+            value = (value << 8) | (data[offset + i] & 0xffL);
+        }
+        return value;
+    }
+
+    private static int putLong(byte[] buffer, int offset, long value) {
+        for (int i = 0; i < 8; i++) {
+            buffer[offset + i] = (byte) (value >>> (i * 8));
+        }
+        return offset + 8;
+    }
+
+    private static int putInt(byte[] buffer, int offset, int value) {
+        for (int i = 0; i < 4; i++) {
+            buffer[offset + i] = (byte) (value >>> (i * 8));
+        }
+        return offset + 4;
+    }
+
+    /**
+     * Encodes the 16 bytes of h1 then h2, little endian as MurmurHash3 produces them, without padding.
+     */
+    private static String encode(long h1, long h2) {
+        byte[] bytes = new byte[16];
+        putLong(bytes, 0, h1);
+        putLong(bytes, 8, h2);
+        char[] chars = new char[22];
+        int c = 0;
+        for (int i = 0; i < 15; i += 3) {
+            int bits = (bytes[i] & 0xff) << 16 | (bytes[i + 1] & 0xff) << 8 | (bytes[i + 2] & 0xff);
+            chars[c++] = BASE64[bits >>> 18];
+            chars[c++] = BASE64[(bits >>> 12) & 63];
+            chars[c++] = BASE64[(bits >>> 6) & 63];
+            chars[c++] = BASE64[bits & 63];
+        }
+        int bits = (bytes[15] & 0xff) << 16;
+        chars[c++] = BASE64[bits >>> 18];
+        chars[c] = BASE64[(bits >>> 12) & 63];
+        return new String(chars);
+    }
+}
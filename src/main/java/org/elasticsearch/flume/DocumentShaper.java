@@ -0,0 +1,87 @@
+package org.elasticsearch.flume;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import com.cloudera.flume.reporter.ReportEvent;
+
+/**
+ * Decides which attributes go into documents and how much of the body and each attribute is kept, and counts the
+ * bytes that saves.
+ * <p/>
+ * With an include list only the attributes on it are indexed, and attributes on the exclude list never are.  Text
+ * longer than its maximum is cut at the last whole UTF-8 character that fits.  JSON can't be cut and stay JSON, so a
+ * JSON body that is too long is indexed as cut text, and a JSON attribute that is too long is left out.
+ */
+final class DocumentShaper {
+
+    static final String NO_OF_SAVED_BYTES = "NO_OF_SAVED_BYTES";
+    static final String NO_OF_TRUNCATED_EVENTS = "NO_OF_TRUNCATED_EVENTS";
+
+    static final DocumentShaper NONE = new DocumentShaper(new String[0], new String[0], 0, 0);
+
+    // Null to include every attribute that isn't excluded
+    private final Set<String> include;
+    private final Set<String> exclude;
+    private final int maxBodyBytes;
+    private final int maxFieldBytes;
+
+    private final StripedCounter savedBytes = new StripedCounter();
+    private final StripedCounter truncatedEvents = new StripedCounter();
+
+    DocumentShaper(String[] include, String[] exclude, int maxBodyBytes, int maxFieldBytes) {
+        this.include = include.length > 0 ? new HashSet<String>(Arrays.asList(include)) : null;
+        this.exclude = new HashSet<String>(Arrays.asList(exclude));
+        this.maxBodyBytes = maxBodyBytes;
+        this.maxFieldBytes = maxFieldBytes;
+    }
+
+    boolean isIncluded(String attribute) {
+        return (include == null || include.contains(attribute)) && !exclude.contains(attribute);
+    }
+
+    boolean isBodyTooLong(byte[] body) {
+        return maxBodyBytes > 0 && body.length > maxBodyBytes;
+    }
+
+    boolean isFieldTooLong(byte[] value) {
+        return maxFieldBytes > 0 && value.length > maxFieldBytes;
+    }
+
+    int getMaxBodyBytes() {
+        return maxBodyBytes;
+    }
+
+    int getMaxFieldBytes() {
+        return maxFieldBytes;
+    }
+
+    /**
+     * Returns how many bytes of the UTF-8 text to keep to fit in max bytes without cutting a character in half.
+     */
+    static int truncatedLength(byte[] data, int max) {
+        if (data.length <= max) {
+            return data.length;
+        }
+        int length = max;
+        // A continuation byte just past the cut means the character before it would be cut in half
+        while (length > 0 && (data[length] & 0xC0) == 0x80) {
+            length--;
+        }
+        return length;
+    }
+
+    void saved(long bytes) {
+        savedBytes.add(bytes);
+    }
+
+    void truncated() {
+        truncatedEvents.increment();
+    }
+
+    void report(ReportEvent event) {
+        event.setLongMetric(NO_OF_SAVED_BYTES, savedBytes.sum());
+        event.setLongMetric(NO_OF_TRUNCATED_EVENTS, truncatedEvents.sum());
+    }
+}
@@ -1,33 +1,46 @@
 package org.elasticsearch.flume;
 
-import static org.elasticsearch.common.xcontent.XContentFactory.jsonBuilder;
-import static org.elasticsearch.node.NodeBuilder.nodeBuilder;
-
+import java.io.File;
 import java.io.IOException;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Date;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
 import com.cloudera.flume.conf.SinkFactory.SinkBuilder;
 import com.cloudera.flume.core.Event;
+import com.cloudera.flume.core.Event.Priority;
 import com.cloudera.flume.core.EventSink;
 import com.cloudera.flume.reporter.ReportEvent;
 import com.cloudera.util.Pair;
+import org.elasticsearch.ElasticSearchInterruptedException;
+import org.elasticsearch.ExceptionsHelper;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.ActionRequest;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.index.IndexResponse;
 import org.elasticsearch.client.Client;
-import org.elasticsearch.client.transport.TransportClient;
+import org.elasticsearch.client.action.admin.indices.create.CreateIndexRequestBuilder;
+import org.elasticsearch.client.action.bulk.BulkRequestBuilder;
+import org.elasticsearch.client.action.index.IndexRequestBuilder;
 import org.elasticsearch.cluster.ClusterName;
+import org.elasticsearch.common.io.Streams;
 import org.elasticsearch.common.settings.ImmutableSettings;
 import org.elasticsearch.common.settings.Settings;
-import org.elasticsearch.common.transport.InetSocketTransportAddress;
-import org.elasticsearch.common.xcontent.XContentBuilder;
-import org.elasticsearch.common.xcontent.XContentFactory;
-import org.elasticsearch.common.xcontent.XContentParser;
-import org.elasticsearch.common.xcontent.XContentType;
-import org.elasticsearch.node.Node;
+import org.elasticsearch.indices.IndexAlreadyExistsException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -36,211 +49,1981 @@ public class ElasticSearchSink extends EventSink.Base {
     private static final Logger LOG = LoggerFactory.getLogger(ElasticSearchSink.class);
     private static final String DEFAULT_INDEX_NAME = "flume";
     private static final String DEFAULT_LOG_TYPE = "log";
-    private static final int DEFAULT_ELASTICSEARCH_PORT = 9300;
+    private static final int DEFAULT_INDEX_CACHE_SIZE = 64;
+    private static final long DEFAULT_BATCH_BYTES = 5 * 1024 * 1024;
+    private static final long DEFAULT_BATCH_LINGER_MILLIS = 1000;
+    private static final long DEFAULT_CLOSE_TIMEOUT_MILLIS = 30000;
+    private static final long DEFAULT_SPILL_MAX_BYTES = 1024L * 1024 * 1024;
+    private static final long DEFAULT_SPILL_SEGMENT_BYTES = 64 * 1024 * 1024;
+    private static final long DEFAULT_SPILL_REPLAY_INTERVAL_MILLIS = 1000;
+    private static final int DEFAULT_SPILL_REPLAY_BATCH_SIZE = 500;
+    private static final long DEFAULT_SPILL_WAIT_MILLIS = 10000;
+    private static final long DEFAULT_RETRY_INITIAL_BACKOFF_MILLIS = 100;
+    private static final long DEFAULT_RETRY_MAX_BACKOFF_MILLIS = 10000;
+    private static final double DEFAULT_RETRY_JITTER = 0.5;
+    private static final int DEFAULT_SERIALIZATION_QUEUE_SIZE = 10000;
+    private static final String DEFAULT_QUERY_REFRESH_INTERVAL = "1s";
+    private static final int DEFAULT_QUERY_REPLICAS = 1;
+    private static final long MAX_PRECREATE_CHECK_MILLIS = 60000;
+    private static final String DEFAULT_SHED_PRIORITIES = "TRACE,DEBUG,INFO,WARN";
+    private static final int DEFAULT_COLLAPSE_CACHE_SIZE = 10000;
+    private static final long MIN_COLLAPSE_CHECK_MILLIS = 10;
+    private static final int DEFAULT_DEDUP_CACHE_SIZE = 100000;
+    private static final int DEFAULT_MAX_BATCH_GROUPS = 32;
+    private static final int DEFAULT_MIN_BATCH_SIZE = 10;
+    static final int DEFAULT_ATTRIBUTE_TYPE_CACHE_SIZE = 1000;
+    private static final int DEFAULT_MAX_BATCH_SIZE = 10000;
+    private static final long DEFAULT_NODE_TIMEOUT_MILLIS = 10000;
+    private static final int DEFAULT_NODE_EJECT_AFTER = 3;
+    private static final long DEFAULT_NODE_EJECT_MILLIS = 30000;
+    private static final String REFRESH_INTERVAL = "index.refresh_interval";
+    private static final String NUMBER_OF_REPLICAS = "index.number_of_replicas";
 
-    private Node node;
     private Client client;
+    // Whether client was acquired from the ClientRegistry, rather than given to the sink with setClient()
+    private boolean sharedClient;
     private String indexName = DEFAULT_INDEX_NAME;
     private String indexPattern = null;
+    private IndexNameResolver indexNameResolver;
+    private String routing;
+    private RoutingResolver routingResolver;
     private String indexType = DEFAULT_LOG_TYPE;
 
     private Charset charset = Charset.defaultCharset();
 
+    /**
+     * How JSON bodies and attributes are added to the document.
+     */
+    public enum JsonMode {
+        /** Parse the JSON and copy it into the document, this re-serializes the JSON but never produces a bad document */
+        PARSE,
+        /** Check the JSON is well formed and splice it into the document as is, falling back to PARSE if it isn't */
+        VALIDATE,
+        /** Splice the JSON into the document as is, for producers that are known to only send valid JSON */
+        TRUST
+    }
+
+    private JsonMode jsonMode = JsonMode.PARSE;
+
+    /**
+     * How documents are encoded when sent to ElasticSearch.
+     */
+    public enum Encoding {
+        /** Text JSON */
+        JSON,
+        /** Binary JSON, smaller and cheaper to generate and parse, JSON bodies and attributes are always parsed into it */
+        SMILE
+    }
+
+    private Encoding encoding = Encoding.JSON;
+    // Attributes declared text or json, as name:type pairs, and how many other attributes to learn the type of
+    private String attributeTypes = "";
+    private int attributeTypeCacheSize = DEFAULT_ATTRIBUTE_TYPE_CACHE_SIZE;
+    // An empty include list includes every attribute, and a maximum of 0 bytes keeps all of the body or field
+    private String[] includeAttributes = new String[0];
+    private String[] excludeAttributes = new String[0];
+    private int maxBodyBytes = 0;
+    private int maxFieldBytes = 0;
+    private DocumentShaper shaper;
+    private EventSerializer serializer;
+
     private String[] hostNames = new String[0];
     private String clusterName = ClusterName.DEFAULT.value();
 
+    // With selectNodes each bulk request is sent to one of hostNames through a client of its own, keyed by host name
+    private boolean selectNodes = false;
+    private long nodeTimeoutMillis = DEFAULT_NODE_TIMEOUT_MILLIS;
+    private int nodeEjectAfter = DEFAULT_NODE_EJECT_AFTER;
+    private long nodeEjectMillis = DEFAULT_NODE_EJECT_MILLIS;
+    private Map<String, Client> nodeClients;
+    // Whether nodeClients were acquired from the ClientRegistry, rather than given to the sink with setNodeClients()
+    private boolean sharedNodeClients;
+    private volatile NodeSelector nodeSelector;
+
     // Enabled only for testing
     private boolean localOnly = false;
 
-    private AtomicLong eventErrorCount = new AtomicLong(0L);
-    private static final String NO_OF_FAILED_EVENTS = "NO_OF_FAILED_EVENTS";
+    // Indices resolved from indexPattern that have already been created and aliased to indexName
+    private int indexCacheSize = DEFAULT_INDEX_CACHE_SIZE;
+    private Set<String> knownIndices;
+
+    // Settings for the index from indexPattern currently being written to, and to restore once it rolls over.  Neither
+    // ingest setting given disables ingest mode, and a replica count of -1 leaves replicas alone
+    private String ingestRefreshInterval;
+    private int ingestReplicas = -1;
+    private String queryRefreshInterval = DEFAULT_QUERY_REFRESH_INTERVAL;
+    private int queryReplicas = DEFAULT_QUERY_REPLICAS;
+    private final Set<String> ingestingIndices = new HashSet<String>();
+    // Timestamp of the event that rolled over to the index being written to, guarded by ingestingIndices
+    private long rolledOverAt = Long.MIN_VALUE;
+    // Off when other sinks write the same indexPattern, so closing one doesn't restore the query settings under them
+    private boolean restoreQuerySettingsOnClose = true;
+
+    // A lead time of 0 disables creating the next index from a time based indexPattern before it is written to
+    private long precreateLeadMillis = 0;
+    private String indexMappingFile;
+    private String indexMapping;
+    // Created ahead of time, and not yet written to
+    private Set<String> precreatedIndices;
+    private ScheduledExecutorService precreateScheduler;
+
+    // A batch size of 0 disables bulk mode, every event is indexed with its own request
+    private int batchSize = 0;
+    private long batchBytes = DEFAULT_BATCH_BYTES;
+    private long batchLingerMillis = DEFAULT_BATCH_LINGER_MILLIS;
+
+    // With groupBatches each index and routing value gets its own batch, up to maxBatchGroups at once
+    private boolean groupBatches = false;
+    private int maxBatchGroups = DEFAULT_MAX_BATCH_GROUPS;
+    // Oldest first, so lingering batches and the batch to flush when there are too many groups are at the front
+    private final LinkedHashMap<String, Batch> batches = new LinkedHashMap<String, Batch>();
+    // Volatile so getMetrics() can report them without taking the bulk request lock
+    private volatile int bulkRequestActions;
+    private volatile long bulkRequestBytes;
+    private ScheduledExecutorService flushScheduler;
+
+    // A maximum of 0 in flight requests disables async mode, append() waits for each request to complete
+    private int maxInFlightRequests = 0;
+    private long closeTimeoutMillis = DEFAULT_CLOSE_TIMEOUT_MILLIS;
+    private InFlightLimit inFlightRequests;
+
+    // A target latency of 0 disables adapting batchSize and maxInFlightRequests, otherwise they are where it starts
+    // from, and adaptiveMaxInFlightRequests is the most the in flight limit goes up to, 0 keeping maxInFlightRequests
+    private long targetLatencyMillis = 0;
+    private int minBatchSize = DEFAULT_MIN_BATCH_SIZE;
+    private int maxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+    private int minInFlightRequests = 1;
+    private int adaptiveMaxInFlightRequests = 0;
+    private AdaptiveLimits adaptiveLimits;
+
+    // Spilling is disabled unless a spill directory is given
+    private String spillDir;
+    private long spillMaxBytes = DEFAULT_SPILL_MAX_BYTES;
+    private long spillSegmentBytes = DEFAULT_SPILL_SEGMENT_BYTES;
+    private long spillReplayIntervalMillis = DEFAULT_SPILL_REPLAY_INTERVAL_MILLIS;
+    private int spillReplayBatchSize = DEFAULT_SPILL_REPLAY_BATCH_SIZE;
+    // How long async mode waits for an in flight request before spilling rather than waiting on ElasticSearch
+    private long spillWaitMillis = DEFAULT_SPILL_WAIT_MILLIS;
+    private volatile SpillBuffer spillBuffer;
+    private ScheduledExecutorService replayScheduler;
+    // Stops replay after the batch it is sending, so closing doesn't wait for the whole buffer to be replayed
+    private volatile boolean replayStopped;
+
+    // A maximum of 1 attempt disables retries, retryable failures are spilled if enabled and failed otherwise
+    private int retryMaxAttempts = 1;
+    private long retryInitialBackoffMillis = DEFAULT_RETRY_INITIAL_BACKOFF_MILLIS;
+    private long retryMaxBackoffMillis = DEFAULT_RETRY_MAX_BACKOFF_MILLIS;
+    private double retryJitter = DEFAULT_RETRY_JITTER;
+    private RetryPolicy retryPolicy;
+    // Async retries are sent from here after backing off, still holding their in flight request
+    private volatile ScheduledExecutorService retryScheduler;
+
+    // No serialization threads disables the serialization stage, documents are built by the thread calling append()
+    private int serializationThreads = 0;
+    private int serializationQueueSize = DEFAULT_SERIALIZATION_QUEUE_SIZE;
+    private boolean preserveIndexOrder = false;
+    private SerializationStage serializationStage;
+
+    // Load shedding is disabled unless at least one threshold is given
+    private String shedPriorities = DEFAULT_SHED_PRIORITIES;
+    private int shedQueueDepth = 0;
+    private int shedInFlightRequests = 0;
+    private long shedLatencyMillis = 0;
+    private LoadShedder loadShedder;
+
+    // A window of 0 disables collapsing repeated events
+    private long collapseWindowMillis = 0;
+    private int collapseCacheSize = DEFAULT_COLLAPSE_CACHE_SIZE;
+    private String[] collapseAttributes = new String[0];
+    private EventCollapser collapser;
+    private ScheduledExecutorService collapseScheduler;
+
+    // Documents are given ids derived from their events, and the ids recently sent are remembered so duplicates can be
+    // dropped before they reach ElasticSearch.  A cache size of 0 leaves all deduplication to ElasticSearch.
+    private boolean deterministicIds = false;
+    private int dedupCacheSize = DEFAULT_DEDUP_CACHE_SIZE;
+    private Set<String> sentIds;
+
+    private final SinkMetrics metrics = new SinkMetrics();
+    private static final String NO_OF_IN_FLIGHT_REQUESTS = "NO_OF_IN_FLIGHT_REQUESTS";
+    private static final String BULK_REQUEST_ACTIONS = "BULK_REQUEST_ACTIONS";
+    private static final String BULK_REQUEST_BYTES = "BULK_REQUEST_BYTES";
+    private static final String SPILL_BYTES = "SPILL_BYTES";
+    private static final String NO_OF_LOST_SPILLED_EVENTS = "NO_OF_LOST_SPILLED_EVENTS";
+    private static final String SPILL_LOST_BYTES = "SPILL_LOST_BYTES";
+    private static final String SERIALIZATION_QUEUE_DEPTH = "SERIALIZATION_QUEUE_DEPTH";
+    private static final String OVERLOAD_PERCENT = "OVERLOAD_PERCENT";
+    private static final String NO_OF_COLLAPSED_EVENTS = "NO_OF_COLLAPSED_EVENTS";
+    private static final String COLLAPSE_CACHE_EVENTS = "COLLAPSE_CACHE_EVENTS";
+    private static final String ADAPTIVE_BATCH_SIZE = "ADAPTIVE_BATCH_SIZE";
+    private static final String ADAPTIVE_MAX_IN_FLIGHT_REQUESTS = "ADAPTIVE_MAX_IN_FLIGHT_REQUESTS";
 
     @Override
     public void append(Event e) throws IOException {
+        metrics.appendedEvents.increment();
+        if (loadShedder != null && loadShedder.shed(e.getPriority(), overload())) {
+            return;
+        }
+        if (collapser != null) {
+            dispatch(collapser.add(e, System.currentTimeMillis()));
+            return;
+        }
+        dispatch(e);
+    }
+
+    private void dispatch(List<Event> events) {
+        for (Event e : events) {
+            dispatch(e);
+        }
+    }
+
+    /**
+     * Builds and indexes the event, or queues it for the serialization stage.
+     */
+    private void dispatch(Event e) {
+        if (serializationStage == null) {
+            process(e);
+            return;
+        }
         try {
-            XContentBuilder builder = jsonBuilder()
-                    .startObject()
-                    .field("timestamp", new Date(e.getTimestamp()))
-                    .field("host", e.getHost())
-                    .field("priority", e.getPriority().name());
+            serializationStage.submit(e, preserveIndexOrder ? orderKey(e) : null);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            LOG.error("Interrupted queueing event: {}", e.toString(), ex);
+            metrics.failedEvents.increment();
+        }
+    }
 
-            addBody(builder, e.getBody());
+    /**
+     * Events with the same index and routing value, or the same index and host without routing, stay in order.  Not
+     * just the index, so a single daily index is still spread over the serialization threads.
+     */
+    private String orderKey(Event e) {
+        return resolveIndexName(e) + '/' + (routingResolver != null ? resolveRouting(e) : e.getHost());
+    }
 
-            addAttrs(builder, e.getAttrs());
+    /**
+     * Builds the event's document and indexes it, on the thread calling append() or on a serialization stage worker.
+     */
+    private void process(Event e) {
+        String id = deterministicIds ? DocumentIds.of(e) : null;
+        // Checked before serializing, so a redelivered event only costs hashing it
+        if (sentIds != null && !sentIds.add(id)) {
+            LOG.debug("Dropping duplicate event {}", id);
+            metrics.duplicateEvents.increment();
+            return;
+        }
+        boolean sent = false;
+        try {
+            long start = System.nanoTime();
+            byte[] source = serializer.serialize(e);
+            metrics.serializationLatency.recordNanos(System.nanoTime() - start);
+            metrics.serializedBytes.add(source.length);
 
-            index(e, builder);
+            send(new IndexRequest(resolveIndexName(e), indexType, id).routing(resolveRouting(e)).source(source),
+                    e.getTimestamp());
+            sent = true;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            LOG.error("Interrupted processing event: {}", e.toString(), ex);
+            metrics.failedEvents.increment();
         } catch (Exception ex) {
             LOG.error("Error Processing event: {}", e.toString(), ex);
-            eventErrorCount.incrementAndGet();
+            metrics.failedEvents.increment();
+        } finally {
+            if (!sent) {
+                // Let Flume's redelivery of the event through
+                forgetId(id);
+            }
         }
     }
 
     @Override
-    public synchronized ReportEvent getMetrics() {
+    public ReportEvent getMetrics() {
         ReportEvent event = new ReportEvent("ElasticSearchSink");
-        event.setLongMetric(NO_OF_FAILED_EVENTS, eventErrorCount.longValue());
+        metrics.report(event);
+        if (isBulkMode()) {
+            event.setLongMetric(BULK_REQUEST_ACTIONS, bulkRequestActions);
+            event.setLongMetric(BULK_REQUEST_BYTES, bulkRequestBytes);
+        }
+        EventCollapser eventCollapser = collapser;
+        if (eventCollapser != null) {
+            event.setLongMetric(NO_OF_COLLAPSED_EVENTS, eventCollapser.getCollapsed());
+            event.setLongMetric(COLLAPSE_CACHE_EVENTS, eventCollapser.size());
+        }
+        DocumentShaper documentShaper = shaper;
+        if (documentShaper != null) {
+            documentShaper.report(event);
+        }
+        LoadShedder shedder = loadShedder;
+        if (shedder != null) {
+            shedder.report(event);
+            event.setLongMetric(OVERLOAD_PERCENT, Math.round(overload() * 100));
+        }
+        SerializationStage stage = serializationStage;
+        if (stage != null) {
+            event.setLongMetric(SERIALIZATION_QUEUE_DEPTH, stage.getQueueDepth());
+        }
+        SpillBuffer spill = spillBuffer;
+        if (spill != null) {
+            event.setLongMetric(SPILL_BYTES, spill.getBytes());
+            event.setLongMetric(NO_OF_LOST_SPILLED_EVENTS, spill.getLostRecords());
+            event.setLongMetric(SPILL_LOST_BYTES, spill.getLostBytes());
+        }
+        InFlightLimit inFlight = inFlightRequests;
+        if (inFlight != null) {
+            event.setLongMetric(NO_OF_IN_FLIGHT_REQUESTS, inFlight.inUse());
+        }
+        AdaptiveLimits limits = adaptiveLimits;
+        if (limits != null) {
+            event.setLongMetric(ADAPTIVE_BATCH_SIZE, limits.getBatchSize());
+            event.setLongMetric(ADAPTIVE_MAX_IN_FLIGHT_REQUESTS, limits.getInFlightRequests());
+        }
+        NodeSelector selector = nodeSelector;
+        if (selector != null) {
+            selector.report(event, System.nanoTime());
+        }
         return event;
     }
 
-    private void addBody(XContentBuilder builder, byte[] data) throws IOException {
-        XContentType contentType = XContentFactory.xContentType(data);
+    /**
+     * Events queued are those waiting for a serialization thread and documents in bulk requests not sent yet, so the
+     * queue depth is an overload signal with and without serializationThreads.
+     */
+    private double overload() {
+        SerializationStage stage = serializationStage;
+        InFlightLimit inFlight = inFlightRequests;
+        int queueDepth = (stage != null ? stage.getQueueDepth() : 0) + bulkRequestActions;
+        return loadShedder.overload(queueDepth, inFlight != null ? inFlight.inUse() : 0, System.nanoTime());
+    }
 
-        if (contentType == null) {
-            builder.startObject("message");
-            addSimpleField(builder, "text", data);
-            builder.endObject();
-        } else {
-            addComplexField(builder, "message", contentType, data);
+    /**
+     * Records the latency of a request that completed, rejected being true if the cluster turned it or any of its
+     * documents away for being too busy.
+     */
+    private void recordIndexLatency(long nanos, boolean rejected) {
+        metrics.indexLatency.recordNanos(nanos);
+        LoadShedder shedder = loadShedder;
+        if (shedder != null) {
+            shedder.recordLatencyNanos(nanos, System.nanoTime());
+        }
+        AdaptiveLimits limits = adaptiveLimits;
+        if (limits != null) {
+            limits.onResponse(nanos, rejected, System.nanoTime());
+            if (inFlightRequests != null) {
+                inFlightRequests.setLimit(limits.getInFlightRequests());
+            }
+        }
+    }
+
+    private NodeSelector.Target selectNode(long now) {
+        NodeSelector selector = nodeSelector;
+        return selector == null ? null : selector.select(now);
+    }
+
+    /**
+     * Records how the node a bulk request was sent to responded, failure being null if it responded at all.
+     */
+    private void nodeResponded(NodeSelector.Target target, long latencyNanos, Throwable failure) {
+        NodeSelector selector = nodeSelector;
+        if (target != null && selector != null) {
+            selector.onResponse(target, latencyNanos, failure != null && IndexingFailures.isNodeFailure(failure),
+                    System.nanoTime());
         }
     }
 
-    private void addAttrs(XContentBuilder builder, Map<String, byte[]> attrs) throws IOException {
-        builder.startObject("fields");
-        for (Map.Entry<String, byte[]> entry : attrs.entrySet()) {
-            if (LOG.isDebugEnabled()) {
-                LOG.debug("field: {}, data: {}", entry.getKey(), new String(entry.getValue()));
+    private static boolean hasRejections(BulkResponse response) {
+        if (response.hasFailures()) {
+            for (BulkItemResponse item : response.items()) {
+                if (item.failed() && IndexingFailures.isRejection(item.failureMessage())) {
+                    return true;
+                }
             }
-            addField(builder, entry.getKey(), entry.getValue());
         }
-        builder.endObject();
+        return false;
     }
 
-    private void addField(XContentBuilder builder, String fieldName, byte[] data) throws IOException {
-        XContentType contentType = XContentFactory.xContentType(data);
-        if (contentType == null) {
-            addSimpleField(builder, fieldName, data);
-        } else {
-            addComplexField(builder, fieldName, contentType, data);
+    private int currentBatchSize() {
+        AdaptiveLimits limits = adaptiveLimits;
+        return limits != null ? limits.getBatchSize() : batchSize;
+    }
+
+    private String resolveIndexName(Event e) {
+        if (indexNameResolver != null) {
+            return indexNameResolver.resolve(e);
         }
+        return indexName;
     }
 
-    private void addSimpleField(XContentBuilder builder, String fieldName, byte[] data) throws IOException {
-        builder.field(fieldName, new String(data, charset));
+    private String resolveRouting(Event e) {
+        if (routingResolver != null) {
+            return routingResolver.resolve(e);
+        }
+        return null;
     }
 
-    private void addComplexField(XContentBuilder builder, String fieldName, XContentType contentType, byte[] data)
-            throws IOException {
-        XContentParser parser = null;
+    private void send(IndexRequest document, long timestamp) throws InterruptedException {
         try {
-            parser = XContentFactory.xContent(contentType).createParser(data);
-            parser.nextToken();
-            builder.field(fieldName).copyCurrentStructure(parser);
-        } finally {
-            if (parser != null) {
-                parser.close();
+            ensureIndex(document.index(), timestamp);
+        } catch (RuntimeException ex) {
+            if (!shouldSpill(ex)) {
+                throw ex;
+            }
+            spill(document);
+            return;
+        }
+
+        if (isBulkMode()) {
+            addToBulk(document);
+            return;
+        }
+
+        IndexRequestBuilder request = client.prepareIndex(document.index(), document.type(), document.id())
+                .setSource(document.source());
+        if (document.routing() != null) {
+            request.setRouting(document.routing());
+        }
+        if (isAsyncMode()) {
+            executeAsync(request, document);
+            return;
+        }
+
+        for (int attempts = 1; ; attempts++) {
+            long start = System.nanoTime();
+            boolean rejected = false;
+            try {
+                request.execute().actionGet();
+                metrics.indexedEvents.increment();
+                return;
+            } catch (RuntimeException ex) {
+                rejected = IndexingFailures.isRejection(ex);
+                if (!IndexingFailures.isRetryable(ex)) {
+                    throw ex;
+                }
+                if (!retryPolicy.canRetry(attempts)) {
+                    retriesExhausted(document, ex.getMessage(), attempts);
+                    return;
+                }
+            } finally {
+                recordIndexLatency(System.nanoTime() - start, rejected);
             }
+            metrics.retriedEvents.increment();
+            Thread.sleep(retryPolicy.backoffMillis(attempts));
         }
     }
 
-    private void index(Event e, XContentBuilder builder) {
-        String iName = indexName;
-        if (indexPattern != null) {
-            iName = e.escapeString(indexPattern);
+    /**
+     * Creates the given index and aliases it to indexName, unless it is indexName itself or that has already been done
+     * by this sink.  In ingest mode an index for an event newer than the one that rolled over to the current index is
+     * rolled over to, and the index written to before it gets its query settings back.  An index for an older event,
+     * a late one or one being replayed (timestamp Long.MIN_VALUE), is created with its query settings and leaves the
+     * current index alone.
+     */
+    private void ensureIndex(String iName, long timestamp) {
+        if (iName.equals(indexName) || knownIndices.contains(iName)) {
+            return;
+        }
+        boolean newer = isIngestMode() && isNewerThanCurrent(timestamp);
+        if (!precreatedIndices.remove(iName)) {
+            createIndex(iName, newer);
         }
-        client.prepareIndex(iName, indexType, null)
-                .setSource(builder)
-                .execute()
-                .actionGet();
+        knownIndices.add(iName);
+        if (newer) {
+            rollOver(iName, timestamp);
+        }
+    }
 
-        if (!iName.equals(indexName)) {
-            client.admin().indices().prepareAliases().addAlias(iName, indexName).execute().actionGet();
+    private boolean isNewerThanCurrent(long timestamp) {
+        synchronized (ingestingIndices) {
+            return timestamp != Long.MIN_VALUE && timestamp > rolledOverAt;
         }
     }
 
-    @Override
-    public void close() throws IOException, InterruptedException {
-        super.close();
+    /**
+     * Creates the index with the mapping, if there is one, and the ingest settings if ingest is true, and aliases it
+     * to indexName.
+     */
+    private void createIndex(String iName, boolean ingest) {
+        CreateIndexRequestBuilder create = client.admin().indices().prepareCreate(iName);
+        if (ingest) {
+            create.setSettings(ingestSettings());
+        }
+        if (indexMapping != null) {
+            create.addMapping(indexType, indexMapping);
+        }
+        try {
+            create.execute().actionGet();
+        } catch (RuntimeException ex) {
+            if (!(ExceptionsHelper.unwrapCause(ex) instanceof IndexAlreadyExistsException)) {
+                throw ex;
+            }
+            if (ingest) {
+                client.admin().indices().prepareUpdateSettings(iName).setSettings(ingestSettings()).execute()
+                        .actionGet();
+            }
+        }
+        // Adding an alias that already exists is a no-op, so this is safe when another sink got here first
+        client.admin().indices().prepareAliases().addAlias(iName, indexName).execute().actionGet();
+    }
 
-        if (client != null) {
-            client.close();
+    /**
+     * Creates the index indexPattern rolls over to next, once the roll over is less than precreateLeadMillis away, so
+     * the first event after it is a normal write rather than waiting on the index being created.  Runs on the
+     * precreate thread.
+     */
+    /**
+     * Creates the index that events precreateLeadMillis after now will go to, if it isn't the current one.
+     */
+    void precreateNextIndex(long now) {
+        String next = indexNameResolver.resolve(now + precreateLeadMillis);
+        if (next.equals(indexNameResolver.resolve(now)) || knownIndices.contains(next)
+                || precreatedIndices.contains(next)) {
+            return;
         }
-        if (node != null) {
-            node.close();
+        try {
+            createIndex(next, isIngestMode());
+            if (isIngestMode()) {
+                // Its ingest settings are restored on close even if it is never written to
+                synchronized (ingestingIndices) {
+                    ingestingIndices.add(next);
+                }
+            }
+            precreatedIndices.add(next);
+            LOG.info("Created {} ahead of roll over", next);
+        } catch (RuntimeException ex) {
+            // The first event for it will create it instead
+            LOG.warn("Error creating {} ahead of roll over", next, ex);
         }
     }
 
-    @Override
-    public void open() throws IOException, InterruptedException {
-        super.open();
+    private boolean isIngestMode() {
+        return ingestRefreshInterval != null || ingestReplicas >= 0;
+    }
 
-        if (hostNames.length == 0) {
-            LOG.info("Using ES AutoDiscovery mode");
-            node = nodeBuilder().client(true).clusterName(clusterName).local(localOnly).node();
-            client = node.client();
-        } else {
-            LOG.info("Using provided ES hostnames: {} ", Arrays.toString(hostNames));
+    private Settings ingestSettings() {
+        ImmutableSettings.Builder settings = ImmutableSettings.settingsBuilder();
+        if (ingestRefreshInterval != null) {
+            settings.put(REFRESH_INTERVAL, ingestRefreshInterval);
+        }
+        if (ingestReplicas >= 0) {
+            settings.put(NUMBER_OF_REPLICAS, ingestReplicas);
+        }
+        return settings.build();
+    }
+
+    /**
+     * Only the settings ingest mode changed are restored.
+     */
+    private Settings querySettings() {
+        ImmutableSettings.Builder settings = ImmutableSettings.settingsBuilder();
+        if (ingestRefreshInterval != null) {
+            settings.put(REFRESH_INTERVAL, queryRefreshInterval);
+        }
+        if (ingestReplicas >= 0) {
+            settings.put(NUMBER_OF_REPLICAS, queryReplicas);
+        }
+        return settings.build();
+    }
+
+    /**
+     * Restores the query settings of the indices written to before iName, now that an event at timestamp has moved
+     * writes on to it.
+     */
+    private void rollOver(String iName, long timestamp) {
+        synchronized (ingestingIndices) {
+            if (timestamp > rolledOverAt) {
+                rolledOverAt = timestamp;
+                ingestingIndices.remove(iName);
+                restoreQuerySettings();
+            }
+            // Otherwise it lost a race with an index for a newer event, and is restored at that one's roll over
+            ingestingIndices.add(iName);
+        }
+    }
+
+    private void restoreQuerySettings() {
+        synchronized (ingestingIndices) {
+            for (Iterator<String> indices = ingestingIndices.iterator(); indices.hasNext(); ) {
+                String index = indices.next();
+                try {
+                    client.admin().indices().prepareUpdateSettings(index).setSettings(querySettings()).execute()
+                            .actionGet();
+                    LOG.info("Restored query settings of {}", index);
+                    indices.remove();
+                } catch (RuntimeException ex) {
+                    // Left in ingest mode to be tried again at the next roll over
+                    LOG.warn("Error restoring query settings of {}", index, ex);
+                }
+            }
+        }
+    }
+
+    private void executeAsync(IndexRequestBuilder request, IndexRequest document) throws InterruptedException {
+        if (!acquireInFlightRequest()) {
+            spill(document);
+            return;
+        }
+        sendAsync(request, document, 1);
+    }
+
+    /**
+     * Sends a request holding an in flight request, which is released once it succeeds, fails or runs out of retries.
+     */
+    private void sendAsync(final IndexRequestBuilder request, final IndexRequest document, final int attempts) {
+        final long start = System.nanoTime();
+        try {
+            request.execute(new ActionListener<IndexResponse>() {
+                @Override
+                public void onResponse(IndexResponse response) {
+                    inFlightRequests.release();
+                    recordIndexLatency(System.nanoTime() - start, false);
+                    metrics.indexedEvents.increment();
+                }
 
-            Settings settings = ImmutableSettings.settingsBuilder()
-                    .put("cluster.name", clusterName)
-                    .build();
+                @Override
+                public void onFailure(Throwable t) {
+                    recordIndexLatency(System.nanoTime() - start, IndexingFailures.isRejection(t));
+                    if (IndexingFailures.isRetryable(t) && retryPolicy.canRetry(attempts)) {
+                        metrics.retriedEvents.increment();
+                        scheduleRetry(new Runnable() {
+                            @Override
+                            public void run() {
+                                sendAsync(request, document, attempts + 1);
+                            }
+                        }, attempts, Collections.singletonList(document), null);
+                        return;
+                    }
+                    inFlightRequests.release();
+                    if (IndexingFailures.isRetryable(t)) {
+                        retriesExhausted(document, t.getMessage(), attempts);
+                        return;
+                    }
+                    LOG.error("Error indexing event into {}", document.index(), t);
+                    metrics.failedEvents.increment();
+                    forgetId(document.id());
+                }
+            });
+        } catch (RuntimeException ex) {
+            inFlightRequests.release();
+            throw ex;
+        }
+    }
 
-            TransportClient transportClient = new TransportClient(settings);
-            for (String esHostName : hostNames) {
-                LOG.info("Adding TransportClient: {}", esHostName);
-                transportClient = transportClient.addTransportAddress(new InetSocketTransportAddress(esHostName,
-                        DEFAULT_ELASTICSEARCH_PORT));
+    /**
+     * Runs an async retry of documents after backing off, counting them as failed if it can't be sent.  If the sink has
+     * already been closed, which only a response outliving closeTimeoutMillis sees, they are spilled or given up on
+     * straight away instead, and the in flight request released after running done, if there is one.
+     */
+    private void scheduleRetry(final Runnable retry, int attempts, final List<? extends ActionRequest> documents,
+            Runnable done) {
+        ScheduledExecutorService scheduler = retryScheduler;
+        if (scheduler == null) {
+            for (ActionRequest document : documents) {
+                retriesExhausted((IndexRequest) document, "sink was closed before retrying", attempts);
+            }
+            if (done != null) {
+                done.run();
+            }
+            inFlightRequests.release();
+            return;
+        }
+        Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    retry.run();
+                } catch (RuntimeException ex) {
+                    LOG.error("Error retrying request of {} events", documents.size(), ex);
+                    metrics.failedEvents.add(documents.size());
+                }
             }
-            client = transportClient;
+        };
+        try {
+            scheduler.schedule(task, retryPolicy.backoffMillis(attempts), TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException ex) {
+            // Closing, so don't wait out the backoff
+            task.run();
+        }
+    }
+
+    /**
+     * Blocks until another request may be sent.  With spilling enabled it gives up after spillWaitMillis and returns
+     * false, as ElasticSearch not finishing any request for that long means it is failing, and the caller can spill
+     * rather than keep waiting on it.  Never called holding the sink's lock, so appends that don't fill a batch and the
+     * linger timer aren't held up by a wait here.
+     */
+    private boolean acquireInFlightRequest() throws InterruptedException {
+        if (isSpillEnabled()) {
+            return inFlightRequests.tryAcquire(spillWaitMillis, TimeUnit.MILLISECONDS);
         }
+        inFlightRequests.acquire();
+        return true;
+    }
+
+    private boolean isBulkMode() {
+        return batchSize > 0;
+    }
+
+    private boolean isAsyncMode() {
+        return maxInFlightRequests > 0;
+    }
+
+    private boolean isSpillEnabled() {
+        return spillBuffer != null;
+    }
 
+    private boolean shouldSpill(Throwable t) {
+        return isSpillEnabled() && IndexingFailures.isRetryable(t);
     }
 
     /**
-     * This is a special function used by the SourceFactory to pull in this class as a plugin sink.
+     * Spills a document that is still failing with a retryable error after its last attempt, or, when spilling is
+     * disabled, gives up on it if it was retried at all and fails it like any other error if it wasn't.
      */
-    public static List<Pair<String, SinkBuilder>> getSinkBuilders() {
-        List<Pair<String, SinkBuilder>> builders =
-                new ArrayList<Pair<String, SinkBuilder>>();
+    private void retriesExhausted(IndexRequest document, String failureMessage, int attempts) {
+        if (isSpillEnabled()) {
+            LOG.warn("Spilling event for {} after error indexing it: {}", document.index(), failureMessage);
+            spill(document);
+            return;
+        }
+        if (attempts > 1) {
+            LOG.error("Giving up on event for {} after error indexing it: {}", document.index(), failureMessage);
+            metrics.gaveUpEvents.increment();
+        } else {
+            LOG.error("Error indexing event into {}: {}", document.index(), failureMessage);
+            metrics.failedEvents.increment();
+        }
+        forgetId(document.id());
+    }
 
-        builders.add(new Pair<String, SinkBuilder>("elasticSearchSink", new ElasticSearchSinkBuilder()));
-        return builders;
+    /**
+     * Writes the document to the spill buffer, counting it as failed if the buffer is full or can't be written to.
+     */
+    private void spill(IndexRequest document) {
+        try {
+            if (spillBuffer.spill(document.index(), document.type(), document.id(), document.routing(),
+                    document.source())) {
+                metrics.spilledEvents.increment();
+                return;
+            }
+            LOG.error("Spill buffer is full, dropping event for {}", document.index());
+        } catch (IOException ex) {
+            LOG.error("Error spilling event for {}", document.index(), ex);
+        }
+        metrics.failedEvents.increment();
+        forgetId(document.id());
     }
 
-    public String getClusterName() {
-        return clusterName;
+    /**
+     * Removes the id of a document that won't be indexed from the dedup cache, so a redelivery of its event isn't
+     * dropped as a duplicate.
+     */
+    private void forgetId(String id) {
+        if (sentIds != null && id != null) {
+            sentIds.remove(id);
+        }
     }
 
-    public void setClusterName(String clusterName) {
-        this.clusterName = clusterName;
+    private void spillAll(BulkRequestBuilder request) {
+        for (ActionRequest action : request.request().requests()) {
+            spill((IndexRequest) action);
+        }
     }
 
-    public String getIndexName() {
-        return indexName;
+    /**
+     * Adds the document to its batch, sending the batch once it is full.  Batches are only collected holding the
+     * sink's lock and are sent after releasing it, so other threads can go on adding documents while a request, its
+     * retries or a wait for an in flight request take their time.
+     */
+    private void addToBulk(IndexRequest request) throws InterruptedException {
+        List<Batch> full = new ArrayList<Batch>(2);
+        synchronized (this) {
+            String key = groupBatches ? request.index() + '/' + request.routing() : "";
+            Batch batch = batches.get(key);
+            if (batch == null) {
+                if (batches.size() >= maxBatchGroups) {
+                    full.add(takeOldest());
+                }
+                batch = new Batch(client.prepareBulk(), System.currentTimeMillis());
+                batches.put(key, batch);
+            }
+            batch.request.add(request);
+            batch.bytes += request.source().length;
+            bulkRequestActions++;
+            bulkRequestBytes += request.source().length;
+
+            if (batch.request.numberOfActions() >= currentBatchSize() || batch.bytes >= batchBytes) {
+                full.add(taken(batches.remove(key)));
+            }
+        }
+        sendBatches(full);
     }
 
-    public void setIndexName(String indexName) {
-        this.indexName = indexName;
+    /**
+     * Sends any documents collected in bulk mode, called by the linger timer and on close.  In async mode this only
+     * blocks while the maximum number of requests are already in flight.
+     */
+    void flush() throws InterruptedException {
+        List<Batch> all = new ArrayList<Batch>();
+        synchronized (this) {
+            while (!batches.isEmpty()) {
+                all.add(takeOldest());
+            }
+        }
+        sendBatches(all);
     }
 
-    public String getIndexPattern() {
-        return indexPattern;
+    /**
+     * Removes the batch collected longest ago, holding the sink's lock.
+     */
+    private Batch takeOldest() {
+        Iterator<Batch> oldest = batches.values().iterator();
+        Batch batch = oldest.next();
+        oldest.remove();
+        return taken(batch);
     }
 
-    public void setIndexPattern(String indexPattern) {
-        this.indexPattern = indexPattern;
+    /**
+     * Stops counting a batch that has been removed as waiting to be sent, holding the sink's lock.
+     */
+    private Batch taken(Batch batch) {
+        bulkRequestActions -= batch.request.numberOfActions();
+        bulkRequestBytes -= batch.bytes;
+        return batch;
     }
 
-    public String getIndexType() {
-        return indexType;
+    private void sendBatches(List<Batch> toSend) throws InterruptedException {
+        for (Batch batch : toSend) {
+            sendBatch(batch);
+        }
     }
 
-    public void setIndexType(String indexType) {
-        this.indexType = indexType;
+    private void sendBatch(Batch batch) throws InterruptedException {
+        BulkRequestBuilder request = batch.request;
+        if (isAsyncMode()) {
+            flushAsync(request);
+            return;
+        }
+        executeBulk(request);
     }
 
-    public void setHostNames(String[] hostNames) {
-        this.hostNames = hostNames;
+    /**
+     * Sends a bulk request and waits for it, sending the documents that fail with retryable errors again while they
+     * have attempts left.
+     */
+    private void executeBulk(BulkRequestBuilder request) throws InterruptedException {
+        BulkRequestBuilder pending = request;
+        for (int attempts = 1; pending != null; attempts++) {
+            if (attempts > 1) {
+                Thread.sleep(retryPolicy.backoffMillis(attempts - 1));
+            }
+            long start = System.nanoTime();
+            NodeSelector.Target target = selectNode(start);
+            try {
+                BulkResponse response = target == null ? pending.execute().actionGet()
+                        : target.getClient().bulk(pending.request()).actionGet();
+                long latency = System.nanoTime() - start;
+                nodeResponded(target, latency, null);
+                recordIndexLatency(latency, hasRejections(response));
+                pending = countBulkResponse(pending, response, attempts);
+            } catch (ElasticSearchInterruptedException ex) {
+                // Not a failure of the documents, the caller decides what becomes of them
+                throw new InterruptedException(ex.getMessage());
+            } catch (Exception ex) {
+                long latency = System.nanoTime() - start;
+                nodeResponded(target, latency, ex);
+                recordIndexLatency(latency, IndexingFailures.isRejection(ex));
+                pending = bulkRequestFailed(pending, ex, attempts);
+            }
+        }
     }
 
-    public String[] getHostNames() {
-        return hostNames;
+    private void flushAsync(BulkRequestBuilder request) throws InterruptedException {
+        if (!acquireInFlightRequest()) {
+            LOG.warn("No in flight request freed up within spillWaitMillis: {}, spilling {} events", spillWaitMillis,
+                    request.numberOfActions());
+            spillAll(request);
+            return;
+        }
+        sendBulkAsync(request, 1, null);
     }
 
-    void setLocalOnly(boolean localOnly) {
-        this.localOnly = localOnly;
+    /**
+     * Sends a bulk request holding an in flight request, which is released once none of its documents are left to
+     * retry, running done, if there is one, just before.  Each attempt goes to the node selected at the time.
+     */
+    private void sendBulkAsync(final BulkRequestBuilder request, final int attempts, final Runnable done) {
+        final long start = System.nanoTime();
+        final NodeSelector.Target target = selectNode(start);
+        ActionListener<BulkResponse> listener = new ActionListener<BulkResponse>() {
+            @Override
+            public void onResponse(BulkResponse response) {
+                long latency = System.nanoTime() - start;
+                nodeResponded(target, latency, null);
+                recordIndexLatency(latency, hasRejections(response));
+                retryOrRelease(countBulkResponse(request, response, attempts), attempts, done);
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                long latency = System.nanoTime() - start;
+                nodeResponded(target, latency, t);
+                recordIndexLatency(latency, IndexingFailures.isRejection(t));
+                retryOrRelease(bulkRequestFailed(request, t, attempts), attempts, done);
+            }
+        };
+        try {
+            if (target == null) {
+                request.execute(listener);
+            } else {
+                target.getClient().bulk(request.request(), listener);
+            }
+        } catch (RuntimeException ex) {
+            nodeResponded(target, System.nanoTime() - start, ex);
+            inFlightRequests.release();
+            throw ex;
+        }
     }
 
-    boolean isLocalOnly() {
-        return localOnly;
+    private void retryOrRelease(final BulkRequestBuilder retry, final int attempts, final Runnable done) {
+        if (retry == null) {
+            if (done != null) {
+                done.run();
+            }
+            inFlightRequests.release();
+            return;
+        }
+        scheduleRetry(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    sendBulkAsync(retry, attempts + 1, done);
+                } catch (RuntimeException ex) {
+                    // Its documents are counted as failed, so the request is done with
+                    if (done != null) {
+                        done.run();
+                    }
+                    throw ex;
+                }
+            }
+        }, attempts, retry.request().requests(), done);
+    }
+
+    /**
+     * Returns the request to send again if it failed with a retryable error and has attempts left, otherwise spills,
+     * gives up on or fails its documents and returns null.
+     */
+    private BulkRequestBuilder bulkRequestFailed(BulkRequestBuilder request, Throwable t, int attempts) {
+        if (IndexingFailures.isRetryable(t)) {
+            if (retryPolicy.canRetry(attempts)) {
+                LOG.debug("Retrying bulk request of {} events after error executing it: {}",
+                        request.numberOfActions(), t.getMessage());
+                metrics.retriedEvents.add(request.numberOfActions());
+                return request;
+            }
+            for (ActionRequest action : request.request().requests()) {
+                retriesExhausted((IndexRequest) action, t.getMessage(), attempts);
+            }
+            return null;
+        }
+        LOG.error("Error executing bulk request of {} events", request.numberOfActions(), t);
+        metrics.failedEvents.add(request.numberOfActions());
+        for (ActionRequest action : request.request().requests()) {
+            forgetId(((IndexRequest) action).id());
+        }
+        return null;
+    }
+
+    private void flushIfLingering() {
+        long now = System.currentTimeMillis();
+        List<Batch> lingering = new ArrayList<Batch>();
+        synchronized (this) {
+            while (!batches.isEmpty() && now - batches.values().iterator().next().started >= batchLingerMillis) {
+                lingering.add(takeOldest());
+            }
+        }
+        try {
+            sendBatches(lingering);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Counts the documents indexed and failed by a bulk request, returning a new request with just the documents that
+     * failed with retryable errors if they have attempts left, otherwise spilling or giving up on them and returning
+     * null.
+     */
+    private BulkRequestBuilder countBulkResponse(BulkRequestBuilder request, BulkResponse response, int attempts) {
+        int failed = 0;
+        BulkRequestBuilder retry = null;
+        if (response.hasFailures()) {
+            List<ActionRequest> actions = request.request().requests();
+            for (BulkItemResponse item : response.items()) {
+                if (!item.failed()) {
+                    continue;
+                }
+                failed++;
+                IndexRequest indexRequest = (IndexRequest) actions.get(item.itemId());
+                if (!IndexingFailures.isRetryable(item.failureMessage())) {
+                    LOG.error("Error indexing event into {}: {}", item.index(), item.failureMessage());
+                    metrics.failedEvents.increment();
+                    forgetId(indexRequest.id());
+                } else if (retryPolicy.canRetry(attempts)) {
+                    if (retry == null) {
+                        retry = client.prepareBulk();
+                    }
+                    retry.add(indexRequest);
+                    metrics.retriedEvents.increment();
+                } else {
+                    retriesExhausted(indexRequest, item.failureMessage(), attempts);
+                }
+            }
+        }
+        metrics.indexedEvents.add(response.items().length - failed);
+        return retry;
+    }
+
+    /**
+     * Sends spilled documents back to ElasticSearch in the order they were spilled, through the same bulk requests,
+     * retries, node selection and in flight limit as new documents, until none are left to read.  Stops until the next
+     * interval if documents are spilled while it runs, as ElasticSearch is still failing.  Runs on the replay thread.
+     */
+    private void replaySpilled() {
+        SpillBuffer spill = spillBuffer;
+        try {
+            long spilled = metrics.spilledEvents.sum();
+            while (!replayStopped && spill.hasUnread() && metrics.spilledEvents.sum() == spilled) {
+                AdaptiveLimits limits = adaptiveLimits;
+                replay(spill, spill.read(limits != null ? limits.getBatchSize() : spillReplayBatchSize));
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (Exception ex) {
+            LOG.error("Error replaying spilled events", ex);
+        }
+    }
+
+    /**
+     * Sends the batch as a bulk request, acknowledging it once all of its documents have been indexed, failed or
+     * spilled again.
+     */
+    private void replay(final SpillBuffer spill, final SpillBuffer.Batch batch) throws InterruptedException {
+        BulkRequestBuilder request = client.prepareBulk();
+        for (SpillBuffer.Record record : batch.records) {
+            IndexRequest document = new IndexRequest(record.index, record.type, record.id).routing(record.routing)
+                    .source(record.source);
+            try {
+                ensureIndex(record.index, Long.MIN_VALUE);
+            } catch (RuntimeException ex) {
+                if (shouldSpill(ex)) {
+                    spill(document);
+                } else {
+                    LOG.error("Error creating index {} for spilled event, dropping it", record.index, ex);
+                    metrics.failedEvents.increment();
+                    forgetId(record.id);
+                }
+                continue;
+            }
+            request.add(document);
+        }
+        metrics.replayedEvents.add(request.numberOfActions());
+
+        if (request.numberOfActions() == 0) {
+            spill.ack(batch);
+        } else if (!isAsyncMode()) {
+            executeBulk(request);
+            spill.ack(batch);
+        } else {
+            inFlightRequests.acquire();
+            try {
+                sendBulkAsync(request, 1, new Runnable() {
+                    @Override
+                    public void run() {
+                        spill.ack(batch);
+                    }
+                });
+            } catch (RuntimeException ex) {
+                // To the end of the buffer, rather than holding up acknowledging the batches read after it
+                spillAll(request);
+                spill.ack(batch);
+                throw ex;
+            }
+        }
+    }
+
+    /**
+     * Waits for requests still in flight in async mode, giving up after closeTimeoutMillis.
+     */
+    private void awaitInFlightRequests() throws InterruptedException {
+        // So the permits to wait for don't change under us
+        inFlightRequests.fixLimit(maxInFlightRequests);
+        if (!inFlightRequests.tryAcquire(maxInFlightRequests, closeTimeoutMillis, TimeUnit.MILLISECONDS)) {
+            LOG.warn("Timed out after {}ms waiting for {} in flight requests", closeTimeoutMillis,
+                    inFlightRequests.inUse());
+            return;
+        }
+        inFlightRequests.release(maxInFlightRequests);
+    }
+
+    @Override
+    public void close() throws IOException, InterruptedException {
+        super.close();
+
+        if (collapser != null) {
+            collapseScheduler.shutdown();
+            collapseScheduler.awaitTermination(closeTimeoutMillis, TimeUnit.MILLISECONDS);
+            collapseScheduler = null;
+            dispatch(collapser.drain());
+        }
+        if (serializationStage != null) {
+            // Build and send everything already appended before flushing
+            metrics.failedEvents.add(serializationStage.close(closeTimeoutMillis));
+            serializationStage = null;
+        }
+        if (precreateScheduler != null) {
+            precreateScheduler.shutdownNow();
+            precreateScheduler = null;
+        }
+        if (replayScheduler != null) {
+            // Stopped after the batch being sent rather than left to replay everything, what it hasn't acknowledged
+            // is read again on open.  Only interrupted if that batch takes too long, which leaves it unacknowledged.
+            replayStopped = true;
+            replayScheduler.shutdown();
+            if (!replayScheduler.awaitTermination(closeTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                replayScheduler.shutdownNow();
+                replayScheduler.awaitTermination(closeTimeoutMillis, TimeUnit.MILLISECONDS);
+            }
+            replayScheduler = null;
+        }
+        if (flushScheduler != null) {
+            flushScheduler.shutdown();
+            flushScheduler.awaitTermination(batchLingerMillis, TimeUnit.MILLISECONDS);
+            flushScheduler = null;
+        }
+        flush();
+        if (isAsyncMode()) {
+            awaitInFlightRequests();
+        }
+        if (retryScheduler != null) {
+            retryScheduler.shutdown();
+            retryScheduler = null;
+        }
+        if (isIngestMode() && restoreQuerySettingsOnClose) {
+            // Nothing more will be written by this sink, so searches shouldn't have to wait for the next roll over
+            restoreQuerySettings();
+        }
+        if (spillBuffer != null) {
+            // Anything still spilled is replayed the next time the sink is opened
+            spillBuffer.close();
+            spillBuffer = null;
+        }
+
+        releaseClients();
+        if (client != null) {
+            client.close();
+        }
+    }
+
+    /**
+     * Stops what start() got to before it failed, and releases the shared clients.  A provided client is left open,
+     * as it is still the caller's.
+     */
+    private void abandonStart() {
+        for (ScheduledExecutorService scheduler : new ScheduledExecutorService[]{retryScheduler, replayScheduler,
+                precreateScheduler, collapseScheduler, flushScheduler}) {
+            if (scheduler != null) {
+                scheduler.shutdownNow();
+            }
+        }
+        retryScheduler = null;
+        replayScheduler = null;
+        precreateScheduler = null;
+        collapseScheduler = null;
+        flushScheduler = null;
+        if (spillBuffer != null) {
+            try {
+                spillBuffer.close();
+            } catch (IOException ex) {
+                LOG.error("Error closing spill buffer in {}", spillDir, ex);
+            }
+            spillBuffer = null;
+        }
+        releaseClients();
+    }
+
+    private void releaseClients() {
+        nodeSelector = null;
+        if (sharedNodeClients) {
+            for (Client nodeClient : nodeClients.values()) {
+                ClientRegistry.SHARED.release(nodeClient);
+            }
+            nodeClients = null;
+            sharedNodeClients = false;
+        }
+        if (sharedClient) {
+            ClientRegistry.SHARED.release(client);
+            client = null;
+            sharedClient = false;
+        }
+    }
+
+    @Override
+    public void open() throws IOException, InterruptedException {
+        super.open();
+
+        shaper = new DocumentShaper(includeAttributes, excludeAttributes, maxBodyBytes, maxFieldBytes);
+        serializer = new EventSerializer(charset, jsonMode, encoding,
+                new AttributeTypes(AttributeTypes.parse(attributeTypes), attributeTypeCacheSize), shaper);
+        if (indexPattern != null) {
+            indexNameResolver = IndexNameResolver.compile(indexPattern);
+            LOG.info("Using indexPattern: {}, resolved per {}", indexPattern, indexNameResolver.getGranularity());
+        }
+        if (routing != null) {
+            routingResolver = RoutingResolver.compile(routing);
+            LOG.info("Using routing: {}", routing);
+        }
+        knownIndices = Collections.synchronizedSet(
+                Collections.newSetFromMap(new LruCache<String, Boolean>(indexCacheSize)));
+        precreatedIndices = Collections.synchronizedSet(new HashSet<String>());
+        synchronized (ingestingIndices) {
+            rolledOverAt = Long.MIN_VALUE;
+        }
+        if (deterministicIds) {
+            LOG.info("Using deterministic document ids, dedupCacheSize: {}", dedupCacheSize);
+            if (dedupCacheSize > 0) {
+                sentIds = Collections.synchronizedSet(
+                        Collections.newSetFromMap(new LruCache<String, Boolean>(dedupCacheSize)));
+            }
+        }
+        if (indexMappingFile != null) {
+            LOG.info("Using mapping for new indices from indexMappingFile: {}", indexMappingFile);
+            indexMapping = new String(Streams.copyToByteArray(new File(indexMappingFile)), "UTF-8");
+        }
+
+        if (client != null) {
+            LOG.info("Using provided ES client");
+        } else {
+            client = ClientRegistry.SHARED.acquire(clusterName, hostNames, localOnly);
+            sharedClient = true;
+        }
+        boolean started = false;
+        try {
+            start();
+            started = true;
+        } finally {
+            if (!started) {
+                // close() isn't called after a failed open(), so nothing else would release the clients
+                abandonStart();
+            }
+        }
+    }
+
+    /**
+     * Sets up everything that sends documents, once the client is there.
+     */
+    private void start() throws IOException {
+        if (selectNodes && !isBulkMode()) {
+            LOG.warn("Not selecting nodes, selectNodes only applies to bulk requests and batchSize is 0");
+        }
+        if (selectNodes && isBulkMode()) {
+            if (nodeClients != null) {
+                LOG.info("Using provided ES node clients");
+            } else {
+                nodeClients = new LinkedHashMap<String, Client>();
+                sharedNodeClients = true;
+                for (String hostName : hostNames) {
+                    String name = hostName.trim();
+                    if (!nodeClients.containsKey(name)) {
+                        nodeClients.put(name, ClientRegistry.SHARED.acquire(clusterName, new String[]{name}, localOnly));
+                    }
+                }
+            }
+            if (nodeClients.size() > 1) {
+                LOG.info("Selecting the least loaded of nodes: {}, nodeTimeoutMillis: {}, nodeEjectAfter: {}, "
+                        + "nodeEjectMillis: {}", new Object[]{nodeClients.keySet(), nodeTimeoutMillis, nodeEjectAfter,
+                        nodeEjectMillis});
+                nodeSelector = new NodeSelector(nodeClients, nodeTimeoutMillis, nodeEjectAfter, nodeEjectMillis);
+            } else {
+                LOG.warn("Not selecting nodes, selectNodes needs more than one host in esHostNames");
+            }
+        }
+
+        if (isAsyncMode()) {
+            LOG.info("Using async mode with maxInFlightRequests: {}", maxInFlightRequests);
+            inFlightRequests = new InFlightLimit(maxInFlightRequests);
+        }
+        if (targetLatencyMillis > 0 && (isBulkMode() || isAsyncMode())) {
+            int maxTuned = Math.max(maxInFlightRequests, adaptiveMaxInFlightRequests);
+            LOG.info("Adapting batch size from {} to {} and in flight requests from {} to {} for targetLatencyMillis: {}",
+                    new Object[]{minBatchSize, maxBatchSize, minInFlightRequests, maxTuned, targetLatencyMillis});
+            if (!isBulkMode()) {
+                LOG.warn("Only adapting in flight requests, the batch size does nothing without a batchSize");
+            } else if (!isAsyncMode()) {
+                LOG.warn("Only adapting the batch size, the in flight request limit does nothing without "
+                        + "maxInFlightRequests");
+            }
+            adaptiveLimits = new AdaptiveLimits(targetLatencyMillis, minBatchSize, maxBatchSize, batchSize,
+                    Math.min(minInFlightRequests, maxInFlightRequests), maxTuned, maxInFlightRequests);
+        }
+
+        retryPolicy = new RetryPolicy(retryMaxAttempts, retryInitialBackoffMillis, retryMaxBackoffMillis, retryJitter,
+                new Random());
+        if (retryPolicy.isEnabled()) {
+            LOG.info("Retrying up to retryMaxAttempts: {}, backing off from retryInitialBackoffMillis: {}",
+                    retryMaxAttempts, retryInitialBackoffMillis);
+            if (isAsyncMode()) {
+                retryScheduler = Executors.newSingleThreadScheduledExecutor();
+            }
+        }
+
+        if (spillDir != null) {
+            LOG.info("Using spill buffer in {} with spillMaxBytes: {}", spillDir, spillMaxBytes);
+            spillBuffer = new SpillBuffer(new File(spillDir), spillMaxBytes, spillSegmentBytes);
+            spillBuffer.open();
+            replayStopped = false;
+            replayScheduler = Executors.newSingleThreadScheduledExecutor();
+            replayScheduler.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    replaySpilled();
+                }
+            }, spillReplayIntervalMillis, spillReplayIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+
+        if (precreateLeadMillis > 0 && indexNameResolver != null && indexNameResolver.isTimeBased()) {
+            LOG.info("Creating the next index from indexPattern precreateLeadMillis: {} ahead of roll over",
+                    precreateLeadMillis);
+            long checkMillis = Math.max(1, Math.min(precreateLeadMillis / 2, MAX_PRECREATE_CHECK_MILLIS));
+            precreateScheduler = Executors.newSingleThreadScheduledExecutor();
+            precreateScheduler.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    precreateNextIndex(System.currentTimeMillis());
+                }
+            }, 0, checkMillis, TimeUnit.MILLISECONDS);
+        }
+
+        if (collapseWindowMillis > 0) {
+            LOG.info("Collapsing repeated events within collapseWindowMillis: {}, collapseCacheSize: {}",
+                    collapseWindowMillis, collapseCacheSize);
+            collapser = new EventCollapser(collapseWindowMillis, collapseCacheSize, collapseAttributes);
+            long checkMillis = Math.max(MIN_COLLAPSE_CHECK_MILLIS, collapseWindowMillis / 4);
+            collapseScheduler = Executors.newSingleThreadScheduledExecutor();
+            collapseScheduler.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    dispatch(collapser.expire(System.currentTimeMillis()));
+                }
+            }, checkMillis, checkMillis, TimeUnit.MILLISECONDS);
+        }
+
+        int maxQueueDepth = shedQueueDepth;
+        if (maxQueueDepth > 0 && serializationThreads <= 0 && !isBulkMode()) {
+            LOG.warn("Ignoring shedQueueDepth: {}, events are only queued with serializationThreads or batchSize set",
+                    shedQueueDepth);
+            maxQueueDepth = 0;
+        }
+        if (maxQueueDepth > 0 || shedInFlightRequests > 0 || shedLatencyMillis > 0) {
+            LOG.info("Shedding {} when overloaded, with shedQueueDepth: {}, shedInFlightRequests: {}, "
+                    + "shedLatencyMillis: {}", new Object[]{shedPriorities, maxQueueDepth, shedInFlightRequests,
+                    shedLatencyMillis});
+            List<Priority> shedOrder = new ArrayList<Priority>();
+            for (String priority : shedPriorities.split(",")) {
+                shedOrder.add(Priority.valueOf(priority.trim().toUpperCase()));
+            }
+            loadShedder = new LoadShedder(shedOrder, maxQueueDepth, shedInFlightRequests, shedLatencyMillis);
+        }
+
+        if (serializationThreads > 0) {
+            LOG.info("Using {} serialization threads with serializationQueueSize: {}, preserveIndexOrder: {}",
+                    new Object[]{serializationThreads, serializationQueueSize, preserveIndexOrder});
+            serializationStage = new SerializationStage(serializationThreads, serializationQueueSize,
+                    preserveIndexOrder, new SerializationStage.Processor() {
+                @Override
+                public void process(Event event) {
+                    ElasticSearchSink.this.process(event);
+                }
+            });
+            serializationStage.start();
+        }
+
+        if (isBulkMode()) {
+            LOG.info("Using bulk mode with batchSize: {}, batchBytes: {}, batchLingerMillis: {}",
+                    new Object[]{batchSize, batchBytes, batchLingerMillis});
+            if (groupBatches) {
+                LOG.info("Grouping batches by index and routing, maxBatchGroups: {}", maxBatchGroups);
+            }
+            flushScheduler = Executors.newSingleThreadScheduledExecutor();
+            flushScheduler.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    flushIfLingering();
+                }
+            }, batchLingerMillis, batchLingerMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * This is a special function used by the SourceFactory to pull in this class as a plugin sink.
+     */
+    public static List<Pair<String, SinkBuilder>> getSinkBuilders() {
+        List<Pair<String, SinkBuilder>> builders =
+                new ArrayList<Pair<String, SinkBuilder>>();
+
+        builders.add(new Pair<String, SinkBuilder>("elasticSearchSink", new ElasticSearchSinkBuilder()));
+        return builders;
+    }
+
+    public String getClusterName() {
+        return clusterName;
+    }
+
+    public void setClusterName(String clusterName) {
+        this.clusterName = clusterName;
+    }
+
+    public String getIndexName() {
+        return indexName;
+    }
+
+    public void setIndexName(String indexName) {
+        this.indexName = indexName;
+    }
+
+    public String getIndexPattern() {
+        return indexPattern;
+    }
+
+    public void setIndexPattern(String indexPattern) {
+        this.indexPattern = indexPattern;
+    }
+
+    public String getRouting() {
+        return routing;
+    }
+
+    public void setRouting(String routing) {
+        this.routing = routing;
+    }
+
+    public String getIndexType() {
+        return indexType;
+    }
+
+    public void setIndexType(String indexType) {
+        this.indexType = indexType;
+    }
+
+    public void setHostNames(String[] hostNames) {
+        this.hostNames = hostNames;
+    }
+
+    public String[] getHostNames() {
+        return hostNames;
+    }
+
+    public boolean isSelectNodes() {
+        return selectNodes;
+    }
+
+    public void setSelectNodes(boolean selectNodes) {
+        this.selectNodes = selectNodes;
+    }
+
+    public long getNodeTimeoutMillis() {
+        return nodeTimeoutMillis;
+    }
+
+    public void setNodeTimeoutMillis(long nodeTimeoutMillis) {
+        this.nodeTimeoutMillis = nodeTimeoutMillis;
+    }
+
+    public int getNodeEjectAfter() {
+        return nodeEjectAfter;
+    }
+
+    public void setNodeEjectAfter(int nodeEjectAfter) {
+        this.nodeEjectAfter = nodeEjectAfter;
+    }
+
+    public long getNodeEjectMillis() {
+        return nodeEjectMillis;
+    }
+
+    public void setNodeEjectMillis(long nodeEjectMillis) {
+        this.nodeEjectMillis = nodeEjectMillis;
+    }
+
+    public JsonMode getJsonMode() {
+        return jsonMode;
+    }
+
+    public void setJsonMode(JsonMode jsonMode) {
+        this.jsonMode = jsonMode;
+    }
+
+    public Encoding getEncoding() {
+        return encoding;
+    }
+
+    public void setEncoding(Encoding encoding) {
+        this.encoding = encoding;
+    }
+
+    public String getAttributeTypes() {
+        return attributeTypes;
+    }
+
+    public void setAttributeTypes(String attributeTypes) {
+        this.attributeTypes = attributeTypes;
+    }
+
+    public String[] getIncludeAttributes() {
+        return includeAttributes;
+    }
+
+    public void setIncludeAttributes(String[] includeAttributes) {
+        this.includeAttributes = includeAttributes;
+    }
+
+    public String[] getExcludeAttributes() {
+        return excludeAttributes;
+    }
+
+    public void setExcludeAttributes(String[] excludeAttributes) {
+        this.excludeAttributes = excludeAttributes;
+    }
+
+    public int getMaxBodyBytes() {
+        return maxBodyBytes;
+    }
+
+    public void setMaxBodyBytes(int maxBodyBytes) {
+        this.maxBodyBytes = maxBodyBytes;
+    }
+
+    public int getMaxFieldBytes() {
+        return maxFieldBytes;
+    }
+
+    public void setMaxFieldBytes(int maxFieldBytes) {
+        this.maxFieldBytes = maxFieldBytes;
+    }
+
+    public int getAttributeTypeCacheSize() {
+        return attributeTypeCacheSize;
+    }
+
+    public void setAttributeTypeCacheSize(int attributeTypeCacheSize) {
+        this.attributeTypeCacheSize = attributeTypeCacheSize;
+    }
+
+    public int getIndexCacheSize() {
+        return indexCacheSize;
+    }
+
+    public void setIndexCacheSize(int indexCacheSize) {
+        this.indexCacheSize = indexCacheSize;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public long getBatchBytes() {
+        return batchBytes;
+    }
+
+    public void setBatchBytes(long batchBytes) {
+        this.batchBytes = batchBytes;
+    }
+
+    public long getBatchLingerMillis() {
+        return batchLingerMillis;
+    }
+
+    public void setBatchLingerMillis(long batchLingerMillis) {
+        this.batchLingerMillis = batchLingerMillis;
+    }
+
+    public boolean isGroupBatches() {
+        return groupBatches;
+    }
+
+    public void setGroupBatches(boolean groupBatches) {
+        this.groupBatches = groupBatches;
+    }
+
+    public int getMaxBatchGroups() {
+        return maxBatchGroups;
+    }
+
+    public void setMaxBatchGroups(int maxBatchGroups) {
+        this.maxBatchGroups = maxBatchGroups;
+    }
+
+    public int getMaxInFlightRequests() {
+        return maxInFlightRequests;
+    }
+
+    public void setMaxInFlightRequests(int maxInFlightRequests) {
+        this.maxInFlightRequests = maxInFlightRequests;
+    }
+
+    public long getTargetLatencyMillis() {
+        return targetLatencyMillis;
+    }
+
+    public void setTargetLatencyMillis(long targetLatencyMillis) {
+        this.targetLatencyMillis = targetLatencyMillis;
+    }
+
+    public int getMinBatchSize() {
+        return minBatchSize;
+    }
+
+    public void setMinBatchSize(int minBatchSize) {
+        this.minBatchSize = minBatchSize;
+    }
+
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    public void setMaxBatchSize(int maxBatchSize) {
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    public int getMinInFlightRequests() {
+        return minInFlightRequests;
+    }
+
+    public void setMinInFlightRequests(int minInFlightRequests) {
+        this.minInFlightRequests = minInFlightRequests;
+    }
+
+    public int getAdaptiveMaxInFlightRequests() {
+        return adaptiveMaxInFlightRequests;
+    }
+
+    public void setAdaptiveMaxInFlightRequests(int adaptiveMaxInFlightRequests) {
+        this.adaptiveMaxInFlightRequests = adaptiveMaxInFlightRequests;
+    }
+
+    public long getCloseTimeoutMillis() {
+        return closeTimeoutMillis;
+    }
+
+    public void setCloseTimeoutMillis(long closeTimeoutMillis) {
+        this.closeTimeoutMillis = closeTimeoutMillis;
+    }
+
+    public String getSpillDir() {
+        return spillDir;
+    }
+
+    public void setSpillDir(String spillDir) {
+        this.spillDir = spillDir;
+    }
+
+    public long getSpillMaxBytes() {
+        return spillMaxBytes;
+    }
+
+    public void setSpillMaxBytes(long spillMaxBytes) {
+        this.spillMaxBytes = spillMaxBytes;
+    }
+
+    public long getSpillSegmentBytes() {
+        return spillSegmentBytes;
+    }
+
+    public void setSpillSegmentBytes(long spillSegmentBytes) {
+        this.spillSegmentBytes = spillSegmentBytes;
+    }
+
+    public long getSpillReplayIntervalMillis() {
+        return spillReplayIntervalMillis;
+    }
+
+    public void setSpillReplayIntervalMillis(long spillReplayIntervalMillis) {
+        this.spillReplayIntervalMillis = spillReplayIntervalMillis;
+    }
+
+    public int getSpillReplayBatchSize() {
+        return spillReplayBatchSize;
+    }
+
+    public void setSpillReplayBatchSize(int spillReplayBatchSize) {
+        this.spillReplayBatchSize = spillReplayBatchSize;
+    }
+
+    public long getSpillWaitMillis() {
+        return spillWaitMillis;
+    }
+
+    public void setSpillWaitMillis(long spillWaitMillis) {
+        this.spillWaitMillis = spillWaitMillis;
+    }
+
+    public int getRetryMaxAttempts() {
+        return retryMaxAttempts;
+    }
+
+    public void setRetryMaxAttempts(int retryMaxAttempts) {
+        this.retryMaxAttempts = retryMaxAttempts;
+    }
+
+    public long getRetryInitialBackoffMillis() {
+        return retryInitialBackoffMillis;
+    }
+
+    public void setRetryInitialBackoffMillis(long retryInitialBackoffMillis) {
+        this.retryInitialBackoffMillis = retryInitialBackoffMillis;
+    }
+
+    public long getRetryMaxBackoffMillis() {
+        return retryMaxBackoffMillis;
+    }
+
+    public void setRetryMaxBackoffMillis(long retryMaxBackoffMillis) {
+        this.retryMaxBackoffMillis = retryMaxBackoffMillis;
+    }
+
+    public double getRetryJitter() {
+        return retryJitter;
+    }
+
+    public void setRetryJitter(double retryJitter) {
+        this.retryJitter = retryJitter;
+    }
+
+    public long getPrecreateLeadMillis() {
+        return precreateLeadMillis;
+    }
+
+    public void setPrecreateLeadMillis(long precreateLeadMillis) {
+        this.precreateLeadMillis = precreateLeadMillis;
+    }
+
+    public String getIndexMappingFile() {
+        return indexMappingFile;
+    }
+
+    public void setIndexMappingFile(String indexMappingFile) {
+        this.indexMappingFile = indexMappingFile;
+    }
+
+    public String getIngestRefreshInterval() {
+        return ingestRefreshInterval;
+    }
+
+    public void setIngestRefreshInterval(String ingestRefreshInterval) {
+        this.ingestRefreshInterval = ingestRefreshInterval;
+    }
+
+    public int getIngestReplicas() {
+        return ingestReplicas;
+    }
+
+    public void setIngestReplicas(int ingestReplicas) {
+        this.ingestReplicas = ingestReplicas;
+    }
+
+    public String getQueryRefreshInterval() {
+        return queryRefreshInterval;
+    }
+
+    public void setQueryRefreshInterval(String queryRefreshInterval) {
+        this.queryRefreshInterval = queryRefreshInterval;
+    }
+
+    public int getQueryReplicas() {
+        return queryReplicas;
+    }
+
+    public void setQueryReplicas(int queryReplicas) {
+        this.queryReplicas = queryReplicas;
+    }
+
+    public boolean isRestoreQuerySettingsOnClose() {
+        return restoreQuerySettingsOnClose;
+    }
+
+    public void setRestoreQuerySettingsOnClose(boolean restoreQuerySettingsOnClose) {
+        this.restoreQuerySettingsOnClose = restoreQuerySettingsOnClose;
+    }
+
+    public long getCollapseWindowMillis() {
+        return collapseWindowMillis;
+    }
+
+    public void setCollapseWindowMillis(long collapseWindowMillis) {
+        this.collapseWindowMillis = collapseWindowMillis;
+    }
+
+    public int getCollapseCacheSize() {
+        return collapseCacheSize;
+    }
+
+    public void setCollapseCacheSize(int collapseCacheSize) {
+        this.collapseCacheSize = collapseCacheSize;
+    }
+
+    public String[] getCollapseAttributes() {
+        return collapseAttributes;
+    }
+
+    public void setCollapseAttributes(String[] collapseAttributes) {
+        this.collapseAttributes = collapseAttributes;
+    }
+
+    public boolean isDeterministicIds() {
+        return deterministicIds;
+    }
+
+    public void setDeterministicIds(boolean deterministicIds) {
+        this.deterministicIds = deterministicIds;
+    }
+
+    public int getDedupCacheSize() {
+        return dedupCacheSize;
+    }
+
+    public void setDedupCacheSize(int dedupCacheSize) {
+        this.dedupCacheSize = dedupCacheSize;
+    }
+
+    public String getShedPriorities() {
+        return shedPriorities;
+    }
+
+    public void setShedPriorities(String shedPriorities) {
+        this.shedPriorities = shedPriorities;
+    }
+
+    public int getShedQueueDepth() {
+        return shedQueueDepth;
+    }
+
+    public void setShedQueueDepth(int shedQueueDepth) {
+        this.shedQueueDepth = shedQueueDepth;
+    }
+
+    public int getShedInFlightRequests() {
+        return shedInFlightRequests;
+    }
+
+    public void setShedInFlightRequests(int shedInFlightRequests) {
+        this.shedInFlightRequests = shedInFlightRequests;
+    }
+
+    public long getShedLatencyMillis() {
+        return shedLatencyMillis;
+    }
+
+    public void setShedLatencyMillis(long shedLatencyMillis) {
+        this.shedLatencyMillis = shedLatencyMillis;
+    }
+
+    public int getSerializationThreads() {
+        return serializationThreads;
+    }
+
+    public void setSerializationThreads(int serializationThreads) {
+        this.serializationThreads = serializationThreads;
+    }
+
+    public int getSerializationQueueSize() {
+        return serializationQueueSize;
+    }
+
+    public void setSerializationQueueSize(int serializationQueueSize) {
+        this.serializationQueueSize = serializationQueueSize;
+    }
+
+    public boolean isPreserveIndexOrder() {
+        return preserveIndexOrder;
+    }
+
+    public void setPreserveIndexOrder(boolean preserveIndexOrder) {
+        this.preserveIndexOrder = preserveIndexOrder;
+    }
+
+    /**
+     * Used by tests to select between clients of their own, keyed by node name, instead of connecting to each host in
+     * hostNames.  The sink doesn't close them.
+     */
+    void setNodeClients(Map<String, Client> nodeClients) {
+        this.nodeClients = nodeClients;
+    }
+
+    /**
+     * Used by tests and benchmarks to index through a client of their own instead of connecting to a cluster.
+     */
+    void setClient(Client client) {
+        this.client = client;
+    }
+
+    void setLocalOnly(boolean localOnly) {
+        this.localOnly = localOnly;
+    }
+
+    boolean isLocalOnly() {
+        return localOnly;
+    }
+
+    /**
+     * The in flight request semaphore, with a limit that can be lowered while permits are held.  Lowering it takes the
+     * permits away as they are released.
+     */
+    private static class InFlightLimit extends Semaphore {
+        private int limit;
+        private boolean fixed;
+
+        InFlightLimit(int limit) {
+            super(limit);
+            this.limit = limit;
+        }
+
+        synchronized void setLimit(int newLimit) {
+            if (fixed || newLimit == limit) {
+                return;
+            }
+            if (newLimit > limit) {
+                release(newLimit - limit);
+            } else {
+                reducePermits(limit - newLimit);
+            }
+            limit = newLimit;
+        }
+
+        /**
+         * Sets the limit and stops it changing again.
+         */
+        synchronized void fixLimit(int newLimit) {
+            setLimit(newLimit);
+            fixed = true;
+        }
+
+        synchronized int inUse() {
+            return limit - availablePermits();
+        }
+    }
+
+    private static class Batch {
+        private final BulkRequestBuilder request;
+        private final long started;
+        private long bytes;
+
+        Batch(BulkRequestBuilder request, long started) {
+            this.request = request;
+            this.started = started;
+        }
     }
 }
@@ -6,6 +6,62 @@ import com.cloudera.flume.core.EventSink;
 
 class ElasticSearchSinkBuilder extends SinkFactory.SinkBuilder {
 
+    static final String SELECT_NODES = "selectNodes";
+    static final String NODE_TIMEOUT_MILLIS = "nodeTimeoutMillis";
+    static final String NODE_EJECT_AFTER = "nodeEjectAfter";
+    static final String NODE_EJECT_MILLIS = "nodeEjectMillis";
+    static final String JSON_MODE = "jsonMode";
+    static final String ENCODING = "encoding";
+    static final String ATTRIBUTE_TYPES = "attributeTypes";
+    static final String ATTRIBUTE_TYPE_CACHE_SIZE = "attributeTypeCacheSize";
+    static final String INCLUDE_ATTRIBUTES = "includeAttributes";
+    static final String EXCLUDE_ATTRIBUTES = "excludeAttributes";
+    static final String MAX_BODY_BYTES = "maxBodyBytes";
+    static final String MAX_FIELD_BYTES = "maxFieldBytes";
+    static final String INDEX_CACHE_SIZE = "indexCacheSize";
+    static final String BATCH_SIZE = "batchSize";
+    static final String BATCH_BYTES = "batchBytes";
+    static final String BATCH_LINGER_MILLIS = "batchLingerMillis";
+    static final String ROUTING = "routing";
+    static final String GROUP_BATCHES = "groupBatches";
+    static final String MAX_BATCH_GROUPS = "maxBatchGroups";
+    static final String MAX_IN_FLIGHT_REQUESTS = "maxInFlightRequests";
+    static final String CLOSE_TIMEOUT_MILLIS = "closeTimeoutMillis";
+    static final String TARGET_LATENCY_MILLIS = "targetLatencyMillis";
+    static final String MIN_BATCH_SIZE = "minBatchSize";
+    static final String MAX_BATCH_SIZE = "maxBatchSize";
+    static final String MIN_IN_FLIGHT_REQUESTS = "minInFlightRequests";
+    static final String ADAPTIVE_MAX_IN_FLIGHT_REQUESTS = "adaptiveMaxInFlightRequests";
+    static final String SPILL_DIR = "spillDir";
+    static final String SPILL_MAX_BYTES = "spillMaxBytes";
+    static final String SPILL_SEGMENT_BYTES = "spillSegmentBytes";
+    static final String SPILL_REPLAY_INTERVAL_MILLIS = "spillReplayIntervalMillis";
+    static final String SPILL_REPLAY_BATCH_SIZE = "spillReplayBatchSize";
+    static final String SPILL_WAIT_MILLIS = "spillWaitMillis";
+    static final String RETRY_MAX_ATTEMPTS = "retryMaxAttempts";
+    static final String RETRY_INITIAL_BACKOFF_MILLIS = "retryInitialBackoffMillis";
+    static final String RETRY_MAX_BACKOFF_MILLIS = "retryMaxBackoffMillis";
+    static final String RETRY_JITTER = "retryJitter";
+    static final String PRECREATE_LEAD_MILLIS = "precreateLeadMillis";
+    static final String INDEX_MAPPING_FILE = "indexMappingFile";
+    static final String INGEST_REFRESH_INTERVAL = "ingestRefreshInterval";
+    static final String INGEST_REPLICAS = "ingestReplicas";
+    static final String QUERY_REFRESH_INTERVAL = "queryRefreshInterval";
+    static final String QUERY_REPLICAS = "queryReplicas";
+    static final String RESTORE_QUERY_SETTINGS_ON_CLOSE = "restoreQuerySettingsOnClose";
+    static final String COLLAPSE_WINDOW_MILLIS = "collapseWindowMillis";
+    static final String COLLAPSE_CACHE_SIZE = "collapseCacheSize";
+    static final String COLLAPSE_ATTRIBUTES = "collapseAttributes";
+    static final String DETERMINISTIC_IDS = "deterministicIds";
+    static final String DEDUP_CACHE_SIZE = "dedupCacheSize";
+    static final String SHED_PRIORITIES = "shedPriorities";
+    static final String SHED_QUEUE_DEPTH = "shedQueueDepth";
+    static final String SHED_IN_FLIGHT_REQUESTS = "shedInFlightRequests";
+    static final String SHED_LATENCY_MILLIS = "shedLatencyMillis";
+    static final String SERIALIZATION_THREADS = "serializationThreads";
+    static final String SERIALIZATION_QUEUE_SIZE = "serializationQueueSize";
+    static final String PRESERVE_INDEX_ORDER = "preserveIndexOrder";
+
     @Override
     public EventSink build(Context context, String... argv) {
 
@@ -31,6 +87,173 @@ class ElasticSearchSinkBuilder extends SinkFactory.SinkBuilder {
         if (argv.length > 4) {
             sink.setIndexPattern(argv[index++]);
         }
+
+        if (context.getValue(SELECT_NODES) != null) {
+            sink.setSelectNodes(Boolean.parseBoolean(context.getValue(SELECT_NODES)));
+        }
+        if (context.getValue(NODE_TIMEOUT_MILLIS) != null) {
+            sink.setNodeTimeoutMillis(Long.parseLong(context.getValue(NODE_TIMEOUT_MILLIS)));
+        }
+        if (context.getValue(NODE_EJECT_AFTER) != null) {
+            sink.setNodeEjectAfter(Integer.parseInt(context.getValue(NODE_EJECT_AFTER)));
+        }
+        if (context.getValue(NODE_EJECT_MILLIS) != null) {
+            sink.setNodeEjectMillis(Long.parseLong(context.getValue(NODE_EJECT_MILLIS)));
+        }
+        if (context.getValue(JSON_MODE) != null) {
+            sink.setJsonMode(ElasticSearchSink.JsonMode.valueOf(context.getValue(JSON_MODE).toUpperCase()));
+        }
+        if (context.getValue(ENCODING) != null) {
+            sink.setEncoding(ElasticSearchSink.Encoding.valueOf(context.getValue(ENCODING).toUpperCase()));
+        }
+        if (context.getValue(ATTRIBUTE_TYPES) != null) {
+            sink.setAttributeTypes(context.getValue(ATTRIBUTE_TYPES));
+        }
+        if (context.getValue(ATTRIBUTE_TYPE_CACHE_SIZE) != null) {
+            sink.setAttributeTypeCacheSize(Integer.parseInt(context.getValue(ATTRIBUTE_TYPE_CACHE_SIZE)));
+        }
+        if (context.getValue(INCLUDE_ATTRIBUTES) != null) {
+            sink.setIncludeAttributes(context.getValue(INCLUDE_ATTRIBUTES).split(","));
+        }
+        if (context.getValue(EXCLUDE_ATTRIBUTES) != null) {
+            sink.setExcludeAttributes(context.getValue(EXCLUDE_ATTRIBUTES).split(","));
+        }
+        if (context.getValue(MAX_BODY_BYTES) != null) {
+            sink.setMaxBodyBytes(Integer.parseInt(context.getValue(MAX_BODY_BYTES)));
+        }
+        if (context.getValue(MAX_FIELD_BYTES) != null) {
+            sink.setMaxFieldBytes(Integer.parseInt(context.getValue(MAX_FIELD_BYTES)));
+        }
+        if (context.getValue(INDEX_CACHE_SIZE) != null) {
+            sink.setIndexCacheSize(Integer.parseInt(context.getValue(INDEX_CACHE_SIZE)));
+        }
+        if (context.getValue(BATCH_SIZE) != null) {
+            sink.setBatchSize(Integer.parseInt(context.getValue(BATCH_SIZE)));
+        }
+        if (context.getValue(BATCH_BYTES) != null) {
+            sink.setBatchBytes(Long.parseLong(context.getValue(BATCH_BYTES)));
+        }
+        if (context.getValue(BATCH_LINGER_MILLIS) != null) {
+            sink.setBatchLingerMillis(Long.parseLong(context.getValue(BATCH_LINGER_MILLIS)));
+        }
+        if (context.getValue(ROUTING) != null) {
+            sink.setRouting(context.getValue(ROUTING));
+        }
+        if (context.getValue(GROUP_BATCHES) != null) {
+            sink.setGroupBatches(Boolean.parseBoolean(context.getValue(GROUP_BATCHES)));
+        }
+        if (context.getValue(MAX_BATCH_GROUPS) != null) {
+            sink.setMaxBatchGroups(Integer.parseInt(context.getValue(MAX_BATCH_GROUPS)));
+        }
+        if (context.getValue(MAX_IN_FLIGHT_REQUESTS) != null) {
+            sink.setMaxInFlightRequests(Integer.parseInt(context.getValue(MAX_IN_FLIGHT_REQUESTS)));
+        }
+        if (context.getValue(CLOSE_TIMEOUT_MILLIS) != null) {
+            sink.setCloseTimeoutMillis(Long.parseLong(context.getValue(CLOSE_TIMEOUT_MILLIS)));
+        }
+        if (context.getValue(TARGET_LATENCY_MILLIS) != null) {
+            sink.setTargetLatencyMillis(Long.parseLong(context.getValue(TARGET_LATENCY_MILLIS)));
+        }
+        if (context.getValue(MIN_BATCH_SIZE) != null) {
+            sink.setMinBatchSize(Integer.parseInt(context.getValue(MIN_BATCH_SIZE)));
+        }
+        if (context.getValue(MAX_BATCH_SIZE) != null) {
+            sink.setMaxBatchSize(Integer.parseInt(context.getValue(MAX_BATCH_SIZE)));
+        }
+        if (context.getValue(MIN_IN_FLIGHT_REQUESTS) != null) {
+            sink.setMinInFlightRequests(Integer.parseInt(context.getValue(MIN_IN_FLIGHT_REQUESTS)));
+        }
+        if (context.getValue(ADAPTIVE_MAX_IN_FLIGHT_REQUESTS) != null) {
+            sink.setAdaptiveMaxInFlightRequests(Integer.parseInt(context.getValue(ADAPTIVE_MAX_IN_FLIGHT_REQUESTS)));
+        }
+        if (context.getValue(SPILL_DIR) != null) {
+            sink.setSpillDir(context.getValue(SPILL_DIR));
+        }
+        if (context.getValue(SPILL_MAX_BYTES) != null) {
+            sink.setSpillMaxBytes(Long.parseLong(context.getValue(SPILL_MAX_BYTES)));
+        }
+        if (context.getValue(SPILL_SEGMENT_BYTES) != null) {
+            sink.setSpillSegmentBytes(Long.parseLong(context.getValue(SPILL_SEGMENT_BYTES)));
+        }
+        if (context.getValue(SPILL_REPLAY_INTERVAL_MILLIS) != null) {
+            sink.setSpillReplayIntervalMillis(Long.parseLong(context.getValue(SPILL_REPLAY_INTERVAL_MILLIS)));
+        }
+        if (context.getValue(SPILL_REPLAY_BATCH_SIZE) != null) {
+            sink.setSpillReplayBatchSize(Integer.parseInt(context.getValue(SPILL_REPLAY_BATCH_SIZE)));
+        }
+        if (context.getValue(SPILL_WAIT_MILLIS) != null) {
+            sink.setSpillWaitMillis(Long.parseLong(context.getValue(SPILL_WAIT_MILLIS)));
+        }
+        if (context.getValue(RETRY_MAX_ATTEMPTS) != null) {
+            sink.setRetryMaxAttempts(Integer.parseInt(context.getValue(RETRY_MAX_ATTEMPTS)));
+        }
+        if (context.getValue(RETRY_INITIAL_BACKOFF_MILLIS) != null) {
+            sink.setRetryInitialBackoffMillis(Long.parseLong(context.getValue(RETRY_INITIAL_BACKOFF_MILLIS)));
+        }
+        if (context.getValue(RETRY_MAX_BACKOFF_MILLIS) != null) {
+            sink.setRetryMaxBackoffMillis(Long.parseLong(context.getValue(RETRY_MAX_BACKOFF_MILLIS)));
+        }
+        if (context.getValue(RETRY_JITTER) != null) {
+            sink.setRetryJitter(Double.parseDouble(context.getValue(RETRY_JITTER)));
+        }
+        if (context.getValue(PRECREATE_LEAD_MILLIS) != null) {
+            sink.setPrecreateLeadMillis(Long.parseLong(context.getValue(PRECREATE_LEAD_MILLIS)));
+        }
+        if (context.getValue(INDEX_MAPPING_FILE) != null) {
+            sink.setIndexMappingFile(context.getValue(INDEX_MAPPING_FILE));
+        }
+        if (context.getValue(INGEST_REFRESH_INTERVAL) != null) {
+            sink.setIngestRefreshInterval(context.getValue(INGEST_REFRESH_INTERVAL));
+        }
+        if (context.getValue(INGEST_REPLICAS) != null) {
+            sink.setIngestReplicas(Integer.parseInt(context.getValue(INGEST_REPLICAS)));
+        }
+        if (context.getValue(QUERY_REFRESH_INTERVAL) != null) {
+            sink.setQueryRefreshInterval(context.getValue(QUERY_REFRESH_INTERVAL));
+        }
+        if (context.getValue(QUERY_REPLICAS) != null) {
+            sink.setQueryReplicas(Integer.parseInt(context.getValue(QUERY_REPLICAS)));
+        }
+        if (context.getValue(RESTORE_QUERY_SETTINGS_ON_CLOSE) != null) {
+            sink.setRestoreQuerySettingsOnClose(
+                    Boolean.parseBoolean(context.getValue(RESTORE_QUERY_SETTINGS_ON_CLOSE)));
+        }
+        if (context.getValue(COLLAPSE_WINDOW_MILLIS) != null) {
+            sink.setCollapseWindowMillis(Long.parseLong(context.getValue(COLLAPSE_WINDOW_MILLIS)));
+        }
+        if (context.getValue(COLLAPSE_CACHE_SIZE) != null) {
+            sink.setCollapseCacheSize(Integer.parseInt(context.getValue(COLLAPSE_CACHE_SIZE)));
+        }
+        if (context.getValue(COLLAPSE_ATTRIBUTES) != null) {
+            sink.setCollapseAttributes(context.getValue(COLLAPSE_ATTRIBUTES).split(","));
+        }
+        if (context.getValue(DETERMINISTIC_IDS) != null) {
+            sink.setDeterministicIds(Boolean.parseBoolean(context.getValue(DETERMINISTIC_IDS)));
+        }
+        if (context.getValue(DEDUP_CACHE_SIZE) != null) {
+            sink.setDedupCacheSize(Integer.parseInt(context.getValue(DEDUP_CACHE_SIZE)));
+        }
+        if (context.getValue(SHED_PRIORITIES) != null) {
+            sink.setShedPriorities(context.getValue(SHED_PRIORITIES));
+        }
+        if (context.getValue(SHED_QUEUE_DEPTH) != null) {
+            sink.setShedQueueDepth(Integer.parseInt(context.getValue(SHED_QUEUE_DEPTH)));
+        }
+        if (context.getValue(SHED_IN_FLIGHT_REQUESTS) != null) {
+            sink.setShedInFlightRequests(Integer.parseInt(context.getValue(SHED_IN_FLIGHT_REQUESTS)));
+        }
+        if (context.getValue(SHED_LATENCY_MILLIS) != null) {
+            sink.setShedLatencyMillis(Long.parseLong(context.getValue(SHED_LATENCY_MILLIS)));
+        }
+        if (context.getValue(SERIALIZATION_THREADS) != null) {
+            sink.setSerializationThreads(Integer.parseInt(context.getValue(SERIALIZATION_THREADS)));
+        }
+        if (context.getValue(SERIALIZATION_QUEUE_SIZE) != null) {
+            sink.setSerializationQueueSize(Integer.parseInt(context.getValue(SERIALIZATION_QUEUE_SIZE)));
+        }
+        if (context.getValue(PRESERVE_INDEX_ORDER) != null) {
+            sink.setPreserveIndexOrder(Boolean.parseBoolean(context.getValue(PRESERVE_INDEX_ORDER)));
+        }
         return sink;
     }
 }
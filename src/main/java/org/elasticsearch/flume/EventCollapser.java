@@ -0,0 +1,198 @@
+package org.elasticsearch.flume;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import com.cloudera.flume.core.Event;
+import com.cloudera.flume.core.EventImpl;
+
+/**
+ * Merges events with the same host, priority, body and selected attributes that arrive within a window of each other
+ * into one document with a count, so a storm of identical log lines is indexed as one document per window rather than
+ * one per line.
+ * <p/>
+ * Events are held in a bounded cache in the order they first arrived.  Each is sent once its window has passed, or
+ * earlier if the cache is full and it is the oldest.  Events that had no duplicates are sent unchanged.
+ */
+final class EventCollapser {
+
+    /**
+     * The first of a group of duplicate events, with how many there were and when.
+     */
+    static final class CollapsedEvent extends EventImpl {
+        final long count;
+        final long firstTimestamp;
+        final long lastTimestamp;
+
+        private CollapsedEvent(Group group) {
+            super(group.first.getBody(), group.first.getTimestamp(), group.first.getPriority(),
+                    group.first.getNanos(), group.first.getHost(), group.first.getAttrs());
+            this.count = group.count;
+            this.firstTimestamp = group.firstTimestamp;
+            this.lastTimestamp = group.lastTimestamp;
+        }
+    }
+
+    private final long windowMillis;
+    private final int maxGroups;
+    private final String[] attributes;
+
+    // In the order groups were started, so the oldest is always first
+    private final LinkedHashMap<Key, Group> groups = new LinkedHashMap<Key, Group>();
+    private long collapsed;
+
+    EventCollapser(long windowMillis, int maxGroups, String[] attributes) {
+        this.windowMillis = windowMillis;
+        this.maxGroups = maxGroups;
+        this.attributes = attributes.clone();
+    }
+
+    /**
+     * Adds the event to its group, returning the events that should be sent now because their window has passed or
+     * they were pushed out of the cache.
+     */
+    synchronized List<Event> add(Event e, long now) {
+        Key key = new Key(e, attributes);
+        Group group = groups.get(key);
+        if (group != null && now - group.started < windowMillis) {
+            group.add(e);
+            collapsed++;
+            return Collections.emptyList();
+        }
+
+        // Groups are kept in the order they started, so if this event's group has expired expire() sends it, along with
+        // every group started before it, and the event starts a new one
+        List<Event> ready = expire(now);
+        if (groups.size() >= maxGroups) {
+            Iterator<Group> oldest = groups.values().iterator();
+            ready = append(ready, oldest.next().toEvent());
+            oldest.remove();
+        }
+        groups.put(key, new Group(e, now));
+        return ready;
+    }
+
+    /**
+     * Returns the events whose window has passed.
+     */
+    synchronized List<Event> expire(long now) {
+        List<Event> ready = Collections.emptyList();
+        for (Iterator<Group> it = groups.values().iterator(); it.hasNext(); ) {
+            Group group = it.next();
+            if (now - group.started < windowMillis) {
+                break;
+            }
+            ready = append(ready, group.toEvent());
+            it.remove();
+        }
+        return ready;
+    }
+
+    /**
+     * Returns all the events held, whether or not their window has passed.
+     */
+    synchronized List<Event> drain() {
+        List<Event> ready = new ArrayList<Event>(groups.size());
+        for (Group group : groups.values()) {
+            ready.add(group.toEvent());
+        }
+        groups.clear();
+        return ready;
+    }
+
+    synchronized int size() {
+        return groups.size();
+    }
+
+    /**
+     * Events merged into another rather than sent as documents of their own.
+     */
+    synchronized long getCollapsed() {
+        return collapsed;
+    }
+
+    private static List<Event> append(List<Event> events, Event event) {
+        if (events.isEmpty()) {
+            events = new ArrayList<Event>();
+        }
+        events.add(event);
+        return events;
+    }
+
+    private static final class Group {
+        private final Event first;
+        private final long started;
+        private long count = 1;
+        private long firstTimestamp;
+        private long lastTimestamp;
+
+        Group(Event first, long started) {
+            this.first = first;
+            this.started = started;
+            this.firstTimestamp = first.getTimestamp();
+            this.lastTimestamp = first.getTimestamp();
+        }
+
+        void add(Event e) {
+            count++;
+            firstTimestamp = Math.min(firstTimestamp, e.getTimestamp());
+            lastTimestamp = Math.max(lastTimestamp, e.getTimestamp());
+        }
+
+        Event toEvent() {
+            return count == 1 ? first : new CollapsedEvent(this);
+        }
+    }
+
+    /**
+     * Refers to the event's own arrays rather than copying them, events aren't changed once appended.
+     */
+    private static final class Key {
+        private final String host;
+        private final Event.Priority priority;
+        private final byte[] body;
+        private final byte[][] attributes;
+        private final int hash;
+
+        Key(Event e, String[] names) {
+            host = e.getHost();
+            priority = e.getPriority();
+            body = e.getBody();
+            attributes = new byte[names.length][];
+            int h = (host == null ? 0 : host.hashCode()) * 31 + priority.hashCode();
+            h = h * 31 + Arrays.hashCode(body);
+            for (int i = 0; i < names.length; i++) {
+                attributes[i] = e.get(names[i]);
+                h = h * 31 + Arrays.hashCode(attributes[i]);
+            }
+            hash = h;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            if (hash != other.hash || priority != other.priority || !Arrays.equals(body, other.body)
+                    || !(host == null ? other.host == null : host.equals(other.host))) {
+                return false;
+            }
+            for (int i = 0; i < attributes.length; i++) {
+                if (!Arrays.equals(attributes[i], other.attributes[i])) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,310 @@
+package org.elasticsearch.flume;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.Map;
+
+import com.cloudera.flume.core.Event;
+import org.elasticsearch.common.io.FastByteArrayOutputStream;
+import org.elasticsearch.common.xcontent.XContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.common.xcontent.json.JsonXContent;
+import org.elasticsearch.common.xcontent.smile.SmileXContent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Turns Flume events into the source of the documents indexed by ElasticSearchSink.
+ * <p/>
+ * Each thread reuses its own output buffer and timestamp chars, and UTF-8 text is written straight from the event's
+ * bytes, so the only allocation per event besides the builder itself is the returned byte[].
+ */
+class EventSerializer {
+
+    private static final Logger LOG = LoggerFactory.getLogger(EventSerializer.class);
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    // Buffers that grew beyond this serializing a large event are dropped rather than held by the thread forever
+    private static final int MAX_RETAINED_BUFFER_SIZE = 1024 * 1024;
+    private static final int INITIAL_BUFFER_SIZE = 1024;
+
+    private final Charset charset;
+    private final boolean utf8;
+    private final ElasticSearchSink.JsonMode jsonMode;
+    private final XContent xContent;
+    private final AttributeTypes attributeTypes;
+    private final DocumentShaper shaper;
+
+    private final ThreadLocal<Buffers> buffers = new ThreadLocal<Buffers>() {
+        @Override
+        protected Buffers initialValue() {
+            return new Buffers();
+        }
+    };
+
+    EventSerializer(Charset charset, ElasticSearchSink.JsonMode jsonMode) {
+        this(charset, jsonMode, ElasticSearchSink.Encoding.JSON);
+    }
+
+    EventSerializer(Charset charset, ElasticSearchSink.JsonMode jsonMode, ElasticSearchSink.Encoding encoding) {
+        this(charset, jsonMode, encoding, new AttributeTypes(Collections.<String, AttributeTypes.Type>emptyMap(),
+                ElasticSearchSink.DEFAULT_ATTRIBUTE_TYPE_CACHE_SIZE));
+    }
+
+    EventSerializer(Charset charset, ElasticSearchSink.JsonMode jsonMode, ElasticSearchSink.Encoding encoding,
+                    AttributeTypes attributeTypes) {
+        this(charset, jsonMode, encoding, attributeTypes, DocumentShaper.NONE);
+    }
+
+    EventSerializer(Charset charset, ElasticSearchSink.JsonMode jsonMode, ElasticSearchSink.Encoding encoding,
+                    AttributeTypes attributeTypes, DocumentShaper shaper) {
+        this.charset = charset;
+        this.utf8 = UTF_8.equals(charset);
+        this.jsonMode = jsonMode;
+        this.xContent = encoding == ElasticSearchSink.Encoding.SMILE ? SmileXContent.smileXContent
+                : JsonXContent.jsonXContent;
+        this.attributeTypes = attributeTypes;
+        this.shaper = shaper;
+    }
+
+    byte[] serialize(Event e) throws IOException {
+        Buffers buffers = this.buffers.get();
+        FastByteArrayOutputStream stream = buffers.stream();
+
+        XContentBuilder builder = new XContentBuilder(xContent, stream);
+        builder.startObject();
+        int length = TimestampFormatter.format(e.getTimestamp(), buffers.timestamp);
+        builder.field("timestamp", buffers.timestamp, 0, length);
+        builder.field("host", e.getHost());
+        builder.field("priority", e.getPriority().name());
+        if (e instanceof EventCollapser.CollapsedEvent) {
+            addCollapsedFields(builder, (EventCollapser.CollapsedEvent) e, buffers.timestamp);
+        }
+
+        boolean truncated = addBody(builder, e.getBody());
+
+        truncated |= addAttrs(builder, e.getAttrs());
+
+        if (truncated) {
+            builder.field("truncated", true);
+            shaper.truncated();
+        }
+        builder.endObject();
+        builder.close();
+        return stream.toByteArray();
+    }
+
+    private void addCollapsedFields(XContentBuilder builder, EventCollapser.CollapsedEvent e, char[] timestamp)
+            throws IOException {
+        builder.field("count", e.count);
+        int length = TimestampFormatter.format(e.firstTimestamp, timestamp);
+        builder.field("first_timestamp", timestamp, 0, length);
+        length = TimestampFormatter.format(e.lastTimestamp, timestamp);
+        builder.field("last_timestamp", timestamp, 0, length);
+    }
+
+    /**
+     * Returns true if the body was truncated.
+     */
+    private boolean addBody(XContentBuilder builder, byte[] data) throws IOException {
+        if (shaper.isBodyTooLong(data)) {
+            // Cut JSON is no longer JSON, so it goes in as text
+            int length = DocumentShaper.truncatedLength(data, shaper.getMaxBodyBytes());
+            builder.startObject("message");
+            addSimpleField(builder, "text", data, length);
+            builder.endObject();
+            shaper.saved(data.length - length);
+            return true;
+        }
+
+        XContentType contentType = XContentFactory.xContentType(data);
+
+        if (contentType == null) {
+            builder.startObject("message");
+            addSimpleField(builder, "text", data, data.length);
+            builder.endObject();
+        } else {
+            addComplexField(builder, "message", contentType, data);
+        }
+        return false;
+    }
+
+    /**
+     * Returns true if any attribute was truncated or left out for being too long.
+     */
+    private boolean addAttrs(XContentBuilder builder, Map<String, byte[]> attrs) throws IOException {
+        boolean debug = LOG.isDebugEnabled();
+        boolean truncated = false;
+        builder.startObject("fields");
+        for (Map.Entry<String, byte[]> entry : attrs.entrySet()) {
+            String name = entry.getKey();
+            byte[] data = entry.getValue();
+            if (!shaper.isIncluded(name)) {
+                shaper.saved(data.length);
+                continue;
+            }
+            if (debug) {
+                LOG.debug("field: {}, data: {}", name, new String(data, charset));
+            }
+            if (shaper.isFieldTooLong(data)) {
+                addTruncatedField(builder, name, data);
+                truncated = true;
+            } else {
+                addField(builder, name, data);
+            }
+        }
+        builder.endObject();
+        return truncated;
+    }
+
+    private void addTruncatedField(XContentBuilder builder, String fieldName, byte[] data) throws IOException {
+        if (attributeTypes.contentType(fieldName, data) != null) {
+            // Indexing cut JSON as text would clash with the field's object mapping, so it is left out
+            shaper.saved(data.length);
+            return;
+        }
+        int length = DocumentShaper.truncatedLength(data, shaper.getMaxFieldBytes());
+        addSimpleField(builder, fieldName, data, length);
+        shaper.saved(data.length - length);
+    }
+
+    private void addField(XContentBuilder builder, String fieldName, byte[] data) throws IOException {
+        XContentType contentType = attributeTypes.contentType(fieldName, data);
+        if (contentType == null) {
+            addSimpleField(builder, fieldName, data, data.length);
+        } else {
+            addComplexField(builder, fieldName, contentType, data);
+        }
+    }
+
+    private void addSimpleField(XContentBuilder builder, String fieldName, byte[] data, int length)
+            throws IOException {
+        if (utf8 && isWellFormedUtf8(data, length)) {
+            builder.field(fieldName);
+            builder.generator().writeUTF8String(data, 0, length);
+        } else {
+            builder.field(fieldName, new String(data, 0, length, charset));
+        }
+    }
+
+    private void addComplexField(XContentBuilder builder, String fieldName, XContentType contentType, byte[] data)
+            throws IOException {
+        if (contentType == XContentType.JSON && builder.contentType() == XContentType.JSON) {
+            if (jsonMode == ElasticSearchSink.JsonMode.TRUST
+                    || (jsonMode == ElasticSearchSink.JsonMode.VALIDATE && isWellFormed(contentType, data))) {
+                builder.rawField(fieldName, data);
+                return;
+            }
+        }
+
+        // Streams tokens from the parser to the generator, which is also how JSON is converted to SMILE
+        XContentParser parser = null;
+        try {
+            parser = XContentFactory.xContent(contentType).createParser(data);
+            parser.nextToken();
+            builder.field(fieldName).copyCurrentStructure(parser);
+        } finally {
+            if (parser != null) {
+                parser.close();
+            }
+        }
+    }
+
+    /**
+     * Tokenizes the data without copying it anywhere, which is much cheaper than copyCurrentStructure().  Anything
+     * after the root object or array closes, even another one, makes it malformed, as rawField() would copy it too.
+     */
+    static boolean isWellFormed(XContentType contentType, byte[] data) {
+        XContentParser parser = null;
+        try {
+            parser = XContentFactory.xContent(contentType).createParser(data);
+            XContentParser.Token token = parser.nextToken();
+            if (token != XContentParser.Token.START_OBJECT && token != XContentParser.Token.START_ARRAY) {
+                return false;
+            }
+            for (int depth = 1; depth > 0; ) {
+                token = parser.nextToken();
+                if (token == null) {
+                    return false;
+                } else if (token == XContentParser.Token.START_OBJECT || token == XContentParser.Token.START_ARRAY) {
+                    depth++;
+                } else if (token == XContentParser.Token.END_OBJECT || token == XContentParser.Token.END_ARRAY) {
+                    depth--;
+                }
+            }
+            return parser.nextToken() == null;
+        } catch (Exception ex) {
+            return false;
+        } finally {
+            if (parser != null) {
+                parser.close();
+            }
+        }
+    }
+
+    /**
+     * Bytes that aren't valid UTF-8 go through new String() instead, so they get replacement characters rather than
+     * producing an invalid document.
+     */
+    static boolean isWellFormedUtf8(byte[] data) {
+        return isWellFormedUtf8(data, data.length);
+    }
+
+    static boolean isWellFormedUtf8(byte[] data, int length) {
+        int i = 0;
+        while (i < length) {
+            int b = data[i];
+            if (b >= 0) {
+                i++;
+                continue;
+            }
+            int continuation;
+            int min;
+            if ((b & 0xE0) == 0xC0) {
+                continuation = 1;
+                min = 0x80;
+            } else if ((b & 0xF0) == 0xE0) {
+                continuation = 2;
+                min = 0x800;
+            } else if ((b & 0xF8) == 0xF0) {
+                continuation = 3;
+                min = 0x10000;
+            } else {
+                return false;
+            }
+            if (i + continuation >= length) {
+                return false;
+            }
+            int codePoint = b & (0x3F >> continuation);
+            for (int j = 1; j <= continuation; j++) {
+                int next = data[i + j];
+                if ((next & 0xC0) != 0x80) {
+                    return false;
+                }
+                codePoint = (codePoint << 6) | (next & 0x3F);
+            }
+            if (codePoint < min || codePoint > 0x10FFFF || (codePoint >= 0xD800 && codePoint <= 0xDFFF)) {
+                return false;
+            }
+            i += continuation + 1;
+        }
+        return true;
+    }
+
+    private static class Buffers {
+        private final char[] timestamp = new char[TimestampFormatter.LENGTH];
+        private FastByteArrayOutputStream stream = new FastByteArrayOutputStream(INITIAL_BUFFER_SIZE);
+
+        FastByteArrayOutputStream stream() {
+            if (stream.unsafeByteArray().length > MAX_RETAINED_BUFFER_SIZE) {
+                stream = new FastByteArrayOutputStream(INITIAL_BUFFER_SIZE);
+            }
+            stream.reset();
+            return stream;
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package org.elasticsearch.flume;
+
+import java.util.Calendar;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.cloudera.flume.core.Event;
+import com.cloudera.flume.core.Event.Priority;
+import com.cloudera.flume.core.EventImpl;
+
+/**
+ * Resolves indexPattern into an index name for each event.
+ * <p/>
+ * The pattern is compiled once to find the finest date escape it uses, the name resolved by Event.escapeString() is
+ * then reused for every event that falls in the same time bucket (day, hour or minute).  The RECENT_BUCKETS most
+ * recently resolved buckets are kept, so late events mixed in with current ones around a roll over don't resolve the
+ * name again every time they alternate.  Patterns that use per event escapes such as %{host}, or date escapes finer
+ * than a minute, are resolved with escapeString() for every event.
+ */
+class IndexNameResolver {
+
+    // Matches the escapes understood by Event.escapeString()
+    private static final Pattern ESCAPE_PATTERN = Pattern.compile("\\%(\\w|\\%)|\\%\\{([\\w\\.-]+)\\}");
+
+    static final int RECENT_BUCKETS = 4;
+
+    enum Granularity {
+        CONSTANT(-1), DAY(Calendar.DAY_OF_MONTH), HOUR(Calendar.HOUR_OF_DAY), MINUTE(Calendar.MINUTE), EVENT(-1);
+
+        private final int calendarField;
+
+        Granularity(int calendarField) {
+            this.calendarField = calendarField;
+        }
+
+        Granularity finer(Granularity other) {
+            return other.ordinal() > ordinal() ? other : this;
+        }
+    }
+
+    private final String pattern;
+    private final Granularity granularity;
+    // Most recently resolved first, replaced rather than changed so readers never need a lock
+    private volatile Bucket[] buckets = new Bucket[0];
+
+    private IndexNameResolver(String pattern, Granularity granularity) {
+        this.pattern = pattern;
+        this.granularity = granularity;
+    }
+
+    static IndexNameResolver compile(String pattern) {
+        Granularity granularity = Granularity.CONSTANT;
+        Matcher matcher = ESCAPE_PATTERN.matcher(pattern);
+        while (matcher.find()) {
+            if (matcher.group(2) != null) {
+                granularity = Granularity.EVENT;
+            } else {
+                granularity = granularity.finer(granularityOf(matcher.group(1).charAt(0)));
+            }
+        }
+        return new IndexNameResolver(pattern, granularity);
+    }
+
+    private static Granularity granularityOf(char escape) {
+        switch (escape) {
+            case '%':
+                return Granularity.CONSTANT;
+            case 'a':
+            case 'A':
+            case 'b':
+            case 'B':
+            case 'd':
+            case 'D':
+            case 'j':
+            case 'm':
+            case 'y':
+            case 'Y':
+                return Granularity.DAY;
+            case 'H':
+            case 'I':
+            case 'k':
+            case 'l':
+            case 'p':
+            case 'z':
+                return Granularity.HOUR;
+            case 'M':
+                return Granularity.MINUTE;
+            default:
+                return Granularity.EVENT;
+        }
+    }
+
+    String resolve(Event e) {
+        if (granularity == Granularity.EVENT) {
+            return e.escapeString(pattern);
+        }
+
+        Bucket[] recent = buckets;
+        long timestamp = e.getTimestamp();
+        for (Bucket bucket : recent) {
+            if (bucket.contains(timestamp)) {
+                return bucket.name;
+            }
+        }
+        Bucket bucket = newBucket(timestamp, e.escapeString(pattern));
+        Bucket[] updated = new Bucket[Math.min(recent.length + 1, RECENT_BUCKETS)];
+        updated[0] = bucket;
+        System.arraycopy(recent, 0, updated, 1, updated.length - 1);
+        // Racing resolves may lose each other's bucket, which only costs resolving it again
+        buckets = updated;
+        return bucket.name;
+    }
+
+    /**
+     * Resolves the name of the index for events at the given time, for patterns that only depend on the time.
+     */
+    String resolve(long timestamp) {
+        if (!isTimeBased()) {
+            throw new IllegalStateException("Pattern depends on more than the time: " + pattern);
+        }
+        return new EventImpl(new byte[0], timestamp, Priority.INFO, 0, "").escapeString(pattern);
+    }
+
+    /**
+     * Whether the pattern rolls over to a new index every day, hour or minute, and nothing else.
+     */
+    boolean isTimeBased() {
+        return granularity != Granularity.CONSTANT && granularity != Granularity.EVENT;
+    }
+
+    private Bucket newBucket(long timestamp, String name) {
+        if (granularity == Granularity.CONSTANT) {
+            return new Bucket(Long.MIN_VALUE, Long.MAX_VALUE, name);
+        }
+
+        // Truncate with the default time zone, as escapeString() formats dates with it
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(timestamp);
+        calendar.set(Calendar.MILLISECOND, 0);
+        calendar.set(Calendar.SECOND, 0);
+        if (granularity != Granularity.MINUTE) {
+            calendar.set(Calendar.MINUTE, 0);
+        }
+        if (granularity == Granularity.DAY) {
+            calendar.set(Calendar.HOUR_OF_DAY, 0);
+        }
+        long start = calendar.getTimeInMillis();
+        calendar.add(granularity.calendarField, 1);
+        return new Bucket(start, calendar.getTimeInMillis(), name);
+    }
+
+    Granularity getGranularity() {
+        return granularity;
+    }
+
+    String getPattern() {
+        return pattern;
+    }
+
+    private static class Bucket {
+        private final long start;
+        private final long end;
+        private final String name;
+
+        Bucket(long start, long end, String name) {
+            this.start = start;
+            this.end = end;
+            this.name = name;
+        }
+
+        boolean contains(long timestamp) {
+            return timestamp >= start && timestamp < end;
+        }
+    }
+}
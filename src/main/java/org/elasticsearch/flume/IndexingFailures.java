@@ -0,0 +1,114 @@
+package org.elasticsearch.flume;
+
+import java.util.concurrent.RejectedExecutionException;
+
+import org.elasticsearch.ElasticSearchTimeoutException;
+import org.elasticsearch.ExceptionsHelper;
+import org.elasticsearch.action.UnavailableShardsException;
+import org.elasticsearch.client.transport.NoNodeAvailableException;
+import org.elasticsearch.cluster.block.ClusterBlockException;
+import org.elasticsearch.transport.ConnectTransportException;
+import org.elasticsearch.transport.RemoteTransportException;
+
+/**
+ * Tells failures that are worth trying again later, because the cluster is unavailable or too busy, apart from
+ * failures caused by the document itself, such as mapping or parse errors, which will fail the same way every time.
+ */
+final class IndexingFailures {
+
+    // Bulk item failures only carry a message, which starts with the exception's simple class name followed by its
+    // message in brackets, and goes on with each cause the same way after NESTED
+    private static final String NESTED = "nested: ";
+    private static final String[] RETRYABLE_CLASSES = {"RejectedExecutionException", "EsRejectedExecutionException",
+            "NoNodeAvailableException", "UnavailableShardsException", "ClusterBlockException",
+            "ConnectTransportException", "NodeDisconnectedException", "NodeNotConnectedException",
+            "ElasticSearchTimeoutException", "ReceiveTimeoutTransportException"};
+
+    private IndexingFailures() {
+    }
+
+    static boolean isRetryable(Throwable t) {
+        Throwable cause = ExceptionsHelper.unwrapCause(t);
+        if (cause instanceof NoNodeAvailableException
+                || cause instanceof ConnectTransportException
+                || cause instanceof ClusterBlockException
+                || cause instanceof UnavailableShardsException
+                || cause instanceof ElasticSearchTimeoutException
+                || cause instanceof RejectedExecutionException) {
+            return true;
+        }
+        // Thread pools on data nodes reject with an ElasticSearch specific exception in some versions
+        return isRejection(cause);
+    }
+
+    /**
+     * Whether the cluster turned the request away for being too busy, as opposed to being unavailable.
+     */
+    static boolean isRejection(Throwable t) {
+        Throwable cause = ExceptionsHelper.unwrapCause(t);
+        return cause != null && cause.getClass().getSimpleName().contains("RejectedExecution");
+    }
+
+    /**
+     * Whether the node the request was sent to couldn't be reached or didn't answer in time, as opposed to answering
+     * with a failure of its own or of the cluster.
+     */
+    static boolean isNodeFailure(Throwable t) {
+        // A remote failure is the node answering, even if what it answers is a timeout further into the cluster
+        if (t instanceof RemoteTransportException) {
+            return false;
+        }
+        return t instanceof ConnectTransportException
+                || t instanceof NoNodeAvailableException
+                || t.getClass().getSimpleName().contains("Timeout");
+    }
+
+    static boolean isRejection(String failureMessage) {
+        return failedWith(failureMessage, "RejectedExecutionException", "EsRejectedExecutionException");
+    }
+
+    static boolean isRetryable(String failureMessage) {
+        return failedWith(failureMessage, RETRYABLE_CLASSES);
+    }
+
+    /**
+     * Whether the failure or any of its causes has one of the simple class names.  Only the class names are matched,
+     * so a document failing with a message that mentions a timeout, for example, isn't taken for one.
+     */
+    private static boolean failedWith(String failureMessage, String... classNames) {
+        if (failureMessage == null) {
+            return false;
+        }
+        int start = 0;
+        while (start >= 0) {
+            String className = classNameAt(failureMessage, start);
+            for (String name : classNames) {
+                if (name.equals(className)) {
+                    return true;
+                }
+            }
+            start = failureMessage.indexOf(NESTED, start);
+            if (start >= 0) {
+                start += NESTED.length();
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The simple name of the class at start, which may be qualified with its package.
+     */
+    private static String classNameAt(String failureMessage, int start) {
+        int simpleStart = start;
+        int end = start;
+        for (; end < failureMessage.length(); end++) {
+            char c = failureMessage.charAt(end);
+            if (c == '.') {
+                simpleStart = end + 1;
+            } else if (!Character.isJavaIdentifierPart(c)) {
+                break;
+            }
+        }
+        return failureMessage.substring(simpleStart, end);
+    }
+}
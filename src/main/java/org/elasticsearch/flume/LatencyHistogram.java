@@ -0,0 +1,123 @@
+package org.elasticsearch.flume;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock free histogram of latencies in microseconds, with log-linear buckets that keep percentiles within 12.5% of
+ * the recorded values.
+ * <p/>
+ * The count is of every value ever recorded, but the mean and percentiles are of intervals, each taken with
+ * takeInterval(), which starts the next one.  Percentiles since the sink started would barely move after a while,
+ * hiding a cluster that has just slowed down behind hours of fast requests.
+ */
+class LatencyHistogram {
+
+    // Values below this get a bucket each, above it every power of 2 is split into SUB_BUCKETS linear buckets
+    private static final int LINEAR_LIMIT = 16;
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int LINEAR_LIMIT_EXPONENT = 4;
+    private static final int BUCKETS = LINEAR_LIMIT + (63 - LINEAR_LIMIT_EXPONENT) * SUB_BUCKETS;
+
+    // Of the current interval, apart from the count
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final StripedCounter count = new StripedCounter();
+    private final StripedCounter sum = new StripedCounter();
+
+    void recordNanos(long nanos) {
+        record(TimeUnit.NANOSECONDS.toMicros(nanos));
+    }
+
+    void record(long micros) {
+        if (micros < 0) {
+            micros = 0;
+        }
+        counts.incrementAndGet(bucketOf(micros));
+        count.increment();
+        sum.add(micros);
+    }
+
+    /**
+     * Returns the number of values recorded since the histogram was created.
+     */
+    long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * Returns the values recorded since the last call, and starts the next interval.  A value recorded while it runs
+     * may be in this interval's percentiles and the next one's mean, or the other way around, but is never lost.
+     */
+    Interval takeInterval() {
+        long[] intervalCounts = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            intervalCounts[i] = counts.getAndSet(i, 0);
+        }
+        return new Interval(intervalCounts, sum.sumThenReset());
+    }
+
+    static final class Interval {
+
+        private final long[] counts;
+        private final long total;
+        private final long sum;
+
+        private Interval(long[] counts, long sum) {
+            long recorded = 0;
+            for (long n : counts) {
+                recorded += n;
+            }
+            this.counts = counts;
+            this.total = recorded;
+            this.sum = sum;
+        }
+
+        long getCount() {
+            return total;
+        }
+
+        long getMean() {
+            return total == 0 ? 0 : sum / total;
+        }
+
+        /**
+         * Returns the upper bound of the bucket holding the given percentile, or 0 if nothing was recorded.
+         */
+        long getPercentile(double percentile) {
+            if (total == 0) {
+                return 0;
+            }
+            long target = Math.max(1, (long) Math.ceil(percentile * total));
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += counts[i];
+                if (seen >= target) {
+                    return upperBoundOf(i);
+                }
+            }
+            return upperBoundOf(BUCKETS - 1);
+        }
+    }
+
+    static int bucketOf(long value) {
+        if (value < LINEAR_LIMIT) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return LINEAR_LIMIT + (exponent - LINEAR_LIMIT_EXPONENT) * SUB_BUCKETS + subBucket;
+    }
+
+    static long upperBoundOf(int bucket) {
+        if (bucket < LINEAR_LIMIT) {
+            return bucket;
+        }
+        int exponent = (bucket - LINEAR_LIMIT) / SUB_BUCKETS + LINEAR_LIMIT_EXPONENT;
+        int subBucket = (bucket - LINEAR_LIMIT) % SUB_BUCKETS;
+        if (exponent == 62 && subBucket == SUB_BUCKETS - 1) {
+            return Long.MAX_VALUE;
+        }
+        return ((long) (SUB_BUCKETS + subBucket + 1) << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+}
@@ -0,0 +1,120 @@
+package org.elasticsearch.flume;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.cloudera.flume.core.Event.Priority;
+import com.cloudera.flume.reporter.ReportEvent;
+
+/**
+ * Decides which events to drop while the sink is overloaded, lowest priorities first.
+ * <p/>
+ * The overload is how far past its threshold the worst of queue depth, in flight requests and recent index latency
+ * is, 1 being right at it.  Past 1 the first priority in the shed order is sampled, keeping fewer of its events the
+ * further past it is, until at 1.5 all of them are dropped and the next priority starts being sampled, and so on.
+ * Priorities not in the shed order are never dropped.
+ * <p/>
+ * Only completed requests update the latency average, and none complete while everything is being dropped, so the
+ * average halves for every maximum latency that passes without one.  Otherwise shedding everything on a latency spike
+ * would keep the sink shedding everything after the cluster recovered.
+ */
+final class LoadShedder {
+
+    // How much further overloaded the sink has to get to go from keeping all of a priority to dropping all of it
+    static final double STEP = 0.5;
+    // Weight of each request in the moving average of index latency
+    private static final double LATENCY_WEIGHT = 0.1;
+
+    private final int[] shedPositions = new int[Priority.values().length];
+    private final int maxQueueDepth;
+    private final int maxInFlightRequests;
+    private final long maxLatencyNanos;
+
+    private final AtomicLongArray seen = new AtomicLongArray(Priority.values().length);
+    private final StripedCounter[] shed = new StripedCounter[Priority.values().length];
+    // Updates can race and lose a sample, which doesn't matter for an average
+    private volatile long latencyNanos;
+    private volatile long lastSampleNanos;
+
+    LoadShedder(List<Priority> shedOrder, int maxQueueDepth, int maxInFlightRequests, long maxLatencyMillis) {
+        for (Priority priority : Priority.values()) {
+            shedPositions[priority.ordinal()] = shedOrder.indexOf(priority);
+            shed[priority.ordinal()] = new StripedCounter();
+        }
+        this.maxQueueDepth = maxQueueDepth;
+        this.maxInFlightRequests = maxInFlightRequests;
+        this.maxLatencyNanos = maxLatencyMillis * 1000000;
+    }
+
+    /**
+     * Records the latency of a request that completed at now (from System.nanoTime()).
+     */
+    void recordLatencyNanos(long nanos, long now) {
+        double average = decayedLatencyNanos(now);
+        latencyNanos = (long) (average + LATENCY_WEIGHT * (nanos - average));
+        lastSampleNanos = now;
+    }
+
+    private double decayedLatencyNanos(long now) {
+        long average = latencyNanos;
+        long quietNanos = now - lastSampleNanos;
+        if (maxLatencyNanos <= 0 || quietNanos <= 0) {
+            return average;
+        }
+        return average * Math.pow(0.5, (double) quietNanos / maxLatencyNanos);
+    }
+
+    /**
+     * Returns the overload at now (from System.nanoTime()).  Thresholds of 0 are ignored.
+     */
+    double overload(int queueDepth, int inFlightRequests, long now) {
+        double overload = 0;
+        if (maxQueueDepth > 0) {
+            overload = Math.max(overload, (double) queueDepth / maxQueueDepth);
+        }
+        if (maxInFlightRequests > 0) {
+            overload = Math.max(overload, (double) inFlightRequests / maxInFlightRequests);
+        }
+        if (maxLatencyNanos > 0) {
+            overload = Math.max(overload, decayedLatencyNanos(now) / maxLatencyNanos);
+        }
+        return overload;
+    }
+
+    /**
+     * Returns true, and counts it, if the event should be dropped.
+     */
+    boolean shed(Priority priority, double overload) {
+        double keep = keepRatio(priority, overload);
+        if (keep >= 1) {
+            return false;
+        }
+        // Keeps every event that takes the number kept so far past a whole number, which spreads the kept events
+        // evenly without a shared random number generator
+        long n = seen.getAndIncrement(priority.ordinal());
+        if (Math.floor((n + 1) * keep) > Math.floor(n * keep)) {
+            return false;
+        }
+        shed[priority.ordinal()].increment();
+        return true;
+    }
+
+    double keepRatio(Priority priority, double overload) {
+        int position = shedPositions[priority.ordinal()];
+        if (position < 0) {
+            return 1;
+        }
+        double start = 1 + position * STEP;
+        return Math.max(0, Math.min(1, 1 - (overload - start) / STEP));
+    }
+
+    long getShed(Priority priority) {
+        return shed[priority.ordinal()].sum();
+    }
+
+    void report(ReportEvent event) {
+        for (Priority priority : Priority.values()) {
+            event.setLongMetric("NO_OF_SHED_" + priority.name() + "_EVENTS", getShed(priority));
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package org.elasticsearch.flume;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A LinkedHashMap that holds at most maxSize entries, evicting the least recently used entry once full.
+ * <p/>
+ * Not thread safe, wrap it with Collections.synchronizedMap() or synchronize on it when shared.
+ */
+class LruCache<K, V> extends LinkedHashMap<K, V> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int maxSize;
+
+    LruCache(int maxSize) {
+        super(16, 0.75f, true);
+        this.maxSize = maxSize;
+    }
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+        return size() > maxSize;
+    }
+
+    int getMaxSize() {
+        return maxSize;
+    }
+}
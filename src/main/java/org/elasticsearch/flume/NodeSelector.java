@@ -0,0 +1,146 @@
+package org.elasticsearch.flume;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import com.cloudera.flume.reporter.ReportEvent;
+import org.elasticsearch.client.Client;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Picks the node to send each bulk request to, out of a client per host in an explicit host list.
+ * <p/>
+ * The node with the fewest requests in flight is picked, then the one with the lowest recent latency, going round
+ * the nodes when they are level.  A response slower than the timeout, or a failure to reach the node, is a strike
+ * against it, and a node with ejectAfter strikes in a row isn't picked again until ejectMillis have passed.  Its
+ * strikes are only cleared by a response in time, so a node that is still unwell is ejected again by its first
+ * request back.  If every node is ejected the one due back soonest is picked, rather than sending nothing.
+ */
+final class NodeSelector {
+
+    private static final Logger LOG = LoggerFactory.getLogger(NodeSelector.class);
+
+    static final String NO_OF_NODE_EJECTIONS = "NO_OF_NODE_EJECTIONS";
+
+    // Weight of each new latency in the recent latency, so a few slow responses move it but one doesn't
+    private static final double LATENCY_WEIGHT = 0.3;
+
+    private final List<Target> targets;
+    private final long timeoutNanos;
+    private final int ejectAfter;
+    private final long ejectNanos;
+
+    private int next;
+    private long ejections;
+
+    NodeSelector(Map<String, Client> clients, long timeoutMillis, int ejectAfter, long ejectMillis) {
+        if (clients.isEmpty()) {
+            throw new IllegalArgumentException("No nodes to select from");
+        }
+        List<Target> targets = new ArrayList<Target>();
+        for (Map.Entry<String, Client> entry : clients.entrySet()) {
+            targets.add(new Target(entry.getKey(), entry.getValue()));
+        }
+        this.targets = Collections.unmodifiableList(targets);
+        this.timeoutNanos = timeoutMillis * 1000000;
+        this.ejectAfter = ejectAfter;
+        this.ejectNanos = ejectMillis * 1000000;
+    }
+
+    /**
+     * Picks the node for a request about to be sent at now (from System.nanoTime()), counting the request as in flight
+     * to it until onResponse() is called.
+     */
+    synchronized Target select(long now) {
+        Target best = null;
+        Target soonestBack = null;
+        for (int i = 0; i < targets.size(); i++) {
+            Target target = targets.get((next + i) % targets.size());
+            if (target.isEjected(now)) {
+                if (soonestBack == null || target.ejectedUntil - soonestBack.ejectedUntil < 0) {
+                    soonestBack = target;
+                }
+            } else if (best == null || target.inFlight < best.inFlight
+                    || (target.inFlight == best.inFlight && target.latencyNanos < best.latencyNanos)) {
+                best = target;
+            }
+        }
+        if (best == null) {
+            best = soonestBack;
+        }
+        next = (targets.indexOf(best) + 1) % targets.size();
+        best.inFlight++;
+        return best;
+    }
+
+    /**
+     * Records the response to a request sent to the target, which took latencyNanos and was received at now.
+     * NodeFailed is true if the node couldn't be reached or didn't answer, rather than answering with an error.
+     */
+    synchronized void onResponse(Target target, long latencyNanos, boolean nodeFailed, long now) {
+        target.inFlight--;
+        if (!nodeFailed) {
+            target.latencyNanos = target.latencyNanos == 0 ? latencyNanos
+                    : (long) (target.latencyNanos + (latencyNanos - target.latencyNanos) * LATENCY_WEIGHT);
+        }
+        if (!nodeFailed && latencyNanos <= timeoutNanos) {
+            target.strikes = 0;
+            return;
+        }
+        if (++target.strikes >= ejectAfter && !target.isEjected(now)) {
+            LOG.warn("Ejecting ES node: {} for {}ms after {} slow or failed requests in a row",
+                    new Object[]{target.name, ejectNanos / 1000000, target.strikes});
+            target.ejected = true;
+            target.ejectedUntil = now + ejectNanos;
+            // Forgotten so the node is tried first when it's back, rather than passed over for how slow it was
+            target.latencyNanos = 0;
+            ejections++;
+        }
+    }
+
+    List<Target> getTargets() {
+        return targets;
+    }
+
+    synchronized void report(ReportEvent event, long now) {
+        event.setLongMetric(NO_OF_NODE_EJECTIONS, ejections);
+        for (Target target : targets) {
+            event.setLongMetric("NODE_" + target.name + "_IN_FLIGHT_REQUESTS", target.inFlight);
+            event.setLongMetric("NODE_" + target.name + "_LATENCY_US", target.latencyNanos / 1000);
+            event.setLongMetric("NODE_" + target.name + "_EJECTED", target.isEjected(now) ? 1 : 0);
+        }
+    }
+
+    /**
+     * A node that can be selected, its fields guarded by the selector's lock.
+     */
+    static final class Target {
+        private final String name;
+        private final Client client;
+        private int inFlight;
+        private long latencyNanos;
+        private int strikes;
+        private long ejectedUntil;
+        private boolean ejected;
+
+        private Target(String name, Client client) {
+            this.name = name;
+            this.client = client;
+        }
+
+        String getName() {
+            return name;
+        }
+
+        Client getClient() {
+            return client;
+        }
+
+        private boolean isEjected(long now) {
+            return ejected && now - ejectedUntil < 0;
+        }
+    }
+}
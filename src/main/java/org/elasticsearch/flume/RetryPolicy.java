@@ -0,0 +1,50 @@
+package org.elasticsearch.flume;
+
+import java.util.Random;
+
+/**
+ * How many times a request that failed with a retryable error is sent, and how long to back off between attempts.
+ * The backoff doubles from initialBackoffMillis up to maxBackoffMillis, and a random fraction of up to jitter of it is
+ * taken off so sinks that failed together don't all retry together.
+ */
+final class RetryPolicy {
+
+    private final int maxAttempts;
+    private final long initialBackoffMillis;
+    private final long maxBackoffMillis;
+    private final double jitter;
+    private final Random random;
+
+    RetryPolicy(int maxAttempts, long initialBackoffMillis, long maxBackoffMillis, double jitter, Random random) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("maxAttempts must be at least 1: " + maxAttempts);
+        }
+        if (jitter < 0 || jitter > 1) {
+            throw new IllegalArgumentException("jitter must be between 0 and 1: " + jitter);
+        }
+        this.maxAttempts = maxAttempts;
+        this.initialBackoffMillis = initialBackoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+        this.jitter = jitter;
+        this.random = random;
+    }
+
+    boolean isEnabled() {
+        return maxAttempts > 1;
+    }
+
+    /**
+     * Whether another attempt may be made after the given number of attempts have failed.
+     */
+    boolean canRetry(int attempts) {
+        return attempts < maxAttempts;
+    }
+
+    /**
+     * How long to wait before the next attempt, after the given number of attempts have failed.
+     */
+    long backoffMillis(int attempts) {
+        double backoff = Math.min(maxBackoffMillis, initialBackoffMillis * Math.pow(2, attempts - 1));
+        return (long) (backoff * (1 - jitter * random.nextDouble()));
+    }
+}
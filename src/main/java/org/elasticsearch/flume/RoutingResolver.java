@@ -0,0 +1,64 @@
+package org.elasticsearch.flume;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.cloudera.flume.core.Event;
+
+/**
+ * Resolves the routing expression into a routing value for each event, so documents with the same value go to the
+ * same shard and searches for it only have to hit that shard.
+ * <p/>
+ * The expression uses the escapes understood by Event.escapeString(), for example %{host} or %{app} for an attribute.
+ * Expressions that are just the host or a single attribute are looked up directly rather than through
+ * escapeString(), as they are resolved for every event.  Events that resolve to an empty value are not routed.
+ */
+class RoutingResolver {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final Pattern SINGLE_ESCAPE = Pattern.compile("\\%\\{([\\w\\.-]+)\\}");
+    // Escapes escapeString() resolves to something other than an attribute
+    private static final Set<String> FIELDS = new HashSet<String>(
+            Arrays.asList("host", "hostname", "nanos", "priority", "body", "timestamp"));
+
+    private final String expression;
+    private final String attribute;
+    private final boolean host;
+
+    private RoutingResolver(String expression, String attribute, boolean host) {
+        this.expression = expression;
+        this.attribute = attribute;
+        this.host = host;
+    }
+
+    static RoutingResolver compile(String expression) {
+        Matcher matcher = SINGLE_ESCAPE.matcher(expression);
+        if (matcher.matches()) {
+            String name = matcher.group(1);
+            if (name.equals("host")) {
+                return new RoutingResolver(expression, null, true);
+            }
+            if (!FIELDS.contains(name)) {
+                return new RoutingResolver(expression, name, false);
+            }
+        }
+        return new RoutingResolver(expression, null, false);
+    }
+
+    String resolve(Event e) {
+        String routing;
+        if (host) {
+            routing = e.getHost();
+        } else if (attribute != null) {
+            byte[] value = e.get(attribute);
+            routing = value == null ? null : new String(value, UTF_8);
+        } else {
+            routing = e.escapeString(expression);
+        }
+        return routing == null || routing.length() == 0 ? null : routing;
+    }
+}
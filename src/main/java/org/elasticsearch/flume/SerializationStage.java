@@ -0,0 +1,139 @@
+package org.elasticsearch.flume;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import com.cloudera.flume.core.Event;
+import com.cloudera.flume.core.EventImpl;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Hands events from append() to a pool of worker threads, so documents are built on as many cores as there are
+ * workers rather than only on the thread driving the sink.  Submitting blocks while the queue is full, which pushes
+ * back on the driver the same way a slow append() would.
+ * <p/>
+ * Workers take events from one shared queue, so there is no ordering between them.  When ordered, each worker has a
+ * queue of its own and events with the same key always go to the same worker, keeping them in order relative to each
+ * other.
+ */
+final class SerializationStage {
+
+    /**
+     * Builds and indexes an event on a worker thread.
+     */
+    interface Processor {
+        void process(Event event);
+    }
+
+    private static final Logger LOG = LoggerFactory.getLogger(SerializationStage.class);
+    // Tells a worker to stop once it reaches it, so everything submitted before close() is processed
+    private static final Event STOP = new EventImpl(new byte[0]);
+
+    private final Processor processor;
+    private final boolean ordered;
+    private final List<BlockingQueue<Event>> queues = new ArrayList<BlockingQueue<Event>>();
+    private final List<Thread> workers = new ArrayList<Thread>();
+
+    SerializationStage(int threads, int queueSize, boolean ordered, Processor processor) {
+        this.processor = processor;
+        this.ordered = ordered;
+        int queueCount = ordered ? threads : 1;
+        for (int i = 0; i < queueCount; i++) {
+            queues.add(new ArrayBlockingQueue<Event>(Math.max(1, queueSize / queueCount)));
+        }
+        for (int i = 0; i < threads; i++) {
+            Thread worker = new Thread(new Worker(queues.get(ordered ? i : 0)), "elasticflume-serializer-" + i);
+            worker.setDaemon(true);
+            workers.add(worker);
+        }
+    }
+
+    void start() {
+        for (Thread worker : workers) {
+            worker.start();
+        }
+    }
+
+    /**
+     * Queues the event, blocking while the queue is full.  The key is only used when ordered.
+     */
+    void submit(Event event, String key) throws InterruptedException {
+        BlockingQueue<Event> queue = queues.get(0);
+        if (ordered) {
+            queue = queues.get((key.hashCode() & Integer.MAX_VALUE) % queues.size());
+        }
+        queue.put(event);
+    }
+
+    int getQueueDepth() {
+        int depth = 0;
+        for (BlockingQueue<Event> queue : queues) {
+            depth += queue.size();
+        }
+        return depth;
+    }
+
+    /**
+     * Waits for the events already submitted to be processed, then stops the workers, giving up and interrupting them
+     * after timeoutMillis.  Returns the number of events dropped for still being queued when it gave up.
+     */
+    int close(long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        for (int i = 0; i < workers.size(); i++) {
+            // Offered rather than put, so a full queue behind a stuck worker can't hold close() past the timeout
+            if (!queues.get(ordered ? i : 0).offer(STOP, Math.max(0, deadline - System.currentTimeMillis()),
+                    TimeUnit.MILLISECONDS)) {
+                LOG.warn("Timed out after {}ms waiting for room to stop {}", timeoutMillis, workers.get(i).getName());
+            }
+        }
+        for (Thread worker : workers) {
+            worker.join(Math.max(1, deadline - System.currentTimeMillis()));
+            if (worker.isAlive()) {
+                LOG.warn("Timed out after {}ms waiting for {} to finish", timeoutMillis, worker.getName());
+                worker.interrupt();
+            }
+        }
+
+        List<Event> left = new ArrayList<Event>();
+        for (BlockingQueue<Event> queue : queues) {
+            queue.drainTo(left);
+        }
+        int dropped = 0;
+        for (Event event : left) {
+            if (event != STOP) {
+                dropped++;
+            }
+        }
+        if (dropped > 0) {
+            LOG.error("Dropped {} events still waiting for a serialization thread on close", dropped);
+        }
+        return dropped;
+    }
+
+    private class Worker implements Runnable {
+        private final BlockingQueue<Event> queue;
+
+        Worker(BlockingQueue<Event> queue) {
+            this.queue = queue;
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    Event event = queue.take();
+                    if (event == STOP) {
+                        return;
+                    }
+                    processor.process(event);
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
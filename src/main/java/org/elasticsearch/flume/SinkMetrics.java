@@ -0,0 +1,61 @@
+package org.elasticsearch.flume;
+
+import com.cloudera.flume.reporter.ReportEvent;
+
+/**
+ * The counters and latency histograms ElasticSearchSink updates on its hot path.  Everything here is lock free and
+ * cheap to update from many threads, so reporting never has to block appending.
+ */
+class SinkMetrics {
+
+    static final String NO_OF_APPENDED_EVENTS = "NO_OF_APPENDED_EVENTS";
+    static final String NO_OF_INDEXED_EVENTS = "NO_OF_INDEXED_EVENTS";
+    static final String NO_OF_FAILED_EVENTS = "NO_OF_FAILED_EVENTS";
+    static final String NO_OF_SERIALIZED_BYTES = "NO_OF_SERIALIZED_BYTES";
+    static final String NO_OF_SPILLED_EVENTS = "NO_OF_SPILLED_EVENTS";
+    static final String NO_OF_REPLAYED_EVENTS = "NO_OF_REPLAYED_EVENTS";
+    static final String NO_OF_RETRIED_EVENTS = "NO_OF_RETRIED_EVENTS";
+    static final String NO_OF_GAVE_UP_EVENTS = "NO_OF_GAVE_UP_EVENTS";
+    static final String NO_OF_DUPLICATE_EVENTS = "NO_OF_DUPLICATE_EVENTS";
+    static final String SERIALIZATION_LATENCY = "SERIALIZATION_LATENCY_US";
+    static final String INDEX_LATENCY = "INDEX_LATENCY_US";
+
+    final StripedCounter appendedEvents = new StripedCounter();
+    final StripedCounter indexedEvents = new StripedCounter();
+    final StripedCounter failedEvents = new StripedCounter();
+    final StripedCounter serializedBytes = new StripedCounter();
+    final StripedCounter spilledEvents = new StripedCounter();
+    final StripedCounter replayedEvents = new StripedCounter();
+    final StripedCounter retriedEvents = new StripedCounter();
+    final StripedCounter gaveUpEvents = new StripedCounter();
+    final StripedCounter duplicateEvents = new StripedCounter();
+    final LatencyHistogram serializationLatency = new LatencyHistogram();
+    final LatencyHistogram indexLatency = new LatencyHistogram();
+
+    void report(ReportEvent event) {
+        event.setLongMetric(NO_OF_APPENDED_EVENTS, appendedEvents.sum());
+        event.setLongMetric(NO_OF_INDEXED_EVENTS, indexedEvents.sum());
+        event.setLongMetric(NO_OF_FAILED_EVENTS, failedEvents.sum());
+        event.setLongMetric(NO_OF_SERIALIZED_BYTES, serializedBytes.sum());
+        event.setLongMetric(NO_OF_SPILLED_EVENTS, spilledEvents.sum());
+        event.setLongMetric(NO_OF_REPLAYED_EVENTS, replayedEvents.sum());
+        event.setLongMetric(NO_OF_RETRIED_EVENTS, retriedEvents.sum());
+        event.setLongMetric(NO_OF_GAVE_UP_EVENTS, gaveUpEvents.sum());
+        event.setLongMetric(NO_OF_DUPLICATE_EVENTS, duplicateEvents.sum());
+        report(event, SERIALIZATION_LATENCY, serializationLatency);
+        report(event, INDEX_LATENCY, indexLatency);
+    }
+
+    /**
+     * Reports a histogram as NAME_COUNT, of everything recorded like the other counters, and NAME_MEAN, NAME_P50,
+     * NAME_P99 and NAME_P999 of what was recorded since the previous report, which starts the next interval.
+     */
+    private static void report(ReportEvent event, String name, LatencyHistogram histogram) {
+        LatencyHistogram.Interval interval = histogram.takeInterval();
+        event.setLongMetric(name + "_COUNT", histogram.getCount());
+        event.setLongMetric(name + "_MEAN", interval.getMean());
+        event.setLongMetric(name + "_P50", interval.getPercentile(0.50));
+        event.setLongMetric(name + "_P99", interval.getPercentile(0.99));
+        event.setLongMetric(name + "_P999", interval.getPercentile(0.999));
+    }
+}
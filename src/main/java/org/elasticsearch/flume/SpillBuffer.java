@@ -0,0 +1,344 @@
+package org.elasticsearch.flume;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A local write ahead buffer of serialized documents, kept in append only segment files, for documents that couldn't
+ * be indexed because ElasticSearch was unavailable or falling behind.
+ * <p/>
+ * Documents are read back in the order they were spilled, and a segment is deleted once every document in it has
+ * been acknowledged.  Several batches can be read before the first is acknowledged, so they can be replayed at once,
+ * and batches can be acknowledged in any order.  Segments left over from a previous run are picked up again on open(),
+ * with any documents that were read but not acknowledged.  Each record carries a checksum, so a corrupt record is
+ * skipped rather than replayed as garbage, and a record torn by a crash ends its segment.  Both are counted as lost.
+ */
+class SpillBuffer {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SpillBuffer.class);
+    private static final String SEGMENT_PREFIX = "spill-";
+    private static final String SEGMENT_SUFFIX = ".seg";
+
+    private final File directory;
+    private final long maxBytes;
+    private final long segmentBytes;
+
+    // Oldest first, the last one is being written to if writer is not null
+    private final LinkedList<File> segments = new LinkedList<File>();
+    private long nextSegment;
+    private DataOutputStream writer;
+    private long writerBytes;
+    private long bytes;
+
+    // Segments at the front of segments that have been read to the end, and how far into the next one has been read
+    private int readSegments;
+    private long readOffset;
+    // Read but not yet acknowledged, oldest first
+    private final LinkedList<Batch> unacked = new LinkedList<Batch>();
+
+    // Records that were corrupt or torn, and the bytes of segment skipped because of them
+    private long lostRecords;
+    private long lostBytes;
+
+    SpillBuffer(File directory, long maxBytes, long segmentBytes) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        this.segmentBytes = segmentBytes;
+    }
+
+    synchronized void open() throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create spill directory " + directory);
+        }
+        File[] existing = directory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+            }
+        });
+        Arrays.sort(existing);
+        for (File segment : existing) {
+            segments.add(segment);
+            bytes += segment.length();
+            nextSegment = Math.max(nextSegment, sequenceOf(segment) + 1);
+        }
+        if (!segments.isEmpty()) {
+            LOG.info("Found {} spilled segments ({} bytes) in {} to replay", new Object[]{segments.size(), bytes, directory});
+        }
+    }
+
+    /**
+     * Appends a document, returning false without writing it if that would take the buffer over maxBytes.  The id is
+     * null for documents ElasticSearch generates an id for, and the routing null for documents without routing.
+     */
+    synchronized boolean spill(String index, String type, String id, String routing, byte[] source)
+            throws IOException {
+        byte[] indexBytes = index.getBytes("UTF-8");
+        byte[] typeBytes = type.getBytes("UTF-8");
+        byte[] idBytes = toBytes(id);
+        byte[] routingBytes = toBytes(routing);
+        long recordBytes = 4 + indexBytes.length + 4 + typeBytes.length + 4 + idBytes.length + 4 + routingBytes.length
+                + 4 + source.length + 8;
+        if (bytes + recordBytes > maxBytes) {
+            return false;
+        }
+        if (writer == null || writerBytes >= segmentBytes) {
+            roll();
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(indexBytes);
+        crc.update(typeBytes);
+        crc.update(idBytes);
+        crc.update(routingBytes);
+        crc.update(source);
+        writeBytes(indexBytes);
+        writeBytes(typeBytes);
+        writeBytes(idBytes);
+        writeBytes(routingBytes);
+        writeBytes(source);
+        writer.writeLong(crc.getValue());
+        // Hand the record to the OS so it survives the process dying
+        writer.flush();
+
+        writerBytes += recordBytes;
+        bytes += recordBytes;
+        return true;
+    }
+
+    private static byte[] toBytes(String value) throws IOException {
+        return value == null ? new byte[0] : value.getBytes("UTF-8");
+    }
+
+    private static String toString(byte[] data) throws IOException {
+        return data.length == 0 ? null : new String(data, "UTF-8");
+    }
+
+    private void writeBytes(byte[] data) throws IOException {
+        writer.writeInt(data.length);
+        writer.write(data);
+    }
+
+    private void roll() throws IOException {
+        closeWriter();
+        File segment = new File(directory, String.format("%s%020d%s", SEGMENT_PREFIX, nextSegment++, SEGMENT_SUFFIX));
+        writer = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(segment)));
+        writerBytes = 0;
+        segments.add(segment);
+    }
+
+    private void closeWriter() throws IOException {
+        if (writer != null) {
+            writer.close();
+            writer = null;
+        }
+    }
+
+    /**
+     * Reads up to max of the oldest documents not yet read.  Every batch read, even an empty one, must be acknowledged
+     * with ack() once its documents have been dealt with, otherwise they are read again the next time the buffer is
+     * opened.
+     */
+    synchronized Batch read(int max) throws IOException {
+        Batch batch = new Batch();
+        if (readSegments >= segments.size()) {
+            return batch;
+        }
+        File segment = segments.get(readSegments);
+        if (readSegments == segments.size() - 1 && writer != null) {
+            // Only the segment being written to is left to read, start a new one so it can be read and deleted
+            closeWriter();
+        }
+
+        long length = segment.length();
+        long offset = readOffset;
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(segment)));
+        try {
+            skipFully(in, offset);
+            while (batch.records.size() < max && offset < length) {
+                Record record;
+                try {
+                    record = readRecord(in);
+                } catch (EOFException ex) {
+                    // Torn by a crash, or its lengths are corrupt, so nothing after it in the segment can be found
+                    LOG.error("Skipping the last {} bytes of spilled segment {}, found a torn or unreadable record, at "
+                            + "least 1 spilled document lost", length - offset, segment);
+                    lostRecords++;
+                    lostBytes += length - offset;
+                    offset = length;
+                    break;
+                }
+                offset += record.length;
+                if (record.source == null) {
+                    LOG.error("Skipping corrupt record at offset {} of spilled segment {}, 1 spilled document lost",
+                            offset - record.length, segment);
+                    lostRecords++;
+                    lostBytes += record.length;
+                    continue;
+                }
+                batch.records.add(record);
+            }
+        } finally {
+            in.close();
+        }
+
+        batch.endOfSegment = offset >= length;
+        if (batch.endOfSegment) {
+            readSegments++;
+            readOffset = 0;
+        } else {
+            readOffset = offset;
+        }
+        unacked.add(batch);
+        return batch;
+    }
+
+    /**
+     * Returns the next record, with a null source if its checksum doesn't match, or throws EOFException if there isn't
+     * a whole record left.
+     */
+    private Record readRecord(DataInputStream in) throws IOException {
+        byte[] index = readBytes(in);
+        byte[] type = readBytes(in);
+        byte[] id = readBytes(in);
+        byte[] routing = readBytes(in);
+        byte[] source = readBytes(in);
+        long expected = in.readLong();
+        long length = 4 + index.length + 4 + type.length + 4 + id.length + 4 + routing.length + 4 + source.length + 8;
+
+        CRC32 crc = new CRC32();
+        crc.update(index);
+        crc.update(type);
+        crc.update(id);
+        crc.update(routing);
+        crc.update(source);
+        if (crc.getValue() != expected) {
+            return new Record(null, null, null, null, null, length);
+        }
+        return new Record(new String(index, "UTF-8"), new String(type, "UTF-8"), toString(id), toString(routing),
+                source, length);
+    }
+
+    private byte[] readBytes(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > maxBytes) {
+            throw new EOFException("Invalid record length " + length);
+        }
+        byte[] data = new byte[length];
+        in.readFully(data);
+        return data;
+    }
+
+    private static void skipFully(DataInputStream in, long count) throws IOException {
+        while (count > 0) {
+            long skipped = in.skip(count);
+            if (skipped <= 0) {
+                throw new EOFException("Spilled segment is shorter than its read offset");
+            }
+            count -= skipped;
+        }
+    }
+
+    /**
+     * Marks the documents in the batch as dealt with, deleting a segment once every batch read from it has been
+     * acknowledged.
+     */
+    synchronized void ack(Batch batch) {
+        if (!unacked.contains(batch)) {
+            return;
+        }
+        batch.acked = true;
+        while (!unacked.isEmpty() && unacked.getFirst().acked) {
+            Batch done = unacked.removeFirst();
+            if (done.endOfSegment) {
+                File segment = segments.removeFirst();
+                readSegments--;
+                bytes -= segment.length();
+                if (!segment.delete()) {
+                    LOG.warn("Unable to delete replayed spill segment {}", segment);
+                }
+            }
+        }
+    }
+
+    /**
+     * Whether there are documents that haven't been read yet.
+     */
+    synchronized boolean hasUnread() {
+        if (readSegments >= segments.size()) {
+            return false;
+        }
+        // A segment no longer being written to is only finished with once a read has reached its end
+        return readSegments < segments.size() - 1 || writer == null
+                || segments.get(readSegments).length() > readOffset;
+    }
+
+    synchronized boolean isEmpty() {
+        return segments.isEmpty();
+    }
+
+    synchronized long getBytes() {
+        return bytes;
+    }
+
+    synchronized long getLostRecords() {
+        return lostRecords;
+    }
+
+    synchronized long getLostBytes() {
+        return lostBytes;
+    }
+
+    synchronized void close() throws IOException {
+        closeWriter();
+    }
+
+    private static long sequenceOf(File segment) {
+        String name = segment.getName();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    static class Record {
+        final String index;
+        final String type;
+        final String id;
+        final String routing;
+        final byte[] source;
+        private final long length;
+
+        Record(String index, String type, String id, String routing, byte[] source, long length) {
+            this.index = index;
+            this.type = type;
+            this.id = id;
+            this.routing = routing;
+            this.source = source;
+            this.length = length;
+        }
+    }
+
+    static class Batch {
+        final List<Record> records = new ArrayList<Record>();
+        private boolean endOfSegment;
+        private boolean acked;
+
+        boolean isEmpty() {
+            return records.isEmpty();
+        }
+    }
+}
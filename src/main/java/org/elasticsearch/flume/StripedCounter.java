@@ -0,0 +1,49 @@
+package org.elasticsearch.flume;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter that spreads updates from different threads over separate cells, so threads appending events don't all
+ * contend on one AtomicLong.  Reading sums the cells, so it is meant for counters that are updated far more often
+ * than they are read, like the sink's metrics.
+ */
+class StripedCounter {
+
+    private static final int STRIPES = 16;
+    // Cells are 8 longs (64 bytes) apart so that they don't share a cache line
+    private static final int PADDING = 8;
+
+    private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PADDING);
+
+    void increment() {
+        add(1);
+    }
+
+    void add(long delta) {
+        cells.addAndGet(cellIndex(), delta);
+    }
+
+    long sum() {
+        long sum = 0;
+        for (int i = 0; i < STRIPES; i++) {
+            sum += cells.get(i * PADDING);
+        }
+        return sum;
+    }
+
+    /**
+     * Returns the sum and sets the counter back to 0.  Each update made meanwhile is either in the sum returned or
+     * left in the counter, never lost.
+     */
+    long sumThenReset() {
+        long sum = 0;
+        for (int i = 0; i < STRIPES; i++) {
+            sum += cells.getAndSet(i * PADDING, 0);
+        }
+        return sum;
+    }
+
+    private static int cellIndex() {
+        return ((int) Thread.currentThread().getId() & (STRIPES - 1)) * PADDING;
+    }
+}
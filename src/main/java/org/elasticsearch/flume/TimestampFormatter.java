@@ -0,0 +1,62 @@
+package org.elasticsearch.flume;
+
+/**
+ * Formats timestamps the way ElasticSearch prints dates by default (yyyy-MM-dd'T'HH:mm:ss.SSS'Z', in UTC), writing
+ * straight into a caller supplied buffer instead of going through Date and a formatted String.
+ */
+final class TimestampFormatter {
+
+    static final int LENGTH = 24;
+
+    private static final long MILLIS_PER_DAY = 86400000L;
+
+    private TimestampFormatter() {
+    }
+
+    /**
+     * Writes the timestamp into buffer, which must have room for LENGTH chars, and returns the number of chars written.
+     */
+    static int format(long millis, char[] buffer) {
+        long days = millis / MILLIS_PER_DAY;
+        long millisOfDay = millis % MILLIS_PER_DAY;
+        if (millisOfDay < 0) {
+            days--;
+            millisOfDay += MILLIS_PER_DAY;
+        }
+
+        // Civil date from days since the epoch, see http://howardhinnant.github.io/date_algorithms.html
+        days += 719468;
+        long era = (days >= 0 ? days : days - 146096) / 146097;
+        long dayOfEra = days - era * 146097;
+        long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        long shiftedMonth = (5 * dayOfYear + 2) / 153;
+        int day = (int) (dayOfYear - (153 * shiftedMonth + 2) / 5 + 1);
+        int month = (int) (shiftedMonth < 10 ? shiftedMonth + 3 : shiftedMonth - 9);
+        int year = (int) (yearOfEra + era * 400 + (month <= 2 ? 1 : 0));
+
+        int time = (int) millisOfDay;
+        write(buffer, 0, year, 4);
+        buffer[4] = '-';
+        write(buffer, 5, month, 2);
+        buffer[7] = '-';
+        write(buffer, 8, day, 2);
+        buffer[10] = 'T';
+        write(buffer, 11, time / 3600000, 2);
+        buffer[13] = ':';
+        write(buffer, 14, (time / 60000) % 60, 2);
+        buffer[16] = ':';
+        write(buffer, 17, (time / 1000) % 60, 2);
+        buffer[19] = '.';
+        write(buffer, 20, time % 1000, 3);
+        buffer[23] = 'Z';
+        return LENGTH;
+    }
+
+    private static void write(char[] buffer, int offset, int value, int digits) {
+        for (int i = offset + digits - 1; i >= offset; i--) {
+            buffer[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+    }
+}
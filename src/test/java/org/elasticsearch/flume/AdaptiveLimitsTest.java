@@ -0,0 +1,87 @@
+package org.elasticsearch.flume;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class AdaptiveLimitsTest {
+
+    private static final long MILLIS = 1000000;
+
+    @Test
+    public void testThatFastResponsesGrowTheLimitsAdditively() {
+        AdaptiveLimits limits = new AdaptiveLimits(100, 10, 1000, 100, 1, 4);
+        limits.onResponse(100 * MILLIS, false, 0);
+        assertEquals(110, limits.getBatchSize());
+        assertEquals(4, limits.getInFlightRequests());
+
+        for (int i = 0; i < 1000; i++) {
+            limits.onResponse(MILLIS, false, i * MILLIS);
+        }
+        assertEquals(1000, limits.getBatchSize());
+        assertEquals(4, limits.getInFlightRequests());
+    }
+
+    @Test
+    public void testThatSlowResponsesHalveTheLimits() {
+        AdaptiveLimits limits = new AdaptiveLimits(100, 10, 1000, 100, 1, 4);
+        limits.onResponse(101 * MILLIS, false, 0);
+        assertEquals(50, limits.getBatchSize());
+        assertEquals(2, limits.getInFlightRequests());
+
+        // The responses of requests sent before the decrease don't decrease the limits again
+        limits.onResponse(500 * MILLIS, false, 50 * MILLIS);
+        assertEquals(50, limits.getBatchSize());
+
+        limits.onResponse(500 * MILLIS, false, 100 * MILLIS);
+        assertEquals(25, limits.getBatchSize());
+        assertEquals(1, limits.getInFlightRequests());
+
+        for (int i = 0; i < 10; i++) {
+            limits.onResponse(500 * MILLIS, false, (i + 2) * 100 * MILLIS);
+        }
+        assertEquals(10, limits.getBatchSize());
+        assertEquals(1, limits.getInFlightRequests());
+    }
+
+    @Test
+    public void testThatRejectionsHalveTheLimits() {
+        AdaptiveLimits limits = new AdaptiveLimits(100, 10, 1000, 100, 1, 4);
+        limits.onResponse(MILLIS, true, 0);
+        assertEquals(50, limits.getBatchSize());
+        assertEquals(2, limits.getInFlightRequests());
+    }
+
+    @Test
+    public void testThatInFlightRequestsGrowByOnePerWindow() {
+        AdaptiveLimits limits = new AdaptiveLimits(100, 10, 1000, 100, 1, 4);
+        limits.onResponse(MILLIS, true, 0);
+        assertEquals(2, limits.getInFlightRequests());
+
+        limits.onResponse(MILLIS, false, MILLIS);
+        assertEquals(2, limits.getInFlightRequests());
+        limits.onResponse(MILLIS, false, MILLIS);
+        assertEquals(3, limits.getInFlightRequests());
+        for (int i = 0; i < 3; i++) {
+            limits.onResponse(MILLIS, false, MILLIS);
+        }
+        assertEquals(4, limits.getInFlightRequests());
+    }
+
+    @Test
+    public void testThatInFlightRequestsGrowFromTheirStartToTheirUpperBound() {
+        AdaptiveLimits limits = new AdaptiveLimits(100, 10, 1000, 100, 1, 6, 4);
+        assertEquals(4, limits.getInFlightRequests());
+        for (int i = 0; i < 100; i++) {
+            limits.onResponse(MILLIS, false, MILLIS);
+        }
+        assertEquals(6, limits.getInFlightRequests());
+        assertEquals(6, new AdaptiveLimits(100, 10, 1000, 100, 1, 6, 10).getInFlightRequests());
+    }
+
+    @Test
+    public void testThatInitialBatchSizeIsKeptWithinBounds() {
+        assertEquals(1000, new AdaptiveLimits(100, 10, 1000, 5000, 1, 4).getBatchSize());
+        assertEquals(10, new AdaptiveLimits(100, 10, 1000, 1, 1, 4).getBatchSize());
+    }
+}
@@ -0,0 +1,81 @@
+package org.elasticsearch.flume;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Collections;
+import java.util.Map;
+
+import org.elasticsearch.common.xcontent.XContentType;
+import org.junit.Test;
+
+public class AttributeTypesTest {
+
+    private static final byte[] TEXT = "text".getBytes();
+    private static final byte[] JSON = "{\"a\":1}".getBytes();
+    private static final byte[] INDENTED_JSON = "\n  {\"a\":1}".getBytes();
+    // Only found to be JSON by scanning past the text before it
+    private static final byte[] EMBEDDED_JSON = "a {\"a\":1}".getBytes();
+
+    @Test
+    public void testThatDeclaredTypesAreUsed() {
+        AttributeTypes types = new AttributeTypes(AttributeTypes.parse("app:text, payload:JSON"), 10);
+        assertNull(types.contentType("app", JSON));
+        assertEquals(XContentType.JSON, types.contentType("payload", TEXT));
+        assertEquals(XContentType.JSON, types.contentType("other", JSON));
+        assertEquals(1, types.getLearned());
+    }
+
+    @Test
+    public void testThatUnlearnedAttributesAreSniffed() {
+        AttributeTypes types = new AttributeTypes(noneDeclared(), 10);
+        for (int i = 0; i < AttributeTypes.LEARN_AFTER - 1; i++) {
+            assertNull(types.contentType("app", TEXT));
+        }
+        assertEquals(XContentType.JSON, types.contentType("app", JSON));
+    }
+
+    @Test
+    public void testThatLearnedTextAttributesStillCheckEveryValue() {
+        AttributeTypes types = new AttributeTypes(noneDeclared(), 10);
+        for (int i = 0; i < AttributeTypes.LEARN_AFTER; i++) {
+            assertNull(types.contentType("app", TEXT));
+        }
+        // Only the start of each value is checked once learned, which finds JSON whether it is indented or not
+        assertEquals(XContentType.JSON, types.contentType("app", INDENTED_JSON));
+        assertNull(types.contentType("app", TEXT));
+        // Back to sniffing every value in full
+        assertEquals(XContentType.JSON, types.contentType("app", EMBEDDED_JSON));
+    }
+
+    @Test
+    public void testThatLeadingBytesGiveAwayContentType() {
+        assertEquals(XContentType.JSON, AttributeTypes.leadingContentType(JSON));
+        assertEquals(XContentType.SMILE, AttributeTypes.leadingContentType(":)\n\u0000{".getBytes()));
+        assertNull(AttributeTypes.leadingContentType(TEXT));
+        assertEquals(XContentType.JSON, AttributeTypes.leadingContentType(INDENTED_JSON));
+        assertNull(AttributeTypes.leadingContentType(EMBEDDED_JSON));
+        assertNull(AttributeTypes.leadingContentType("  ".getBytes()));
+        assertNull(AttributeTypes.leadingContentType(new byte[0]));
+    }
+
+    @Test
+    public void testThatAttributesBeyondMaxKeysAreAlwaysSniffed() {
+        AttributeTypes types = new AttributeTypes(noneDeclared(), 1);
+        types.contentType("app", TEXT);
+        for (int i = 0; i < AttributeTypes.LEARN_AFTER; i++) {
+            assertNull(types.contentType("other", TEXT));
+        }
+        assertEquals(XContentType.JSON, types.contentType("other", JSON));
+        assertEquals(1, types.getLearned());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testThatUnknownTypesAreRejected() {
+        AttributeTypes.parse("app:xml");
+    }
+
+    private static Map<String, AttributeTypes.Type> noneDeclared() {
+        return Collections.emptyMap();
+    }
+}
@@ -0,0 +1,92 @@
+package org.elasticsearch.flume;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.transport.InetSocketTransportAddress;
+import org.junit.Test;
+
+public class ClientRegistryTest {
+
+    private final ClientRegistry registry = new ClientRegistry();
+
+    @Test
+    public void testThatSameClusterSharesClient() {
+        Client first = registry.acquire("test", new String[0], true);
+        Client second = registry.acquire("test", new String[0], true);
+
+        assertSame(first, second);
+        assertEquals(2, registry.getReferences(first));
+        registry.release(first);
+        registry.release(second);
+    }
+
+    @Test
+    public void testThatHostOrderDoesNotMatter() {
+        Client first = registry.acquire("test", new String[]{"localhost", "127.0.0.1"}, false);
+        Client second = registry.acquire("test", new String[]{"127.0.0.1", "localhost"}, false);
+
+        assertSame(first, second);
+        registry.release(first);
+        registry.release(second);
+    }
+
+    @Test
+    public void testThatDifferentClustersGetDifferentClients() {
+        Client first = registry.acquire("test", new String[0], true);
+        Client second = registry.acquire("other", new String[0], true);
+
+        assertNotSame(first, second);
+        registry.release(first);
+        registry.release(second);
+    }
+
+    @Test
+    public void testThatClientIsClosedWhenLastReferenceIsReleased() {
+        Client first = registry.acquire("test", new String[0], true);
+        Client second = registry.acquire("test", new String[0], true);
+
+        registry.release(first);
+        assertEquals(1, registry.getReferences(second));
+        registry.release(second);
+        assertEquals(0, registry.getReferences(second));
+
+        Client third = registry.acquire("test", new String[0], true);
+        assertNotSame(first, third);
+        registry.release(third);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testThatReleasingUnknownClientFails() {
+        Client client = registry.acquire("test", new String[0], true);
+        registry.release(client);
+        registry.release(client);
+    }
+
+    @Test
+    public void testThatHostNamesWithoutPortUseDefaultPort() {
+        assertEquals(9300, ClientRegistry.address("localhost").address().getPort());
+        assertEquals(9300, ClientRegistry.address("[::1]").address().getPort());
+        assertEquals(9300, ClientRegistry.address("::1").address().getPort());
+    }
+
+    @Test
+    public void testThatHostNamesWithPortAreParsed() {
+        InetSocketTransportAddress address = ClientRegistry.address(" localhost:9301 ");
+        assertEquals("localhost", address.address().getHostName());
+        assertEquals(9301, address.address().getPort());
+        assertEquals(9302, ClientRegistry.address("[::1]:9302").address().getPort());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testThatInvalidPortFails() {
+        ClientRegistry.address("localhost:http");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testThatMissingHostFails() {
+        ClientRegistry.address(":9301");
+    }
+}
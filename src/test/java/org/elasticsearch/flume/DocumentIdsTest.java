@@ -0,0 +1,48 @@
+package org.elasticsearch.flume;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import org.junit.Test;
+
+import com.cloudera.flume.core.Event;
+import com.cloudera.flume.core.Event.Priority;
+import com.cloudera.flume.core.EventImpl;
+
+public class DocumentIdsTest {
+
+    @Test
+    public void testThatSameEventGetsSameId() {
+        String id = DocumentIds.of(event("message", 1000, 1, "host1"));
+        assertEquals(22, id.length());
+        assertEquals(id, DocumentIds.of(event("message", 1000, 1, "host1")));
+    }
+
+    @Test
+    public void testThatDifferentEventsGetDifferentIds() {
+        String id = DocumentIds.of(event("message", 1000, 1, "host1"));
+        assertFalse(id.equals(DocumentIds.of(event("message2", 1000, 1, "host1"))));
+        assertFalse(id.equals(DocumentIds.of(event("message", 1001, 1, "host1"))));
+        assertFalse(id.equals(DocumentIds.of(event("message", 1000, 2, "host1"))));
+        assertFalse(id.equals(DocumentIds.of(event("message", 1000, 1, "host2"))));
+    }
+
+    @Test
+    public void testThatLargeEventsAreHashed() {
+        byte[] body = new byte[2 * 1024 * 1024];
+        String id = DocumentIds.of(new EventImpl(body, 1000, Priority.INFO, 1, "host1"));
+        assertEquals(id, DocumentIds.of(new EventImpl(body, 1000, Priority.INFO, 1, "host1")));
+    }
+
+    @Test
+    public void testThatMurmur3MatchesReferenceImplementation() {
+        byte[] data = "The quick brown fox jumps over the lazy dog".getBytes();
+        long[] hash = DocumentIds.murmur3(data, data.length);
+        assertEquals(0xe34bbc7bbc071b6cL, hash[0]);
+        assertEquals(0x7a433ca9c49a9347L, hash[1]);
+    }
+
+    private static Event event(String body, long timestamp, long nanos, String host) {
+        return new EventImpl(body.getBytes(), timestamp, Priority.INFO, nanos, host);
+    }
+}
@@ -0,0 +1,53 @@
+package org.elasticsearch.flume;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.Charset;
+
+import org.junit.Test;
+
+public class DocumentShaperTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    @Test
+    public void testThatExcludedAttributesAreLeftOut() {
+        DocumentShaper shaper = new DocumentShaper(new String[0], new String[]{"rolltag"}, 0, 0);
+        assertTrue(shaper.isIncluded("app"));
+        assertFalse(shaper.isIncluded("rolltag"));
+    }
+
+    @Test
+    public void testThatOnlyIncludedAttributesAreKept() {
+        DocumentShaper shaper = new DocumentShaper(new String[]{"app", "rolltag"}, new String[]{"rolltag"}, 0, 0);
+        assertTrue(shaper.isIncluded("app"));
+        assertFalse(shaper.isIncluded("thread"));
+        assertFalse(shaper.isIncluded("rolltag"));
+    }
+
+    @Test
+    public void testThatMaximumsOfZeroKeepEverything() {
+        DocumentShaper shaper = new DocumentShaper(new String[0], new String[0], 0, 0);
+        assertFalse(shaper.isBodyTooLong(new byte[1000000]));
+        assertFalse(shaper.isFieldTooLong(new byte[1000000]));
+
+        shaper = new DocumentShaper(new String[0], new String[0], 10, 5);
+        assertFalse(shaper.isBodyTooLong(new byte[10]));
+        assertTrue(shaper.isBodyTooLong(new byte[11]));
+        assertTrue(shaper.isFieldTooLong(new byte[6]));
+    }
+
+    @Test
+    public void testThatTruncationDoesNotSplitCharacters() {
+        byte[] data = "ab€d".getBytes(UTF_8);
+        assertEquals(2, DocumentShaper.truncatedLength(data, 2));
+        assertEquals(2, DocumentShaper.truncatedLength(data, 3));
+        assertEquals(2, DocumentShaper.truncatedLength(data, 4));
+        assertEquals(5, DocumentShaper.truncatedLength(data, 5));
+        assertEquals(6, DocumentShaper.truncatedLength(data, 6));
+        assertEquals(6, DocumentShaper.truncatedLength(data, 100));
+        assertEquals(0, DocumentShaper.truncatedLength("😀".getBytes(UTF_8), 3));
+    }
+}
@@ -1,7 +1,9 @@
 package org.elasticsearch.flume;
 
 import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
 import static junit.framework.Assert.assertTrue;
+import static org.mockito.Mockito.when;
 
 import java.util.Arrays;
 
@@ -75,4 +77,226 @@ public class ElasticSearchSinkBuilderTest {
         assertTrue(Arrays.equals(new String[]{HOST1, HOST2}, esSink.getHostNames()));
         assertEquals(INDEX_TYPE, esSink.getIndexType());
     }
+
+    @Test
+    public void testThatBulkModeIsDisabledByDefault() {
+        ElasticSearchSink esSink = (ElasticSearchSink) new ElasticSearchSinkBuilder().build(context);
+        assertEquals(0, esSink.getBatchSize());
+    }
+
+    @Test
+    public void testThatBatchSettingsAreReadFromContext() {
+        when(context.getValue(ElasticSearchSinkBuilder.BATCH_SIZE)).thenReturn("500");
+        when(context.getValue(ElasticSearchSinkBuilder.BATCH_BYTES)).thenReturn("1048576");
+        when(context.getValue(ElasticSearchSinkBuilder.BATCH_LINGER_MILLIS)).thenReturn("250");
+
+        ElasticSearchSink esSink = (ElasticSearchSink) new ElasticSearchSinkBuilder().build(context, CLUSTER_NAME);
+        assertEquals(500, esSink.getBatchSize());
+        assertEquals(1048576L, esSink.getBatchBytes());
+        assertEquals(250L, esSink.getBatchLingerMillis());
+    }
+
+    @Test
+    public void testThatAsyncSettingsAreReadFromContext() {
+        when(context.getValue(ElasticSearchSinkBuilder.MAX_IN_FLIGHT_REQUESTS)).thenReturn("4");
+        when(context.getValue(ElasticSearchSinkBuilder.CLOSE_TIMEOUT_MILLIS)).thenReturn("5000");
+
+        ElasticSearchSink esSink = (ElasticSearchSink) new ElasticSearchSinkBuilder().build(context);
+        assertEquals(4, esSink.getMaxInFlightRequests());
+        assertEquals(5000L, esSink.getCloseTimeoutMillis());
+    }
+
+    @Test
+    public void testThatJsonModeIsReadFromContext() {
+        assertEquals(ElasticSearchSink.JsonMode.PARSE,
+                ((ElasticSearchSink) new ElasticSearchSinkBuilder().build(context)).getJsonMode());
+
+        when(context.getValue(ElasticSearchSinkBuilder.JSON_MODE)).thenReturn("validate");
+        ElasticSearchSink esSink = (ElasticSearchSink) new ElasticSearchSinkBuilder().build(context);
+        assertEquals(ElasticSearchSink.JsonMode.VALIDATE, esSink.getJsonMode());
+    }
+
+    @Test
+    public void testThatEncodingIsReadFromContext() {
+        assertEquals(ElasticSearchSink.Encoding.JSON,
+                ((ElasticSearchSink) new ElasticSearchSinkBuilder().build(context)).getEncoding());
+
+        when(context.getValue(ElasticSearchSinkBuilder.ENCODING)).thenReturn("smile");
+        ElasticSearchSink esSink = (ElasticSearchSink) new ElasticSearchSinkBuilder().build(context);
+        assertEquals(ElasticSearchSink.Encoding.SMILE, esSink.getEncoding());
+    }
+
+    @Test
+    public void testThatSpillSettingsAreReadFromContext() {
+        when(context.getValue(ElasticSearchSinkBuilder.SPILL_DIR)).thenReturn("/var/spool/elasticflume");
+        when(context.getValue(ElasticSearchSinkBuilder.SPILL_MAX_BYTES)).thenReturn("1000000");
+        when(context.getValue(ElasticSearchSinkBuilder.SPILL_SEGMENT_BYTES)).thenReturn("10000");
+        when(context.getValue(ElasticSearchSinkBuilder.SPILL_REPLAY_INTERVAL_MILLIS)).thenReturn("200");
+        when(context.getValue(ElasticSearchSinkBuilder.SPILL_REPLAY_BATCH_SIZE)).thenReturn("50");
+        when(context.getValue(ElasticSearchSinkBuilder.SPILL_WAIT_MILLIS)).thenReturn("2000");
+
+        ElasticSearchSink esSink = (ElasticSearchSink) new ElasticSearchSinkBuilder().build(context);
+        assertEquals("/var/spool/elasticflume", esSink.getSpillDir());
+        assertEquals(1000000L, esSink.getSpillMaxBytes());
+        assertEquals(10000L, esSink.getSpillSegmentBytes());
+        assertEquals(200L, esSink.getSpillReplayIntervalMillis());
+        assertEquals(50, esSink.getSpillReplayBatchSize());
+        assertEquals(2000L, esSink.getSpillWaitMillis());
+    }
+
+    @Test
+    public void testThatRetrySettingsAreReadFromContext() {
+        when(context.getValue(ElasticSearchSinkBuilder.RETRY_MAX_ATTEMPTS)).thenReturn("5");
+        when(context.getValue(ElasticSearchSinkBuilder.RETRY_INITIAL_BACKOFF_MILLIS)).thenReturn("50");
+        when(context.getValue(ElasticSearchSinkBuilder.RETRY_MAX_BACKOFF_MILLIS)).thenReturn("5000");
+        when(context.getValue(ElasticSearchSinkBuilder.RETRY_JITTER)).thenReturn("0.25");
+
+        ElasticSearchSink esSink = (ElasticSearchSink) new ElasticSearchSinkBuilder().build(context);
+        assertEquals(5, esSink.getRetryMaxAttempts());
+        assertEquals(50L, esSink.getRetryInitialBackoffMillis());
+        assertEquals(5000L, esSink.getRetryMaxBackoffMillis());
+        assertEquals(0.25, esSink.getRetryJitter(), 0);
+    }
+
+    @Test
+    public void testThatSerializationSettingsAreReadFromContext() {
+        when(context.getValue(ElasticSearchSinkBuilder.SERIALIZATION_THREADS)).thenReturn("8");
+        when(context.getValue(ElasticSearchSinkBuilder.SERIALIZATION_QUEUE_SIZE)).thenReturn("2000");
+        when(context.getValue(ElasticSearchSinkBuilder.PRESERVE_INDEX_ORDER)).thenReturn("true");
+
+        ElasticSearchSink esSink = (ElasticSearchSink) new ElasticSearchSinkBuilder().build(context);
+        assertEquals(8, esSink.getSerializationThreads());
+        assertEquals(2000, esSink.getSerializationQueueSize());
+        assertTrue(esSink.isPreserveIndexOrder());
+    }
+
+    @Test
+    public void testThatIngestSettingsAreReadFromContext() {
+        when(context.getValue(ElasticSearchSinkBuilder.INGEST_REFRESH_INTERVAL)).thenReturn("-1");
+        when(context.getValue(ElasticSearchSinkBuilder.INGEST_REPLICAS)).thenReturn("0");
+        when(context.getValue(ElasticSearchSinkBuilder.QUERY_REFRESH_INTERVAL)).thenReturn("5s");
+        when(context.getValue(ElasticSearchSinkBuilder.QUERY_REPLICAS)).thenReturn("2");
+        when(context.getValue(ElasticSearchSinkBuilder.RESTORE_QUERY_SETTINGS_ON_CLOSE)).thenReturn("false");
+
+        ElasticSearchSink esSink = (ElasticSearchSink) new ElasticSearchSinkBuilder().build(context);
+        assertEquals("-1", esSink.getIngestRefreshInterval());
+        assertEquals(0, esSink.getIngestReplicas());
+        assertEquals("5s", esSink.getQueryRefreshInterval());
+        assertEquals(2, esSink.getQueryReplicas());
+        assertFalse(esSink.isRestoreQuerySettingsOnClose());
+    }
+
+    @Test
+    public void testThatPrecreateSettingsAreReadFromContext() {
+        when(context.getValue(ElasticSearchSinkBuilder.PRECREATE_LEAD_MILLIS)).thenReturn("600000");
+        when(context.getValue(ElasticSearchSinkBuilder.INDEX_MAPPING_FILE)).thenReturn("/etc/flume/mapping.json");
+
+        ElasticSearchSink esSink = (ElasticSearchSink) new ElasticSearchSinkBuilder().build(context);
+        assertEquals(600000L, esSink.getPrecreateLeadMillis());
+        assertEquals("/etc/flume/mapping.json", esSink.getIndexMappingFile());
+    }
+
+    @Test
+    public void testThatShedSettingsAreReadFromContext() {
+        when(context.getValue(ElasticSearchSinkBuilder.SHED_PRIORITIES)).thenReturn("DEBUG,INFO");
+        when(context.getValue(ElasticSearchSinkBuilder.SHED_QUEUE_DEPTH)).thenReturn("5000");
+        when(context.getValue(ElasticSearchSinkBuilder.SHED_IN_FLIGHT_REQUESTS)).thenReturn("8");
+        when(context.getValue(ElasticSearchSinkBuilder.SHED_LATENCY_MILLIS)).thenReturn("250");
+
+        ElasticSearchSink esSink = (ElasticSearchSink) new ElasticSearchSinkBuilder().build(context);
+        assertEquals("DEBUG,INFO", esSink.getShedPriorities());
+        assertEquals(5000, esSink.getShedQueueDepth());
+        assertEquals(8, esSink.getShedInFlightRequests());
+        assertEquals(250L, esSink.getShedLatencyMillis());
+    }
+
+    @Test
+    public void testThatCollapseSettingsAreReadFromContext() {
+        when(context.getValue(ElasticSearchSinkBuilder.COLLAPSE_WINDOW_MILLIS)).thenReturn("5000");
+        when(context.getValue(ElasticSearchSinkBuilder.COLLAPSE_CACHE_SIZE)).thenReturn("100");
+        when(context.getValue(ElasticSearchSinkBuilder.COLLAPSE_ATTRIBUTES)).thenReturn("app,thread");
+
+        ElasticSearchSink esSink = (ElasticSearchSink) new ElasticSearchSinkBuilder().build(context);
+        assertEquals(5000L, esSink.getCollapseWindowMillis());
+        assertEquals(100, esSink.getCollapseCacheSize());
+        assertEquals(Arrays.asList("app", "thread"), Arrays.asList(esSink.getCollapseAttributes()));
+    }
+
+    @Test
+    public void testThatAttributeTypesAreReadFromContext() {
+        when(context.getValue(ElasticSearchSinkBuilder.ATTRIBUTE_TYPES)).thenReturn("app:text,payload:json");
+        when(context.getValue(ElasticSearchSinkBuilder.ATTRIBUTE_TYPE_CACHE_SIZE)).thenReturn("20");
+
+        ElasticSearchSink esSink = (ElasticSearchSink) new ElasticSearchSinkBuilder().build(context);
+        assertEquals("app:text,payload:json", esSink.getAttributeTypes());
+        assertEquals(20, esSink.getAttributeTypeCacheSize());
+    }
+
+    @Test
+    public void testThatShapingSettingsAreReadFromContext() {
+        when(context.getValue(ElasticSearchSinkBuilder.INCLUDE_ATTRIBUTES)).thenReturn("app,thread");
+        when(context.getValue(ElasticSearchSinkBuilder.EXCLUDE_ATTRIBUTES)).thenReturn("rolltag");
+        when(context.getValue(ElasticSearchSinkBuilder.MAX_BODY_BYTES)).thenReturn("65536");
+        when(context.getValue(ElasticSearchSinkBuilder.MAX_FIELD_BYTES)).thenReturn("1024");
+
+        ElasticSearchSink esSink = (ElasticSearchSink) new ElasticSearchSinkBuilder().build(context);
+        assertEquals(Arrays.asList("app", "thread"), Arrays.asList(esSink.getIncludeAttributes()));
+        assertEquals(Arrays.asList("rolltag"), Arrays.asList(esSink.getExcludeAttributes()));
+        assertEquals(65536, esSink.getMaxBodyBytes());
+        assertEquals(1024, esSink.getMaxFieldBytes());
+    }
+
+    @Test
+    public void testThatAdaptiveSettingsAreReadFromContext() {
+        when(context.getValue(ElasticSearchSinkBuilder.TARGET_LATENCY_MILLIS)).thenReturn("250");
+        when(context.getValue(ElasticSearchSinkBuilder.MIN_BATCH_SIZE)).thenReturn("50");
+        when(context.getValue(ElasticSearchSinkBuilder.MAX_BATCH_SIZE)).thenReturn("5000");
+        when(context.getValue(ElasticSearchSinkBuilder.MIN_IN_FLIGHT_REQUESTS)).thenReturn("2");
+        when(context.getValue(ElasticSearchSinkBuilder.ADAPTIVE_MAX_IN_FLIGHT_REQUESTS)).thenReturn("16");
+
+        ElasticSearchSink esSink = (ElasticSearchSink) new ElasticSearchSinkBuilder().build(context);
+        assertEquals(250L, esSink.getTargetLatencyMillis());
+        assertEquals(50, esSink.getMinBatchSize());
+        assertEquals(5000, esSink.getMaxBatchSize());
+        assertEquals(2, esSink.getMinInFlightRequests());
+        assertEquals(16, esSink.getAdaptiveMaxInFlightRequests());
+    }
+
+    @Test
+    public void testThatRoutingSettingsAreReadFromContext() {
+        when(context.getValue(ElasticSearchSinkBuilder.ROUTING)).thenReturn("%{host}");
+        when(context.getValue(ElasticSearchSinkBuilder.GROUP_BATCHES)).thenReturn("true");
+        when(context.getValue(ElasticSearchSinkBuilder.MAX_BATCH_GROUPS)).thenReturn("8");
+
+        ElasticSearchSink esSink = (ElasticSearchSink) new ElasticSearchSinkBuilder().build(context);
+        assertEquals("%{host}", esSink.getRouting());
+        assertTrue(esSink.isGroupBatches());
+        assertEquals(8, esSink.getMaxBatchGroups());
+    }
+
+    @Test
+    public void testThatDedupSettingsAreReadFromContext() {
+        when(context.getValue(ElasticSearchSinkBuilder.DETERMINISTIC_IDS)).thenReturn("true");
+        when(context.getValue(ElasticSearchSinkBuilder.DEDUP_CACHE_SIZE)).thenReturn("500");
+
+        ElasticSearchSink esSink = (ElasticSearchSink) new ElasticSearchSinkBuilder().build(context);
+        assertTrue(esSink.isDeterministicIds());
+        assertEquals(500, esSink.getDedupCacheSize());
+    }
+
+    @Test
+    public void testThatNodeSelectionSettingsAreReadFromContext() {
+        when(context.getValue(ElasticSearchSinkBuilder.SELECT_NODES)).thenReturn("true");
+        when(context.getValue(ElasticSearchSinkBuilder.NODE_TIMEOUT_MILLIS)).thenReturn("2000");
+        when(context.getValue(ElasticSearchSinkBuilder.NODE_EJECT_AFTER)).thenReturn("5");
+        when(context.getValue(ElasticSearchSinkBuilder.NODE_EJECT_MILLIS)).thenReturn("60000");
+
+        ElasticSearchSink esSink = (ElasticSearchSink) new ElasticSearchSinkBuilder().build(context, CLUSTER_NAME,
+                INDEX_NAME, "host1:9301,host2:9302");
+        assertTrue(Arrays.equals(new String[]{"host1:9301", "host2:9302"}, esSink.getHostNames()));
+        assertTrue(esSink.isSelectNodes());
+        assertEquals(2000, esSink.getNodeTimeoutMillis());
+        assertEquals(5, esSink.getNodeEjectAfter());
+        assertEquals(60000, esSink.getNodeEjectMillis());
+    }
 }
@@ -0,0 +1,209 @@
+package org.elasticsearch.flume;
+
+import static org.elasticsearch.client.Requests.refreshRequest;
+import static org.elasticsearch.common.settings.ImmutableSettings.settingsBuilder;
+import static org.elasticsearch.index.query.QueryBuilders.fieldQuery;
+import static org.elasticsearch.node.NodeBuilder.nodeBuilder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.elasticsearch.client.Client;
+import org.elasticsearch.client.action.search.SearchRequestBuilder;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.node.Node;
+
+import com.cloudera.flume.core.Event;
+import com.cloudera.flume.reporter.ReportEvent;
+
+/**
+ * Drives synthetic events through an ElasticSearchSink into an in-memory local node, the same setup as
+ * ElasticSearchSinkTest, and reports throughput, append latency percentiles and the number of documents indexed.
+ * Once everything is indexed it runs load.queries searches for the events of a random host, routed to that host's
+ * shard when load.routing is %{host}, and reports their latency percentiles.
+ * <p/>
+ * Run with: mvn -Pload test-compile exec:java -Dload.events=200000 -Dload.threads=4 -Dload.batchSize=500
+ * <p/>
+ * Settings are read from load.* system properties, see the defaults in main().
+ */
+public class ElasticSearchSinkLoadHarness {
+
+    private static final String INDEX_NAME = "flume";
+    private static final String INDEX_TYPE = "log";
+
+    public static void main(String[] args) throws Exception {
+        int threads = Integer.getInteger("load.threads", 4);
+        int events = Integer.getInteger("load.events", 100000);
+        int shards = Integer.getInteger("load.shards", 1);
+        double jsonRatio = Double.parseDouble(System.getProperty("load.jsonRatio", "0.5"));
+        int attributes = Integer.getInteger("load.attributes", 4);
+        String priorityMix = System.getProperty("load.priorityMix", "DEBUG:50,INFO:35,WARN:10,ERROR:5");
+        int days = Integer.getInteger("load.days", 1);
+        int hosts = Integer.getInteger("load.hosts", 20);
+        String indexPattern = System.getProperty("load.indexPattern", "");
+        int queries = Integer.getInteger("load.queries", 100);
+
+        Node searchNode = startSearchNode(shards);
+        Client searchClient = searchNode.client();
+        try {
+            ElasticSearchSink sink = new ElasticSearchSink();
+            sink.setLocalOnly(true);
+            sink.setIndexName(INDEX_NAME);
+            sink.setIndexType(INDEX_TYPE);
+            if (indexPattern.length() > 0) {
+                sink.setIndexPattern(indexPattern);
+            }
+            configure(sink);
+            sink.open();
+
+            List<Callable<long[]>> producers = new ArrayList<Callable<long[]>>();
+            for (int i = 0; i < threads; i++) {
+                int count = events / threads + (i < events % threads ? 1 : 0);
+                SyntheticEvents generator = new SyntheticEvents(i, jsonRatio, attributes, priorityMix,
+                        System.currentTimeMillis() - days * 86400000L, days, hosts);
+                producers.add(new Producer(sink, generator, count));
+            }
+
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            long start = System.nanoTime();
+            List<Future<long[]>> results = executor.invokeAll(producers);
+            sink.close();
+            long elapsed = System.nanoTime() - start;
+            executor.shutdown();
+
+            long[] latencies = merge(results);
+            searchClient.admin().indices().refresh(refreshRequest()).actionGet();
+            long indexed = searchClient.prepareCount(INDEX_NAME).execute().actionGet().count();
+
+            report(sink.getMetrics(), threads, events, elapsed, latencies, indexed);
+            reportQueries(query(searchClient, queries, hosts, "%{host}".equals(sink.getRouting())));
+        } finally {
+            searchClient.close();
+            searchNode.close();
+        }
+    }
+
+    private static Node startSearchNode(int shards) {
+        Settings settings = settingsBuilder()
+                .put("gateway.type", "none")
+                .put("node.local", "true")
+                .put("http.enabled", false)
+                .put("index.store.type", "memory")
+                .put("index.number_of_shards", shards)
+                .put("index.number_of_replicas", "0")
+                .build();
+
+        Node searchNode = nodeBuilder().settings(settings).node();
+        searchNode.client().admin().cluster().prepareHealth().setWaitForGreenStatus().execute().actionGet();
+        return searchNode;
+    }
+
+    private static void configure(ElasticSearchSink sink) {
+        sink.setBatchSize(Integer.getInteger("load.batchSize", 0));
+        sink.setMaxInFlightRequests(Integer.getInteger("load.maxInFlightRequests", 0));
+        sink.setJsonMode(ElasticSearchSink.JsonMode.valueOf(System.getProperty("load.jsonMode", "PARSE")));
+        sink.setSerializationThreads(Integer.getInteger("load.serializationThreads", 0));
+        sink.setPreserveIndexOrder(Boolean.getBoolean("load.preserveIndexOrder"));
+        String routing = System.getProperty("load.routing", "");
+        if (routing.length() > 0) {
+            sink.setRouting(routing);
+        }
+        sink.setGroupBatches(Boolean.getBoolean("load.groupBatches"));
+    }
+
+    /**
+     * Searches for the events of random hosts, returning the sorted latency of each search.
+     */
+    private static long[] query(Client searchClient, int queries, int hosts, boolean routed) {
+        Random random = new Random(0);
+        long[] latencies = new long[queries];
+        for (int i = 0; i < queries; i++) {
+            String host = "app" + random.nextInt(hosts) + ".example.com";
+            SearchRequestBuilder search = searchClient.prepareSearch(INDEX_NAME).setQuery(fieldQuery("host", host));
+            if (routed) {
+                search.setRouting(host);
+            }
+            long start = System.nanoTime();
+            search.execute().actionGet();
+            latencies[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(latencies);
+        return latencies;
+    }
+
+    private static long[] merge(List<Future<long[]>> results) throws Exception {
+        int total = 0;
+        for (Future<long[]> result : results) {
+            total += result.get().length;
+        }
+        long[] latencies = new long[total];
+        int offset = 0;
+        for (Future<long[]> result : results) {
+            long[] threadLatencies = result.get();
+            System.arraycopy(threadLatencies, 0, latencies, offset, threadLatencies.length);
+            offset += threadLatencies.length;
+        }
+        Arrays.sort(latencies);
+        return latencies;
+    }
+
+    private static void report(ReportEvent metrics, int threads, int events, long elapsedNanos, long[] latencies,
+                               long indexed) {
+        double seconds = elapsedNanos / 1e9;
+        System.out.println("threads:            " + threads);
+        System.out.println("events:             " + events);
+        System.out.println("elapsed (s):        " + String.format("%.2f", seconds));
+        System.out.println("events/sec:         " + String.format("%.0f", events / seconds));
+        System.out.println("append p50 (us):    " + percentile(latencies, 0.50) / 1000);
+        System.out.println("append p99 (us):    " + percentile(latencies, 0.99) / 1000);
+        System.out.println("append p999 (us):   " + percentile(latencies, 0.999) / 1000);
+        System.out.println("append max (us):    " + (latencies.length > 0 ? latencies[latencies.length - 1] / 1000 : 0));
+        System.out.println("documents indexed:  " + indexed);
+        System.out.println("sink metrics:       " + metrics.toText());
+    }
+
+    private static void reportQueries(long[] latencies) {
+        System.out.println("queries:            " + latencies.length);
+        System.out.println("query p50 (us):     " + percentile(latencies, 0.50) / 1000);
+        System.out.println("query p99 (us):     " + percentile(latencies, 0.99) / 1000);
+    }
+
+    private static long percentile(long[] sorted, double percentile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(percentile * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+    }
+
+    private static class Producer implements Callable<long[]> {
+        private final ElasticSearchSink sink;
+        private final Event[] events;
+
+        Producer(ElasticSearchSink sink, SyntheticEvents generator, int count) {
+            this.sink = sink;
+            // Generate up front so the measurement is only of append()
+            this.events = new Event[count];
+            for (int i = 0; i < count; i++) {
+                events[i] = generator.next();
+            }
+        }
+
+        @Override
+        public long[] call() throws Exception {
+            long[] latencies = new long[events.length];
+            for (int i = 0; i < events.length; i++) {
+                long start = System.nanoTime();
+                sink.append(events[i]);
+                latencies[i] = System.nanoTime() - start;
+            }
+            return latencies;
+        }
+    }
+}
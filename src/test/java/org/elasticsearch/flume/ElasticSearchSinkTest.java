@@ -7,15 +7,36 @@ import static org.elasticsearch.index.query.QueryBuilders.matchAllQuery;
 import static org.elasticsearch.index.query.QueryBuilders.queryString;
 import static org.elasticsearch.node.NodeBuilder.nodeBuilder;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
 
+import java.io.File;
+import java.io.FileWriter;
 import java.io.IOException;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.lang.StringUtils;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.ListenableActionFuture;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.index.IndexResponse;
 import org.elasticsearch.action.search.SearchResponse;
 import org.elasticsearch.client.Client;
+import org.elasticsearch.client.action.bulk.BulkRequestBuilder;
+import org.elasticsearch.client.action.index.IndexRequestBuilder;
+import org.elasticsearch.cluster.metadata.IndexMetaData;
 import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.gateway.Gateway;
 import org.elasticsearch.index.query.QueryBuilder;
@@ -26,6 +47,8 @@ import org.elasticsearch.search.SearchHits;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
 import com.cloudera.flume.core.Event;
 import com.cloudera.flume.core.Event.Priority;
@@ -43,6 +66,22 @@ public class ElasticSearchSinkTest {
 
     @Before
     public void startSearchNode() throws Exception {
+        searchNode = startLocalNode();
+
+        searchClient = searchNode.client();
+
+        searchClient.admin()
+                .cluster()
+                .prepareHealth()
+                .setWaitForGreenStatus()
+                .execute()
+                .actionGet();
+    }
+
+    /**
+     * Starts a node in this JVM, which joins the cluster of any other nodes started here.
+     */
+    private static Node startLocalNode() {
         Settings settings = settingsBuilder()
                 .put("gateway.type", "none")
                 .put("node.local", "true")
@@ -52,18 +91,9 @@ public class ElasticSearchSinkTest {
                 .put("index.number_of_replicas", "1")
                 .build();
 
-        searchNode = nodeBuilder()
+        return nodeBuilder()
                 .settings(settings)
                 .node();
-
-        searchClient = searchNode.client();
-
-        searchClient.admin()
-                .cluster()
-                .prepareHealth()
-                .setWaitForGreenStatus()
-                .execute()
-                .actionGet();
     }
 
     @After
@@ -77,7 +107,14 @@ public class ElasticSearchSinkTest {
 
     @Test
     public void appendDifferentTypesOfLogMessage() throws IOException, InterruptedException {
-        ElasticSearchSink sink = createAndOpenSink();
+        appendDifferentTypesOfLogMessage(ElasticSearchSink.JsonMode.PARSE);
+    }
+
+    private void appendDifferentTypesOfLogMessage(ElasticSearchSink.JsonMode jsonMode) throws IOException,
+            InterruptedException {
+        ElasticSearchSink sink = createSink(INDEX_NAME, INDEX_TYPE, "");
+        sink.setJsonMode(jsonMode);
+        sink.open();
         Map<String, byte[]> attributes = new HashMap<String, byte[]>();
         attributes.put("attr1", new String("qux quux quuux").getBytes());
         attributes.put("attr2", new String("value2").getBytes());
@@ -105,9 +142,46 @@ public class ElasticSearchSinkTest {
         assertComplexJsonBody(event);
     }
 
+    @Test
+    public void appendDifferentTypesOfLogMessageWithValidatedJson() throws IOException, InterruptedException {
+        appendDifferentTypesOfLogMessage(ElasticSearchSink.JsonMode.VALIDATE);
+    }
+
+    @Test
+    public void appendDifferentTypesOfLogMessageWithTrustedJson() throws IOException, InterruptedException {
+        appendDifferentTypesOfLogMessage(ElasticSearchSink.JsonMode.TRUST);
+    }
+
+    @Test
+    public void appendDifferentTypesOfLogMessageInSmile() throws IOException, InterruptedException {
+        ElasticSearchSink sink = createSink(INDEX_NAME, "log", "");
+        sink.setEncoding(ElasticSearchSink.Encoding.SMILE);
+        sink.open();
+        sink.append(new EventImpl("new smile message".getBytes(), 0, Priority.WARN, System.nanoTime(), "notlocalhost"));
+        sink.append(new EventImpl("{\"message\":\"new smile json message\"}".getBytes(), 1, Priority.WARN,
+                System.nanoTime(), "notlocalhost"));
+        sink.close();
+
+        assertEquals(0L, sink.getMetrics().getLongMetric("NO_OF_FAILED_EVENTS").longValue());
+        assertSimpleTest(INDEX_NAME, "log", 1);
+        searchClient.admin().indices().refresh(refreshRequest(INDEX_NAME)).actionGet();
+        assertEquals(2, searchClient.prepareCount(INDEX_NAME).execute().actionGet().count());
+    }
+
     @Test
     public void validateErrorCount() throws IOException, InterruptedException {
-        ElasticSearchSink sink = createAndOpenSink();
+        validateErrorCount(ElasticSearchSink.JsonMode.PARSE);
+    }
+
+    @Test
+    public void validateErrorCountWithValidatedJson() throws IOException, InterruptedException {
+        validateErrorCount(ElasticSearchSink.JsonMode.VALIDATE);
+    }
+
+    private void validateErrorCount(ElasticSearchSink.JsonMode jsonMode) throws IOException, InterruptedException {
+        ElasticSearchSink sink = createSink(INDEX_NAME, INDEX_TYPE, "");
+        sink.setJsonMode(jsonMode);
+        sink.open();
 
         EventImpl invalidJsonEvent1 = new EventImpl("{ \"not json\" : no".getBytes(), 1, Priority.DEBUG, System.nanoTime(),
                 "notlocalhost");
@@ -144,6 +218,804 @@ public class ElasticSearchSinkTest {
         assertSimpleTest(INDEX_NAME, "log", 2);
     }
 
+    @Test
+    public void appendInBulkModeFlushesOnBatchSizeAndClose() throws IOException, InterruptedException {
+        ElasticSearchSink sink = createSink(INDEX_NAME, "log", "");
+        sink.setBatchSize(2);
+        sink.open();
+
+        sink.append(new EventImpl("new bulk message".getBytes(), 0, Priority.WARN, System.nanoTime(), "notlocalhost"));
+        sink.append(new EventImpl("new bulk message".getBytes(), 1, Priority.WARN, System.nanoTime(), "notlocalhost"));
+        assertSimpleTest(INDEX_NAME, "log", 2);
+
+        sink.append(new EventImpl("new bulk message".getBytes(), 2, Priority.WARN, System.nanoTime(), "notlocalhost"));
+        sink.close();
+        assertSimpleTest(INDEX_NAME, "log", 3);
+        assertEquals(0L, sink.getMetrics().getLongMetric("NO_OF_FAILED_EVENTS").longValue());
+    }
+
+    @Test
+    public void appendInBulkModeFlushesAfterLinger() throws IOException, InterruptedException {
+        ElasticSearchSink sink = createSink(INDEX_NAME, "log", "");
+        sink.setBatchSize(100);
+        sink.setBatchLingerMillis(50);
+        sink.open();
+
+        sink.append(new EventImpl("new bulk message".getBytes(), 0, Priority.WARN, System.nanoTime(), "notlocalhost"));
+        Thread.sleep(500);
+        assertSimpleTest(INDEX_NAME, "log", 1);
+        sink.close();
+    }
+
+    @Test
+    public void appendInBulkModeAliasesPatternIndices() throws IOException, InterruptedException {
+        ElasticSearchSink sink = createSink("", "log", "test_%Y-%m-%d");
+        sink.setBatchSize(10);
+        sink.open();
+
+        sink.append(new EventImpl("new index message".getBytes(), 0, Priority.WARN, System.nanoTime(), "notlocalhost"));
+        sink.append(new EventImpl("new index message".getBytes(), TimeUnit.MILLISECONDS.convert(1, TimeUnit.DAYS), Priority.WARN,
+                System.nanoTime(), "notlocalhost"));
+        sink.close();
+
+        assertSimpleTest("test_1970-01-01", "log", 1);
+        assertSimpleTest("test_1970-01-02", "log", 1);
+        assertSimpleTest(INDEX_NAME, "log", 2);
+    }
+
+    @Test
+    public void appendInAsyncModeIndexesAllEventsByClose() throws IOException, InterruptedException {
+        ElasticSearchSink sink = createSink("", "log", "test_%Y-%m-%d");
+        sink.setMaxInFlightRequests(2);
+        sink.open();
+
+        for (int i = 0; i < 10; i++) {
+            sink.append(new EventImpl("new async message".getBytes(), i, Priority.WARN, System.nanoTime(), "notlocalhost"));
+        }
+        sink.close();
+
+        assertSimpleTest("test_1970-01-01", "log", 10);
+        assertSimpleTest(INDEX_NAME, "log", 10);
+        ReportEvent metrics = sink.getMetrics();
+        assertEquals(10L, metrics.getLongMetric("NO_OF_INDEXED_EVENTS").longValue());
+        assertEquals(0L, metrics.getLongMetric("NO_OF_IN_FLIGHT_REQUESTS").longValue());
+    }
+
+    @Test
+    public void appendInAsyncBulkModeIndexesAllEventsByClose() throws IOException, InterruptedException {
+        ElasticSearchSink sink = createSink(INDEX_NAME, "log", "");
+        sink.setBatchSize(3);
+        sink.setMaxInFlightRequests(2);
+        sink.open();
+
+        for (int i = 0; i < 10; i++) {
+            sink.append(new EventImpl("new async message".getBytes(), i, Priority.WARN, System.nanoTime(), "notlocalhost"));
+        }
+        sink.close();
+
+        assertSimpleTest(INDEX_NAME, "log", 10);
+        assertEquals(10L, sink.getMetrics().getLongMetric("NO_OF_INDEXED_EVENTS").longValue());
+    }
+
+    @Test
+    public void appendInAdaptiveBulkModeGrowsBatchSize() throws IOException, InterruptedException {
+        ElasticSearchSink sink = createSink(INDEX_NAME, "log", "");
+        sink.setBatchSize(10);
+        sink.setMaxInFlightRequests(2);
+        sink.setTargetLatencyMillis(60000);
+        sink.setMinBatchSize(10);
+        sink.open();
+
+        for (int i = 0; i < 100; i++) {
+            sink.append(new EventImpl("new adaptive message".getBytes(), i, Priority.WARN, System.nanoTime(),
+                    "notlocalhost"));
+        }
+        sink.close();
+
+        assertSimpleTest(INDEX_NAME, "log", 100);
+        ReportEvent metrics = sink.getMetrics();
+        assertTrue(metrics.getLongMetric("ADAPTIVE_BATCH_SIZE") > 10);
+        assertEquals(2L, metrics.getLongMetric("ADAPTIVE_MAX_IN_FLIGHT_REQUESTS").longValue());
+        assertEquals(0L, metrics.getLongMetric("NO_OF_IN_FLIGHT_REQUESTS").longValue());
+    }
+
+    @Test
+    public void appendInGroupedBulkModeRoutesAndBatchesPerHost() throws IOException, InterruptedException {
+        ElasticSearchSink sink = createSink(INDEX_NAME, "log", "");
+        sink.setRouting("%{host}");
+        sink.setGroupBatches(true);
+        sink.setBatchSize(2);
+        sink.open();
+
+        sink.append(new EventImpl("new routed message".getBytes(), 0, Priority.WARN, System.nanoTime(), "host1"));
+        sink.append(new EventImpl("new routed message".getBytes(), 1, Priority.WARN, System.nanoTime(), "host2"));
+        sink.append(new EventImpl("new routed message".getBytes(), 2, Priority.WARN, System.nanoTime(), "host1"));
+        // Only host1's batch is full
+        assertSimpleTest(INDEX_NAME, "log", 2);
+        sink.close();
+        assertSimpleTest(INDEX_NAME, "log", 3);
+
+        SearchHits hits = searchClient.prepareSearch(INDEX_NAME).setQuery(matchAllQuery()).addField("_routing")
+                .execute().actionGet().getHits();
+        for (SearchHit hit : hits) {
+            assertTrue(hit.field("_routing").value().toString().startsWith("host"));
+        }
+    }
+
+    @Test
+    public void appendWithSelectedNodesSpreadsBulkRequestsOverNodes() throws IOException, InterruptedException {
+        Node otherNode = startLocalNode();
+        Node anotherNode = startLocalNode();
+        try {
+            Map<String, Client> nodeClients = new LinkedHashMap<String, Client>();
+            nodeClients.put("node1", searchClient);
+            nodeClients.put("node2", otherNode.client());
+            nodeClients.put("node3", anotherNode.client());
+
+            ElasticSearchSink sink = createSink(INDEX_NAME, "log", "");
+            sink.setBatchSize(5);
+            sink.setSelectNodes(true);
+            sink.setNodeClients(nodeClients);
+            sink.open();
+
+            for (int i = 0; i < 30; i++) {
+                sink.append(new EventImpl("new selected message".getBytes(), i, Priority.WARN, System.nanoTime(),
+                        "notlocalhost"));
+            }
+            ReportEvent metrics = sink.getMetrics();
+            sink.close();
+
+            assertSimpleTest(INDEX_NAME, "log", 30);
+            assertEquals(0L, metrics.getLongMetric("NO_OF_NODE_EJECTIONS").longValue());
+            for (String node : nodeClients.keySet()) {
+                assertTrue(metrics.getLongMetric("NODE_" + node + "_LATENCY_US") > 0);
+                assertEquals(0L, metrics.getLongMetric("NODE_" + node + "_IN_FLIGHT_REQUESTS").longValue());
+            }
+        } finally {
+            otherNode.close();
+            anotherNode.close();
+        }
+    }
+
+    @Test
+    public void validateIndexNamePatternWithExistingAlias() throws IOException, InterruptedException {
+        searchClient.admin().indices().prepareCreate("test_1970-01-01").execute().actionGet();
+        searchClient.admin().indices().prepareAliases().addAlias("test_1970-01-01", INDEX_NAME).execute().actionGet();
+
+        ElasticSearchSink sink = createAndOpenSink("", "log", "test_%Y-%m-%d");
+        sink.append(new EventImpl("new index message".getBytes(), 0, Priority.WARN, System.nanoTime(), "notlocalhost"));
+        sink.append(new EventImpl("new index message".getBytes(), 1, Priority.WARN, System.nanoTime(), "notlocalhost"));
+        sink.close();
+
+        assertEquals(0L, sink.getMetrics().getLongMetric("NO_OF_FAILED_EVENTS").longValue());
+        assertSimpleTest("test_1970-01-01", "log", 2);
+        assertSimpleTest(INDEX_NAME, "log", 2);
+    }
+
+    @Test
+    public void validateIndexNamePatternWithEvictedIndex() throws IOException, InterruptedException {
+        ElasticSearchSink sink = createSink("", "log", "test_%Y-%m-%d");
+        sink.setIndexCacheSize(1);
+        sink.open();
+
+        long oneDay = TimeUnit.MILLISECONDS.convert(1, TimeUnit.DAYS);
+        sink.append(new EventImpl("new index message".getBytes(), 0, Priority.WARN, System.nanoTime(), "notlocalhost"));
+        sink.append(new EventImpl("new index message".getBytes(), oneDay, Priority.WARN, System.nanoTime(), "notlocalhost"));
+        sink.append(new EventImpl("new index message".getBytes(), 1, Priority.WARN, System.nanoTime(), "notlocalhost"));
+        sink.close();
+
+        assertEquals(0L, sink.getMetrics().getLongMetric("NO_OF_FAILED_EVENTS").longValue());
+        assertSimpleTest("test_1970-01-01", "log", 2);
+        assertSimpleTest(INDEX_NAME, "log", 3);
+    }
+
+    @Test
+    public void applyIngestSettingsUntilPatternRollsOver() throws IOException, InterruptedException {
+        ElasticSearchSink sink = createSink("", "log", "test_%Y-%m-%d");
+        sink.setIngestRefreshInterval("-1");
+        sink.setIngestReplicas(0);
+        sink.setQueryRefreshInterval("2s");
+        sink.open();
+
+        long oneDay = TimeUnit.MILLISECONDS.convert(1, TimeUnit.DAYS);
+        sink.append(new EventImpl("new index message".getBytes(), 0, Priority.WARN, System.nanoTime(), "notlocalhost"));
+        assertIndexSettings("test_1970-01-01", "-1", "0");
+
+        sink.append(new EventImpl("new index message".getBytes(), oneDay, Priority.WARN, System.nanoTime(), "notlocalhost"));
+        assertIndexSettings("test_1970-01-01", "2s", "1");
+        assertIndexSettings("test_1970-01-02", "-1", "0");
+
+        sink.close();
+        assertIndexSettings("test_1970-01-02", "2s", "1");
+        assertSimpleTest(INDEX_NAME, "log", 2);
+    }
+
+    @Test
+    public void backdatedEventAfterRollOverLeavesCurrentIndexIngesting() throws IOException, InterruptedException {
+        ElasticSearchSink sink = createSink("", "log", "test_%Y-%m-%d");
+        sink.setIngestRefreshInterval("-1");
+        sink.setIngestReplicas(0);
+        sink.setQueryRefreshInterval("2s");
+        sink.open();
+
+        long oneDay = TimeUnit.MILLISECONDS.convert(1, TimeUnit.DAYS);
+        sink.append(new EventImpl("new index message".getBytes(), oneDay, Priority.WARN, System.nanoTime(), "notlocalhost"));
+        sink.append(new EventImpl("new index message".getBytes(), 2 * oneDay, Priority.WARN, System.nanoTime(),
+                "notlocalhost"));
+        assertIndexSettings("test_1970-01-02", "2s", "1");
+        assertIndexSettings("test_1970-01-03", "-1", "0");
+
+        // Late, for a day the sink never wrote to
+        sink.append(new EventImpl("new late message".getBytes(), 0, Priority.WARN, System.nanoTime(), "notlocalhost"));
+        assertIndexSettings("test_1970-01-03", "-1", "0");
+        assertEquals("1", searchClient.admin().cluster().prepareState().execute().actionGet().state().metaData()
+                .index("test_1970-01-01").settings().get("index.number_of_replicas"));
+
+        sink.close();
+        assertIndexSettings("test_1970-01-03", "2s", "1");
+        assertSimpleTest(INDEX_NAME, "log", 3);
+    }
+
+    @Test
+    public void closingOneOfSeveralWritersRestoresQuerySettingsOnlyIfAllowed() throws IOException, InterruptedException {
+        ElasticSearchSink first = createSink("", "log", "test_%Y-%m-%d");
+        first.setIngestRefreshInterval("-1");
+        first.setQueryRefreshInterval("2s");
+        first.setRestoreQuerySettingsOnClose(false);
+        first.open();
+        ElasticSearchSink second = createSink("", "log", "test_%Y-%m-%d");
+        second.setIngestRefreshInterval("-1");
+        second.setQueryRefreshInterval("2s");
+        second.open();
+
+        first.append(new EventImpl("new index message".getBytes(), 0, Priority.WARN, System.nanoTime(), "notlocalhost"));
+        second.append(new EventImpl("new index message".getBytes(), 0, Priority.WARN, System.nanoTime(), "notlocalhost"));
+        assertIndexSettings("test_1970-01-01", "-1", "1");
+
+        // Still ingesting for the second sink
+        first.close();
+        assertIndexSettings("test_1970-01-01", "-1", "1");
+
+        // The second restores it regardless of anything else writing to it
+        second.close();
+        assertIndexSettings("test_1970-01-01", "2s", "1");
+        assertSimpleTest(INDEX_NAME, "log", 2);
+    }
+
+    @Test
+    public void precreateNextIndexWithMapping() throws IOException, InterruptedException {
+        File mappingFile = File.createTempFile("mapping", ".json");
+        FileWriter writer = new FileWriter(mappingFile);
+        writer.write("{\"log\":{\"properties\":{\"host\":{\"type\":\"string\",\"index\":\"not_analyzed\"}}}}");
+        writer.close();
+
+        ElasticSearchSink sink = createSink("", "log", "test_%Y%m%d%H%M");
+        sink.setPrecreateLeadMillis(TimeUnit.MILLISECONDS.convert(1, TimeUnit.MINUTES));
+        sink.setIndexMappingFile(mappingFile.getPath());
+        sink.open();
+
+        // Precreated for a fixed time rather than the clock, which could pass a minute boundary during the test
+        long now = 1312156800123L;
+        sink.precreateNextIndex(now);
+        Event next = new EventImpl("new index message".getBytes(), now + 60000, Priority.WARN, System.nanoTime(),
+                "notlocalhost");
+        String nextIndex = next.escapeString("test_%Y%m%d%H%M");
+        IndexMetaData metaData = searchClient.admin().cluster().prepareState().execute().actionGet().state()
+                .metaData().index(nextIndex);
+        assertTrue("Next index should have been created", metaData != null);
+        assertTrue(metaData.mappings().containsKey("log"));
+        assertTrue(metaData.aliases().containsKey(INDEX_NAME));
+
+        sink.append(next);
+        sink.close();
+        mappingFile.delete();
+
+        assertEquals(0L, sink.getMetrics().getLongMetric("NO_OF_FAILED_EVENTS").longValue());
+        assertSimpleTest(nextIndex, "log", 1);
+    }
+
+    @Test
+    public void restoreQuerySettingsOfPrecreatedIndexOnClose() throws IOException, InterruptedException {
+        ElasticSearchSink sink = createSink("", "log", "test_%Y%m%d%H%M");
+        sink.setIngestRefreshInterval("-1");
+        sink.setIngestReplicas(0);
+        sink.setQueryRefreshInterval("2s");
+        sink.setPrecreateLeadMillis(TimeUnit.MILLISECONDS.convert(1, TimeUnit.MINUTES));
+        sink.open();
+
+        long now = 1312156800123L;
+        sink.precreateNextIndex(now);
+        String nextIndex = new EventImpl("".getBytes(), now + 60000, Priority.WARN, System.nanoTime(),
+                "notlocalhost").escapeString("test_%Y%m%d%H%M");
+        assertIndexSettings(nextIndex, "-1", "0");
+
+        // Closed before anything is written to it
+        sink.close();
+        assertIndexSettings(nextIndex, "2s", "1");
+    }
+
+    private void assertIndexSettings(String indexName, String refreshInterval, String replicas) {
+        Settings settings = searchClient.admin().cluster().prepareState().execute().actionGet().state().metaData()
+                .index(indexName).settings();
+        assertEquals(refreshInterval, settings.get("index.refresh_interval"));
+        assertEquals(replicas, settings.get("index.number_of_replicas"));
+    }
+
+    @Test
+    public void validatePerformanceMetrics() throws IOException, InterruptedException {
+        ElasticSearchSink sink = createSink(INDEX_NAME, "log", "");
+        sink.setBatchSize(2);
+        sink.open();
+
+        for (int i = 0; i < 5; i++) {
+            sink.append(new EventImpl("new metrics message".getBytes(), i, Priority.WARN, System.nanoTime(), "notlocalhost"));
+        }
+        assertEquals(1L, sink.getMetrics().getLongMetric("BULK_REQUEST_ACTIONS").longValue());
+        sink.close();
+
+        ReportEvent metrics = sink.getMetrics();
+        assertEquals(5L, metrics.getLongMetric("NO_OF_APPENDED_EVENTS").longValue());
+        assertEquals(5L, metrics.getLongMetric("NO_OF_INDEXED_EVENTS").longValue());
+        assertEquals(0L, metrics.getLongMetric("NO_OF_FAILED_EVENTS").longValue());
+        assertTrue(metrics.getLongMetric("NO_OF_SERIALIZED_BYTES") > 0);
+        assertEquals(5L, metrics.getLongMetric("SERIALIZATION_LATENCY_US_COUNT").longValue());
+        assertEquals(3L, metrics.getLongMetric("INDEX_LATENCY_US_COUNT").longValue());
+        assertTrue(metrics.getLongMetric("INDEX_LATENCY_US_P999") >= metrics.getLongMetric("INDEX_LATENCY_US_P50"));
+        assertEquals(0L, metrics.getLongMetric("BULK_REQUEST_ACTIONS").longValue());
+    }
+
+    @Test
+    public void spillWhileUnavailableAndReplayOnceAvailable() throws IOException, InterruptedException {
+        File spillDir = File.createTempFile("spill", "test");
+        spillDir.delete();
+
+        // Nothing listens on the default transport port, the test node only uses the local transport
+        ElasticSearchSink unavailable = createSink(INDEX_NAME, "log", "");
+        unavailable.setHostNames(new String[]{"localhost"});
+        unavailable.setSpillDir(spillDir.getPath());
+        unavailable.open();
+        for (int i = 0; i < 3; i++) {
+            unavailable.append(new EventImpl("new spilled message".getBytes(), i, Priority.WARN, System.nanoTime(),
+                    "notlocalhost"));
+        }
+        unavailable.close();
+
+        ReportEvent metrics = unavailable.getMetrics();
+        assertEquals(3L, metrics.getLongMetric("NO_OF_SPILLED_EVENTS").longValue());
+        assertEquals(0L, metrics.getLongMetric("NO_OF_FAILED_EVENTS").longValue());
+
+        ElasticSearchSink available = createSink(INDEX_NAME, "log", "");
+        available.setSpillDir(spillDir.getPath());
+        available.setSpillReplayIntervalMillis(50);
+        available.open();
+        // Sent straight away rather than spilled behind the documents waiting to be replayed
+        for (int i = 0; i < 2; i++) {
+            available.append(new EventImpl("new direct message".getBytes(), i, Priority.WARN, System.nanoTime(),
+                    "localhost"));
+        }
+        for (int i = 0; i < 100 && available.getMetrics().getLongMetric("SPILL_BYTES") > 0; i++) {
+            Thread.sleep(100);
+        }
+        // The spill buffer's metrics are only reported while it is open
+        metrics = available.getMetrics();
+        assertEquals(0L, metrics.getLongMetric("NO_OF_LOST_SPILLED_EVENTS").longValue());
+        assertEquals(0L, metrics.getLongMetric("SPILL_BYTES").longValue());
+        available.close();
+
+        metrics = available.getMetrics();
+        assertEquals(3L, metrics.getLongMetric("NO_OF_REPLAYED_EVENTS").longValue());
+        assertEquals(0L, metrics.getLongMetric("NO_OF_SPILLED_EVENTS").longValue());
+        assertSimpleTest(INDEX_NAME, "log", 5);
+        spillDir.delete();
+    }
+
+    @Test
+    public void closeWhileReplayingAndReplayTheRestOnOpen() throws IOException, InterruptedException {
+        File spillDir = File.createTempFile("spill", "test");
+        spillDir.delete();
+
+        ElasticSearchSink unavailable = createSink(INDEX_NAME, "log", "");
+        unavailable.setHostNames(new String[]{"localhost"});
+        unavailable.setSpillDir(spillDir.getPath());
+        unavailable.open();
+        for (int i = 0; i < 3; i++) {
+            unavailable.append(new EventImpl("new spilled message".getBytes(), i, Priority.WARN, System.nanoTime(),
+                    "notlocalhost"));
+        }
+        unavailable.close();
+
+        // Never answers, so closing has to interrupt the replay waiting on it
+        Client client = mock(Client.class);
+        final CountDownLatch replaying = new CountDownLatch(1);
+        mockBulkRequests(client, new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                replaying.countDown();
+                return null;
+            }
+        });
+        ElasticSearchSink interrupted = createSink(INDEX_NAME, "log", "");
+        interrupted.setClient(client);
+        interrupted.setSpillDir(spillDir.getPath());
+        interrupted.setSpillReplayIntervalMillis(50);
+        interrupted.setCloseTimeoutMillis(100);
+        interrupted.open();
+        assertTrue(replaying.await(5, TimeUnit.SECONDS));
+        interrupted.close();
+
+        ReportEvent metrics = interrupted.getMetrics();
+        assertEquals(0L, metrics.getLongMetric("NO_OF_FAILED_EVENTS").longValue());
+        assertEquals(0L, metrics.getLongMetric("NO_OF_GAVE_UP_EVENTS").longValue());
+
+        ElasticSearchSink available = createSink(INDEX_NAME, "log", "");
+        available.setSpillDir(spillDir.getPath());
+        available.setSpillReplayIntervalMillis(50);
+        available.open();
+        for (int i = 0; i < 100 && available.getMetrics().getLongMetric("SPILL_BYTES") > 0; i++) {
+            Thread.sleep(100);
+        }
+        metrics = available.getMetrics();
+        assertEquals(0L, metrics.getLongMetric("NO_OF_LOST_SPILLED_EVENTS").longValue());
+        assertEquals(0L, metrics.getLongMetric("SPILL_BYTES").longValue());
+        available.close();
+
+        assertEquals(3L, available.getMetrics().getLongMetric("NO_OF_REPLAYED_EVENTS").longValue());
+        assertSimpleTest(INDEX_NAME, "log", 3);
+        spillDir.delete();
+    }
+
+    @Test
+    public void serializeOnWorkerThreads() throws IOException, InterruptedException {
+        ElasticSearchSink sink = createSink(INDEX_NAME, "log", "");
+        sink.setSerializationThreads(4);
+        sink.setPreserveIndexOrder(true);
+        sink.setBatchSize(10);
+        sink.open();
+        for (int i = 0; i < 100; i++) {
+            sink.append(new EventImpl("new serialized message".getBytes(), i, Priority.WARN, System.nanoTime(),
+                    "host" + (i % 5)));
+        }
+        sink.close();
+
+        ReportEvent metrics = sink.getMetrics();
+        assertEquals(100L, metrics.getLongMetric("NO_OF_INDEXED_EVENTS").longValue());
+        assertEquals(0L, metrics.getLongMetric("NO_OF_FAILED_EVENTS").longValue());
+        assertSimpleTest(INDEX_NAME, "log", 100);
+    }
+
+    @Test
+    public void collapseRepeatedEventsIntoCountedDocuments() throws IOException, InterruptedException {
+        ElasticSearchSink sink = createSink(INDEX_NAME, "log", "");
+        sink.setCollapseWindowMillis(60000);
+        sink.open();
+        for (int i = 0; i < 100; i++) {
+            sink.append(new EventImpl("new repeated message".getBytes(), 1000 + i, Priority.ERROR, System.nanoTime(),
+                    "notlocalhost"));
+        }
+        sink.append(new EventImpl("new other message".getBytes(), 0, Priority.ERROR, System.nanoTime(), "notlocalhost"));
+        sink.close();
+
+        assertEquals(99L, sink.getMetrics().getLongMetric("NO_OF_COLLAPSED_EVENTS").longValue());
+        assertSimpleTest(INDEX_NAME, "log", 2);
+        SearchHits hits = searchClient.prepareSearch(INDEX_NAME).setQuery(fieldQuery("message.text", "repeated"))
+                .execute().actionGet().getHits();
+        assertEquals(1, hits.getTotalHits());
+        Map<String, Object> source = hits.getAt(0).sourceAsMap();
+        assertEquals(100, ((Number) source.get("count")).intValue());
+        assertEquals("1970-01-01T00:00:01.000Z", source.get("first_timestamp"));
+        assertEquals("1970-01-01T00:00:01.099Z", source.get("last_timestamp"));
+    }
+
+    @Test
+    public void dropRedeliveredEventsAsDuplicates() throws IOException, InterruptedException {
+        ElasticSearchSink sink = createSink(INDEX_NAME, "log", "");
+        sink.setDeterministicIds(true);
+        sink.open();
+        long nanos = System.nanoTime();
+        sink.append(new EventImpl("new message".getBytes(), 1000, Priority.INFO, nanos, "notlocalhost"));
+        long serializedBytes = sink.getMetrics().getLongMetric("NO_OF_SERIALIZED_BYTES");
+        sink.append(new EventImpl("new message".getBytes(), 1000, Priority.INFO, nanos, "notlocalhost"));
+        // Dropped before its document was built
+        assertEquals(serializedBytes, sink.getMetrics().getLongMetric("NO_OF_SERIALIZED_BYTES").longValue());
+        sink.append(new EventImpl("new message".getBytes(), 1000, Priority.INFO, nanos + 1, "notlocalhost"));
+        sink.close();
+
+        assertEquals(1L, sink.getMetrics().getLongMetric("NO_OF_DUPLICATE_EVENTS").longValue());
+        assertSimpleTest(INDEX_NAME, "log", 2);
+    }
+
+    @Test
+    public void overwriteRedeliveredEventsWithoutDedupCache() throws IOException, InterruptedException {
+        ElasticSearchSink sink = createSink(INDEX_NAME, "log", "");
+        sink.setDeterministicIds(true);
+        sink.setDedupCacheSize(0);
+        sink.open();
+        long nanos = System.nanoTime();
+        sink.append(new EventImpl("new message".getBytes(), 1000, Priority.INFO, nanos, "notlocalhost"));
+        sink.append(new EventImpl("new message".getBytes(), 1000, Priority.INFO, nanos, "notlocalhost"));
+        sink.close();
+
+        assertEquals(0L, sink.getMetrics().getLongMetric("NO_OF_DUPLICATE_EVENTS").longValue());
+        assertSimpleTest(INDEX_NAME, "log", 1);
+    }
+
+    @Test
+    public void sinksShareClientUntilLastOneCloses() throws IOException, InterruptedException {
+        ElasticSearchSink first = createAndOpenSink(INDEX_NAME, "log", "");
+        ElasticSearchSink second = createAndOpenSink(INDEX_NAME, "log", "");
+        first.close();
+
+        second.append(new EventImpl("new shared message".getBytes(), 0, Priority.WARN, System.nanoTime(),
+                "notlocalhost"));
+        second.close();
+
+        assertSimpleTest(INDEX_NAME, "log", 1);
+    }
+
+    @Test
+    public void retryRejectedRequestsWithBackoff() throws IOException, InterruptedException {
+        Client client = mock(Client.class);
+        ListenableActionFuture<IndexResponse> future = mockIndexRequests(client);
+        when(future.actionGet()).thenThrow(new RejectedExecutionException("queue full"))
+                .thenThrow(new RejectedExecutionException("queue full")).thenReturn(null);
+
+        ElasticSearchSink sink = createRetryingSink(client, 3);
+        sink.append(new EventImpl("new retried message".getBytes(), 0, Priority.WARN, System.nanoTime(), "notlocalhost"));
+        sink.close();
+
+        ReportEvent metrics = sink.getMetrics();
+        assertEquals(1L, metrics.getLongMetric("NO_OF_INDEXED_EVENTS").longValue());
+        assertEquals(2L, metrics.getLongMetric("NO_OF_RETRIED_EVENTS").longValue());
+        assertEquals(0L, metrics.getLongMetric("NO_OF_GAVE_UP_EVENTS").longValue());
+        assertEquals(0L, metrics.getLongMetric("NO_OF_FAILED_EVENTS").longValue());
+    }
+
+    @Test
+    public void giveUpOnRejectedRequestsAfterMaxAttempts() throws IOException, InterruptedException {
+        Client client = mock(Client.class);
+        ListenableActionFuture<IndexResponse> future = mockIndexRequests(client);
+        when(future.actionGet()).thenThrow(new RejectedExecutionException("queue full"));
+
+        ElasticSearchSink sink = createSink(INDEX_NAME, "log", "");
+        sink.setClient(client);
+        sink.setRetryMaxAttempts(3);
+        sink.setRetryInitialBackoffMillis(1);
+        sink.open();
+        sink.append(new EventImpl("new retried message".getBytes(), 0, Priority.WARN, System.nanoTime(), "notlocalhost"));
+        sink.close();
+
+        ReportEvent metrics = sink.getMetrics();
+        assertEquals(0L, metrics.getLongMetric("NO_OF_INDEXED_EVENTS").longValue());
+        assertEquals(2L, metrics.getLongMetric("NO_OF_RETRIED_EVENTS").longValue());
+        assertEquals(1L, metrics.getLongMetric("NO_OF_GAVE_UP_EVENTS").longValue());
+        assertEquals(0L, metrics.getLongMetric("NO_OF_FAILED_EVENTS").longValue());
+    }
+
+    @Test
+    public void failRejectedRequestsWhenRetriesAreDisabled() throws IOException, InterruptedException {
+        Client client = mock(Client.class);
+        ListenableActionFuture<IndexResponse> future = mockIndexRequests(client);
+        when(future.actionGet()).thenThrow(new RejectedExecutionException("queue full"));
+
+        ElasticSearchSink sink = createSink(INDEX_NAME, "log", "");
+        sink.setClient(client);
+        sink.open();
+        sink.append(new EventImpl("new rejected message".getBytes(), 0, Priority.WARN, System.nanoTime(),
+                "notlocalhost"));
+        sink.close();
+
+        ReportEvent metrics = sink.getMetrics();
+        assertEquals(0L, metrics.getLongMetric("NO_OF_INDEXED_EVENTS").longValue());
+        assertEquals(0L, metrics.getLongMetric("NO_OF_RETRIED_EVENTS").longValue());
+        assertEquals(0L, metrics.getLongMetric("NO_OF_GAVE_UP_EVENTS").longValue());
+        assertEquals(1L, metrics.getLongMetric("NO_OF_FAILED_EVENTS").longValue());
+    }
+
+    @Test
+    public void releaseSharedClientWhenOpenFails() throws IOException, InterruptedException {
+        ElasticSearchSink sink = createSink(INDEX_NAME, "log", "");
+        sink.setShedLatencyMillis(100);
+        sink.setShedPriorities("VERBOSE");
+        Client client = ClientRegistry.SHARED.acquire(sink.getClusterName(), sink.getHostNames(), true);
+        try {
+            sink.open();
+            fail("Opened with an unknown priority to shed");
+        } catch (IllegalArgumentException expected) {
+            assertEquals(1, ClientRegistry.SHARED.getReferences(client));
+        } finally {
+            ClientRegistry.SHARED.release(client);
+        }
+    }
+
+    @Test
+    public void shedLowPriorityEventsWhileBulkRequestsQueueUp() throws IOException, InterruptedException {
+        ElasticSearchSink sink = createSink(INDEX_NAME, "log", "");
+        sink.setBatchSize(100);
+        sink.setShedQueueDepth(2);
+        sink.open();
+        // Each document queued in the batch counts, without any serialization threads
+        for (int i = 0; i < 4; i++) {
+            sink.append(new EventImpl("new error message".getBytes(), 0, Priority.ERROR, System.nanoTime(),
+                    "localhost"));
+        }
+        for (int i = 0; i < 5; i++) {
+            sink.append(new EventImpl("new debug message".getBytes(), 0, Priority.DEBUG, System.nanoTime(),
+                    "localhost"));
+        }
+        sink.close();
+
+        ReportEvent metrics = sink.getMetrics();
+        assertEquals(5L, metrics.getLongMetric("NO_OF_SHED_DEBUG_EVENTS").longValue());
+        assertEquals(4L, metrics.getLongMetric("NO_OF_INDEXED_EVENTS").longValue());
+        assertSimpleTest(INDEX_NAME, "log", 4);
+    }
+
+    @Test
+    public void shedLowPriorityEventsWhenIndexingIsSlow() throws IOException, InterruptedException {
+        Client client = mock(Client.class);
+        ListenableActionFuture<IndexResponse> future = mockIndexRequests(client);
+        when(future.actionGet()).thenAnswer(new Answer<IndexResponse>() {
+            @Override
+            public IndexResponse answer(InvocationOnMock invocation) throws Throwable {
+                Thread.sleep(20);
+                return null;
+            }
+        });
+
+        ElasticSearchSink sink = createSink(INDEX_NAME, "log", "");
+        sink.setClient(client);
+        sink.setShedLatencyMillis(1);
+        sink.open();
+        sink.append(new EventImpl("new slow message".getBytes(), 0, Priority.INFO, System.nanoTime(), "notlocalhost"));
+        for (int i = 0; i < 5; i++) {
+            sink.append(new EventImpl("new debug message".getBytes(), 0, Priority.DEBUG, System.nanoTime(),
+                    "notlocalhost"));
+            sink.append(new EventImpl("new error message".getBytes(), 0, Priority.ERROR, System.nanoTime(),
+                    "notlocalhost"));
+        }
+        sink.close();
+
+        ReportEvent metrics = sink.getMetrics();
+        assertEquals(5L, metrics.getLongMetric("NO_OF_SHED_DEBUG_EVENTS").longValue());
+        assertEquals(0L, metrics.getLongMetric("NO_OF_SHED_ERROR_EVENTS").longValue());
+        assertEquals(6L, metrics.getLongMetric("NO_OF_INDEXED_EVENTS").longValue());
+        assertTrue(metrics.getLongMetric("OVERLOAD_PERCENT") > 100);
+    }
+
+    @Test
+    public void appendWhileAnotherThreadIsSendingABatch() throws Exception {
+        Client client = mock(Client.class);
+        final CountDownLatch sending = new CountDownLatch(1);
+        final CountDownLatch respond = new CountDownLatch(1);
+        mockBulkRequests(client, new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                sending.countDown();
+                respond.await();
+                respondTo(invocation);
+                return null;
+            }
+        });
+
+        final ElasticSearchSink sink = createSink(INDEX_NAME, "log", "");
+        sink.setClient(client);
+        sink.setBatchSize(2);
+        sink.open();
+        Thread sender = appendInBackground(sink, 2);
+        assertTrue(sending.await(5, TimeUnit.SECONDS));
+
+        // Starts the next batch rather than waiting for the full one to be sent
+        long start = System.currentTimeMillis();
+        sink.append(new EventImpl("new message".getBytes(), 0, Priority.WARN, System.nanoTime(), "notlocalhost"));
+        assertTrue(System.currentTimeMillis() - start < 1000);
+
+        respond.countDown();
+        sender.join();
+        sink.close();
+    }
+
+    @Test
+    public void appendWhileAnotherThreadWaitsForAnInFlightRequest() throws Exception {
+        Client client = mock(Client.class);
+        final CountDownLatch sent = new CountDownLatch(1);
+        final InvocationOnMock[] first = new InvocationOnMock[1];
+        mockBulkRequests(client, new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                // Keeps the only in flight request until the test answers it
+                synchronized (first) {
+                    if (first[0] == null) {
+                        first[0] = invocation;
+                        sent.countDown();
+                        return null;
+                    }
+                }
+                respondTo(invocation);
+                return null;
+            }
+        });
+
+        ElasticSearchSink sink = createSink(INDEX_NAME, "log", "");
+        sink.setClient(client);
+        sink.setBatchSize(2);
+        sink.setMaxInFlightRequests(1);
+        sink.open();
+        sink.append(new EventImpl("new message".getBytes(), 0, Priority.WARN, System.nanoTime(), "notlocalhost"));
+        sink.append(new EventImpl("new message".getBytes(), 1, Priority.WARN, System.nanoTime(), "notlocalhost"));
+        assertTrue(sent.await(5, TimeUnit.SECONDS));
+        Thread waiting = appendInBackground(sink, 2);
+        Thread.sleep(100);
+
+        long start = System.currentTimeMillis();
+        sink.append(new EventImpl("new message".getBytes(), 2, Priority.WARN, System.nanoTime(), "notlocalhost"));
+        assertTrue(System.currentTimeMillis() - start < 1000);
+
+        respondTo(first[0]);
+        waiting.join();
+        sink.close();
+    }
+
+    /**
+     * Appends the events on a thread of their own, returning it once it has started.
+     */
+    private Thread appendInBackground(final ElasticSearchSink sink, final int events) {
+        Thread appender = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    for (int i = 0; i < events; i++) {
+                        sink.append(new EventImpl("new background message".getBytes(), i, Priority.WARN,
+                                System.nanoTime(), "notlocalhost"));
+                    }
+                } catch (Exception ex) {
+                    throw new RuntimeException(ex);
+                }
+            }
+        };
+        appender.start();
+        return appender;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void mockBulkRequests(final Client client, Answer<Void> answer) {
+        when(client.prepareBulk()).thenAnswer(new Answer<BulkRequestBuilder>() {
+            @Override
+            public BulkRequestBuilder answer(InvocationOnMock invocation) throws Throwable {
+                return new BulkRequestBuilder(client);
+            }
+        });
+        doAnswer(answer).when(client).bulk(any(BulkRequest.class), any(ActionListener.class));
+    }
+
+    /**
+     * Answers a mocked bulk request as if all of its documents were indexed.
+     */
+    @SuppressWarnings("unchecked")
+    private static void respondTo(InvocationOnMock bulk) {
+        ((ActionListener<BulkResponse>) bulk.getArguments()[1]).onResponse(
+                new BulkResponse(new BulkItemResponse[0], 0));
+    }
+
+    @SuppressWarnings("unchecked")
+    private ListenableActionFuture<IndexResponse> mockIndexRequests(Client client) {
+        IndexRequestBuilder request = mock(IndexRequestBuilder.class);
+        ListenableActionFuture<IndexResponse> future = mock(ListenableActionFuture.class);
+        when(client.prepareIndex(anyString(), anyString(), anyString())).thenReturn(request);
+        when(request.setSource(any(byte[].class))).thenReturn(request);
+        when(request.execute()).thenReturn(future);
+        return future;
+    }
+
+    private ElasticSearchSink createRetryingSink(Client client, int maxAttempts) throws IOException,
+            InterruptedException {
+        ElasticSearchSink sink = createSink(INDEX_NAME, "log", "");
+        sink.setClient(client);
+        sink.setRetryMaxAttempts(maxAttempts);
+        sink.setRetryInitialBackoffMillis(1);
+        sink.open();
+        return sink;
+    }
+
     private void assertSimpleTest(String indexName, String indexType, int hits) {
         searchClient.admin().indices().refresh(refreshRequest(indexName)).actionGet();
         SearchResponse response = searchClient.prepareSearch(indexName).setTypes(indexType)
@@ -152,12 +1024,14 @@ public class ElasticSearchSinkTest {
                 .getTotalHits());
     }
 
-    private ElasticSearchSink createAndOpenSink() throws IOException, InterruptedException {
-        return createAndOpenSink(INDEX_NAME, INDEX_TYPE, "");
-    }
-
     private ElasticSearchSink createAndOpenSink(String indexName, String indexType, String indexPattern) throws IOException,
             InterruptedException {
+        ElasticSearchSink sink = createSink(indexName, indexType, indexPattern);
+        sink.open();
+        return sink;
+    }
+
+    private ElasticSearchSink createSink(String indexName, String indexType, String indexPattern) {
         ElasticSearchSink sink = new ElasticSearchSink();
         sink.setLocalOnly(true);
         if (StringUtils.isNotBlank(indexName)) {
@@ -169,7 +1043,6 @@ public class ElasticSearchSinkTest {
         if (StringUtils.isNotBlank(indexType)) {
             sink.setIndexType(indexType);
         }
-        sink.open();
         return sink;
     }
 
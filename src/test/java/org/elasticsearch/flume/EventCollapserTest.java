@@ -0,0 +1,99 @@
+package org.elasticsearch.flume;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.cloudera.flume.core.Event;
+import com.cloudera.flume.core.Event.Priority;
+import com.cloudera.flume.core.EventImpl;
+
+public class EventCollapserTest {
+
+    @Test
+    public void testThatDuplicatesWithinWindowAreCounted() {
+        EventCollapser collapser = new EventCollapser(1000, 10, new String[0]);
+        assertTrue(collapser.add(event("storm", 5, "host1"), 0).isEmpty());
+        assertTrue(collapser.add(event("storm", 3, "host1"), 10).isEmpty());
+        assertTrue(collapser.add(event("storm", 9, "host1"), 20).isEmpty());
+
+        List<Event> ready = collapser.expire(1000);
+        assertEquals(1, ready.size());
+        EventCollapser.CollapsedEvent collapsed = (EventCollapser.CollapsedEvent) ready.get(0);
+        assertEquals(3, collapsed.count);
+        assertEquals(3, collapsed.firstTimestamp);
+        assertEquals(9, collapsed.lastTimestamp);
+        assertEquals(5, collapsed.getTimestamp());
+        assertEquals(2, collapser.getCollapsed());
+        assertEquals(0, collapser.size());
+    }
+
+    @Test
+    public void testThatEventsWithoutDuplicatesAreSentUnchanged() {
+        EventCollapser collapser = new EventCollapser(1000, 10, new String[0]);
+        Event event = event("once", 0, "host1");
+        collapser.add(event, 0);
+
+        List<Event> ready = collapser.drain();
+        assertEquals(1, ready.size());
+        assertSame(event, ready.get(0));
+    }
+
+    @Test
+    public void testThatHostPriorityBodyAndSelectedAttributesAreCompared() {
+        EventCollapser collapser = new EventCollapser(1000, 10, new String[]{"app"});
+        collapser.add(event("storm", 0, "host1"), 0);
+        collapser.add(event("storm", 0, "host2"), 0);
+        collapser.add(event("other", 0, "host1"), 0);
+        collapser.add(new EventImpl("storm".getBytes(), 0, Priority.WARN, 0, "host1"), 0);
+        collapser.add(eventWithAttrs("web", "1"), 0);
+        collapser.add(eventWithAttrs("db", "1"), 0);
+        // Attributes that aren't selected don't matter
+        collapser.add(eventWithAttrs("web", "2"), 0);
+
+        assertEquals(6, collapser.size());
+        assertEquals(1, collapser.getCollapsed());
+    }
+
+    @Test
+    public void testThatOldestIsSentWhenCacheIsFull() {
+        EventCollapser collapser = new EventCollapser(1000, 2, new String[0]);
+        Event first = event("first", 0, "host1");
+        collapser.add(first, 0);
+        collapser.add(event("second", 0, "host1"), 0);
+
+        List<Event> ready = collapser.add(event("third", 0, "host1"), 0);
+        assertEquals(1, ready.size());
+        assertSame(first, ready.get(0));
+        assertEquals(2, collapser.size());
+    }
+
+    @Test
+    public void testThatDuplicateAfterWindowStartsNewGroup() {
+        EventCollapser collapser = new EventCollapser(1000, 10, new String[0]);
+        Event first = event("storm", 0, "host1");
+        collapser.add(first, 0);
+
+        List<Event> ready = collapser.add(event("storm", 0, "host1"), 1500);
+        assertEquals(1, ready.size());
+        assertSame(first, ready.get(0));
+        assertEquals(1, collapser.size());
+    }
+
+    private Event event(String body, long timestamp, String host) {
+        return new EventImpl(body.getBytes(), timestamp, Priority.ERROR, 0, host);
+    }
+
+    private Event eventWithAttrs(String app, String thread) {
+        Map<String, byte[]> attrs = new HashMap<String, byte[]>();
+        attrs.put("app", app.getBytes());
+        attrs.put("thread", thread.getBytes());
+        return new EventImpl("storm".getBytes(), 0, Priority.ERROR, 0, "host1", attrs);
+    }
+}
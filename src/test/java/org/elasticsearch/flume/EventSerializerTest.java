@@ -0,0 +1,170 @@
+package org.elasticsearch.flume;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.junit.Test;
+
+import com.cloudera.flume.core.Event.Priority;
+import com.cloudera.flume.core.EventImpl;
+import com.cloudera.flume.reporter.ReportEvent;
+
+public class EventSerializerTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final EventSerializer serializer = new EventSerializer(UTF_8, ElasticSearchSink.JsonMode.PARSE);
+
+    @Test
+    public void testThatTextIsWrittenFromUtf8Bytes() throws IOException {
+        Map<String, byte[]> attrs = new HashMap<String, byte[]>();
+        attrs.put("quoted", "say \"héllo\"\n€".getBytes(UTF_8));
+
+        Map<String, Object> document = serialize(new EventImpl("café 😀".getBytes(UTF_8), 1312156800123L,
+                Priority.ERROR, 0, "localhost", attrs));
+
+        assertEquals("2011-08-01T00:00:00.123Z", document.get("timestamp"));
+        assertEquals("localhost", document.get("host"));
+        assertEquals("ERROR", document.get("priority"));
+        assertEquals("café 😀", message(document).get("text"));
+        assertEquals("say \"héllo\"\n€", fields(document).get("quoted"));
+    }
+
+    @Test
+    public void testThatMalformedUtf8IsReplacedRatherThanCopied() throws IOException {
+        byte[] body = new byte[]{'a', (byte) 0xC3, 'b'};
+        Map<String, Object> document = serialize(new EventImpl(body, 0, Priority.INFO, 0, "localhost"));
+
+        assertEquals(new String(body, UTF_8), message(document).get("text"));
+    }
+
+    @Test
+    public void testThatBuffersAreReusedAcrossEvents() throws IOException {
+        serialize(new EventImpl(new byte[4096], 0, Priority.INFO, 0, "large"));
+        Map<String, Object> document = serialize(new EventImpl("small".getBytes(UTF_8), 0, Priority.INFO, 0, "small"));
+
+        assertEquals("small", document.get("host"));
+        assertEquals("small", message(document).get("text"));
+    }
+
+    @Test
+    public void testThatUtf8ValidationMatchesTheSpec() {
+        assertTrue(EventSerializer.isWellFormedUtf8("plain ascii".getBytes(UTF_8)));
+        assertTrue(EventSerializer.isWellFormedUtf8("é€😀".getBytes(UTF_8)));
+        assertFalse(EventSerializer.isWellFormedUtf8(new byte[]{(byte) 0xC3}));
+        assertFalse(EventSerializer.isWellFormedUtf8(new byte[]{(byte) 0xC0, (byte) 0x80}));
+        assertFalse(EventSerializer.isWellFormedUtf8(new byte[]{(byte) 0xED, (byte) 0xA0, (byte) 0x80}));
+        assertFalse(EventSerializer.isWellFormedUtf8(new byte[]{(byte) 0xFF}));
+    }
+
+    @Test
+    public void testThatOnlyASingleWellFormedRootIsCopiedRaw() {
+        assertTrue(EventSerializer.isWellFormed(XContentType.JSON, "{\"a\":[1,{\"b\":2}]}".getBytes(UTF_8)));
+        assertTrue(EventSerializer.isWellFormed(XContentType.JSON, "[1,2] ".getBytes(UTF_8)));
+        assertFalse(EventSerializer.isWellFormed(XContentType.JSON, "{\"a\":1".getBytes(UTF_8)));
+        assertFalse(EventSerializer.isWellFormed(XContentType.JSON, "{\"a\":1}{\"b\":2}".getBytes(UTF_8)));
+        assertFalse(EventSerializer.isWellFormed(XContentType.JSON, "{\"a\":1} x".getBytes(UTF_8)));
+        assertFalse(EventSerializer.isWellFormed(XContentType.JSON, "\"a\"".getBytes(UTF_8)));
+    }
+
+    @Test
+    public void testThatCollapsedEventsHaveCountAndTimestamps() throws IOException {
+        EventCollapser collapser = new EventCollapser(1000, 10, new String[0]);
+        collapser.add(new EventImpl("storm".getBytes(UTF_8), 1000, Priority.ERROR, 0, "localhost"), 0);
+        collapser.add(new EventImpl("storm".getBytes(UTF_8), 2000, Priority.ERROR, 0, "localhost"), 0);
+
+        Map<String, Object> document = serialize((EventImpl) collapser.drain().get(0));
+        assertEquals(2, ((Number) document.get("count")).intValue());
+        assertEquals("1970-01-01T00:00:01.000Z", document.get("first_timestamp"));
+        assertEquals("1970-01-01T00:00:02.000Z", document.get("last_timestamp"));
+    }
+
+    @Test
+    public void testThatSmileDocumentMatchesJsonDocument() throws IOException {
+        Map<String, byte[]> attrs = new HashMap<String, byte[]>();
+        attrs.put("text", "café".getBytes(UTF_8));
+        attrs.put("json", "{\"key\":[1,2,{\"nested\":true}]}".getBytes(UTF_8));
+        EventImpl event = new EventImpl("{\"level\":\"INFO\",\"millis\":12}".getBytes(UTF_8), 1312156800123L,
+                Priority.INFO, 0, "localhost", attrs);
+
+        for (ElasticSearchSink.JsonMode jsonMode : ElasticSearchSink.JsonMode.values()) {
+            byte[] smile = new EventSerializer(UTF_8, jsonMode, ElasticSearchSink.Encoding.SMILE).serialize(event);
+
+            assertEquals(XContentType.SMILE, XContentFactory.xContentType(smile));
+            assertEquals(serialize(event), XContentFactory.xContent(smile).createParser(smile).mapAndClose());
+        }
+    }
+
+    @Test
+    public void testThatDeclaredAttributeTypesAreUsed() throws IOException {
+        Map<String, byte[]> attrs = new HashMap<String, byte[]>();
+        attrs.put("template", "{user} logged in".getBytes(UTF_8));
+        attrs.put("payload", "{\"key\":1}".getBytes(UTF_8));
+        EventSerializer declared = new EventSerializer(UTF_8, ElasticSearchSink.JsonMode.PARSE,
+                ElasticSearchSink.Encoding.JSON, new AttributeTypes(AttributeTypes.parse("template:text,payload:json"),
+                10));
+
+        byte[] source = declared.serialize(new EventImpl("body".getBytes(UTF_8), 0, Priority.INFO, 0, "localhost",
+                attrs));
+        Map<String, Object> document = XContentFactory.xContent(XContentType.JSON).createParser(source).mapAndClose();
+        assertEquals("{user} logged in", fields(document).get("template"));
+        assertEquals(1, ((Map<?, ?>) fields(document).get("payload")).get("key"));
+    }
+
+    @Test
+    public void testThatDocumentsAreShaped() throws IOException {
+        Map<String, byte[]> attrs = new HashMap<String, byte[]>();
+        attrs.put("app", "web".getBytes(UTF_8));
+        attrs.put("rolltag", "20110801-000000123".getBytes(UTF_8));
+        attrs.put("trace", "at €uro.Main".getBytes(UTF_8));
+        attrs.put("payload", "{\"key\":\"a long value\"}".getBytes(UTF_8));
+        DocumentShaper shaper = new DocumentShaper(new String[0], new String[]{"rolltag"}, 5, 5);
+        EventSerializer shaping = new EventSerializer(UTF_8, ElasticSearchSink.JsonMode.PARSE,
+                ElasticSearchSink.Encoding.JSON, new AttributeTypes(AttributeTypes.parse(""), 10), shaper);
+
+        byte[] source = shaping.serialize(new EventImpl("{\"level\":\"INFO\"}".getBytes(UTF_8), 0, Priority.INFO, 0,
+                "localhost", attrs));
+        Map<String, Object> document = XContentFactory.xContent(XContentType.JSON).createParser(source).mapAndClose();
+        assertEquals("{\"lev", message(document).get("text"));
+        assertEquals("web", fields(document).get("app"));
+        assertEquals("at ", fields(document).get("trace"));
+        assertFalse(fields(document).containsKey("rolltag"));
+        assertFalse(fields(document).containsKey("payload"));
+        assertEquals(true, document.get("truncated"));
+
+        ReportEvent metrics = new ReportEvent("test");
+        shaper.report(metrics);
+        assertEquals(1L, metrics.getLongMetric(DocumentShaper.NO_OF_TRUNCATED_EVENTS).longValue());
+        assertEquals(11L + 18 + 11 + 22, metrics.getLongMetric(DocumentShaper.NO_OF_SAVED_BYTES).longValue());
+    }
+
+    @Test
+    public void testThatUntruncatedDocumentsHaveNoMarker() throws IOException {
+        Map<String, Object> document = serialize(new EventImpl("short".getBytes(UTF_8), 0, Priority.INFO, 0,
+                "localhost"));
+        assertFalse(document.containsKey("truncated"));
+    }
+
+    private Map<String, Object> serialize(EventImpl event) throws IOException {
+        byte[] source = serializer.serialize(event);
+        return XContentFactory.xContent(XContentType.JSON).createParser(source).mapAndClose();
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> message(Map<String, Object> document) {
+        return (Map<String, Object>) document.get("message");
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> fields(Map<String, Object> document) {
+        return (Map<String, Object>) document.get("fields");
+    }
+}
@@ -0,0 +1,99 @@
+package org.elasticsearch.flume;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.cloudera.flume.core.Event;
+import com.cloudera.flume.core.Event.Priority;
+import com.cloudera.flume.core.EventImpl;
+
+public class IndexNameResolverTest {
+
+    private static final long ONE_HOUR = TimeUnit.MILLISECONDS.convert(1, TimeUnit.HOURS);
+    private static final long ONE_DAY = TimeUnit.MILLISECONDS.convert(1, TimeUnit.DAYS);
+
+    @Test
+    public void testThatGranularityIsTheFinestDateEscape() {
+        assertEquals(IndexNameResolver.Granularity.CONSTANT, IndexNameResolver.compile("logs").getGranularity());
+        assertEquals(IndexNameResolver.Granularity.DAY, IndexNameResolver.compile("logs_%Y-%m-%d").getGranularity());
+        assertEquals(IndexNameResolver.Granularity.HOUR, IndexNameResolver.compile("logs_%Y-%m-%d-%H").getGranularity());
+        assertEquals(IndexNameResolver.Granularity.MINUTE, IndexNameResolver.compile("logs_%H%M_%Y").getGranularity());
+        assertEquals(IndexNameResolver.Granularity.EVENT, IndexNameResolver.compile("logs_%Y_%S").getGranularity());
+        assertEquals(IndexNameResolver.Granularity.EVENT, IndexNameResolver.compile("logs_%{host}_%Y").getGranularity());
+    }
+
+    @Test
+    public void testThatDailyPatternMatchesEscapeString() {
+        assertResolvesLikeEscapeString("test_%Y-%m-%d", 0, ONE_HOUR, ONE_DAY - 1, ONE_DAY, 3 * ONE_DAY + ONE_HOUR, 5);
+    }
+
+    @Test
+    public void testThatHourlyPatternMatchesEscapeString() {
+        assertResolvesLikeEscapeString("test_%Y-%m-%d-%H", 0, ONE_HOUR - 1, ONE_HOUR, ONE_DAY + 1, 0);
+    }
+
+    @Test
+    public void testThatRecentBucketsAreReusedForOutOfOrderEvents() {
+        IndexNameResolver resolver = IndexNameResolver.compile("test_%Y-%m-%d");
+        final int[] escapes = new int[1];
+        for (int i = 0; i < 10; i++) {
+            // Alternating between the days either side of a roll over
+            long timestamp = i % 2 == 0 ? ONE_DAY - ONE_HOUR : ONE_DAY + ONE_HOUR;
+            Event event = new EventImpl("body".getBytes(), timestamp, Priority.INFO, 0, "host") {
+                @Override
+                public String escapeString(String in) {
+                    escapes[0]++;
+                    return super.escapeString(in);
+                }
+            };
+            assertEquals(event.escapeString("test_%Y-%m-%d"), resolver.resolve(event));
+        }
+        // Once for each assert, and once for each of the two days
+        assertEquals(12, escapes[0]);
+    }
+
+    @Test
+    public void testThatOldestBucketIsForgotten() {
+        assertResolvesLikeEscapeString("test_%Y-%m-%d", 0, ONE_DAY, 2 * ONE_DAY, 3 * ONE_DAY, 4 * ONE_DAY, 0, ONE_DAY);
+    }
+
+    @Test
+    public void testThatPerEventPatternMatchesEscapeString() {
+        IndexNameResolver resolver = IndexNameResolver.compile("test_%{app}_%Y");
+        Map<String, byte[]> attrs = new HashMap<String, byte[]>();
+        attrs.put("app", "web".getBytes());
+        Event web = new EventImpl("body".getBytes(), 10 * ONE_DAY, Priority.INFO, 0, "host", attrs);
+        attrs = new HashMap<String, byte[]>();
+        attrs.put("app", "db".getBytes());
+        Event db = new EventImpl("body".getBytes(), 10 * ONE_DAY, Priority.INFO, 0, "host", attrs);
+
+        assertEquals("test_web_1970", resolver.resolve(web));
+        assertEquals("test_db_1970", resolver.resolve(db));
+    }
+
+    @Test
+    public void testThatTimeBasedPatternResolvesTimestamps() {
+        IndexNameResolver resolver = IndexNameResolver.compile("test_%Y-%m-%d");
+        assertTrue(resolver.isTimeBased());
+        Event event = new EventImpl("body".getBytes(), 3 * ONE_DAY, Priority.INFO, 0, "host");
+        assertEquals(event.escapeString("test_%Y-%m-%d"), resolver.resolve(3 * ONE_DAY));
+
+        assertFalse(IndexNameResolver.compile("test").isTimeBased());
+        assertFalse(IndexNameResolver.compile("test_%{host}_%Y").isTimeBased());
+    }
+
+    private void assertResolvesLikeEscapeString(String pattern, long... timestamps) {
+        IndexNameResolver resolver = IndexNameResolver.compile(pattern);
+        for (long timestamp : timestamps) {
+            Event event = new EventImpl("body".getBytes(), timestamp, Priority.INFO, 0, "host");
+            assertEquals(event.escapeString(pattern), resolver.resolve(event));
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package org.elasticsearch.flume;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class IndexingFailuresTest {
+
+    @Test
+    public void testThatRetryableFailureClassesAreRetried() {
+        assertTrue(IndexingFailures.isRetryable("UnavailableShardsException[[flume][0] [2] shardIt, [0] active]"));
+        assertTrue(IndexingFailures.isRetryable("ReceiveTimeoutTransportException[[node][inet[/10.0.0.1:9300]]]"));
+        assertTrue(IndexingFailures.isRetryable("RemoteTransportException[[node][inet[/10.0.0.1:9300]][bulk/shard]]; "
+                + "nested: EsRejectedExecutionException[rejected execution of [TransportBulkAction]]; "));
+        assertTrue(IndexingFailures.isRetryable(
+                "org.elasticsearch.cluster.block.ClusterBlockException[blocked by: [SERVICE_UNAVAILABLE/1]]"));
+    }
+
+    @Test
+    public void testThatDocumentFailuresMentioningRetryableClassesAreNotRetried() {
+        assertFalse(IndexingFailures.isRetryable("MapperParsingException[Failed to parse [Timeout]]"));
+        assertFalse(IndexingFailures.isRetryable("MapperParsingException[Failed to parse [message]]; "
+                + "nested: NumberFormatException[For input string: \"RejectedExecutionException\"]; "));
+        assertFalse(IndexingFailures.isRetryable("SocketTimeoutExceptionParser[]"));
+        assertFalse(IndexingFailures.isRetryable(""));
+        assertFalse(IndexingFailures.isRetryable((String) null));
+    }
+
+    @Test
+    public void testThatOnlyRejectedExecutionIsARejection() {
+        assertTrue(IndexingFailures.isRejection("RemoteTransportException[[node][bulk/shard]]; "
+                + "nested: EsRejectedExecutionException[rejected execution]; "));
+        assertFalse(IndexingFailures.isRejection("UnavailableShardsException[[flume][0] RejectedExecution]"));
+    }
+}
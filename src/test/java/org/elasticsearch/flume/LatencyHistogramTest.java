@@ -0,0 +1,68 @@
+package org.elasticsearch.flume;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void testThatEmptyHistogramReportsZero() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        LatencyHistogram.Interval interval = histogram.takeInterval();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, interval.getCount());
+        assertEquals(0, interval.getMean());
+        assertEquals(0, interval.getPercentile(0.99));
+    }
+
+    @Test
+    public void testThatPercentilesAreWithinBucketPrecision() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 10000; i++) {
+            histogram.record(i);
+        }
+        LatencyHistogram.Interval interval = histogram.takeInterval();
+
+        assertEquals(10000, histogram.getCount());
+        assertEquals(10000, interval.getCount());
+        assertEquals(5000, interval.getMean());
+        assertWithinPrecision(5000, interval.getPercentile(0.50));
+        assertWithinPrecision(9900, interval.getPercentile(0.99));
+        assertWithinPrecision(9990, interval.getPercentile(0.999));
+    }
+
+    @Test
+    public void testThatEachIntervalOnlyHasItsOwnValues() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 1000; i++) {
+            histogram.record(100000);
+        }
+        histogram.takeInterval();
+        for (int i = 0; i < 10; i++) {
+            histogram.record(100);
+        }
+        LatencyHistogram.Interval interval = histogram.takeInterval();
+
+        assertEquals(1010, histogram.getCount());
+        assertEquals(10, interval.getCount());
+        assertEquals(100, interval.getMean());
+        assertWithinPrecision(100, interval.getPercentile(0.999));
+        assertEquals(0, histogram.takeInterval().getCount());
+    }
+
+    @Test
+    public void testThatEveryValueFallsWithinItsBucket() {
+        for (long value = 0; value < 1L << 40; value = value * 3 / 2 + 1) {
+            int bucket = LatencyHistogram.bucketOf(value);
+            assertTrue(value <= LatencyHistogram.upperBoundOf(bucket));
+            assertTrue(bucket == 0 || value > LatencyHistogram.upperBoundOf(bucket - 1));
+        }
+        assertEquals(Long.MAX_VALUE, LatencyHistogram.upperBoundOf(LatencyHistogram.bucketOf(Long.MAX_VALUE)));
+    }
+
+    private void assertWithinPrecision(long expected, long actual) {
+        assertTrue("expected about " + expected + " but was " + actual, actual >= expected && actual <= expected * 1.125);
+    }
+}
@@ -0,0 +1,91 @@
+package org.elasticsearch.flume;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import com.cloudera.flume.core.Event.Priority;
+
+public class LoadShedderTest {
+
+    private static final long MILLIS = 1000000;
+
+    private final LoadShedder shedder = new LoadShedder(Arrays.asList(Priority.DEBUG, Priority.INFO, Priority.WARN),
+            100, 10, 0);
+
+    @Test
+    public void testThatOverloadIsTheWorstThreshold() {
+        assertEquals(0.5, shedder.overload(50, 2, 0), 0.001);
+        assertEquals(0.8, shedder.overload(10, 8, 0), 0.001);
+        assertEquals(2.0, shedder.overload(200, 0, 0), 0.001);
+    }
+
+    @Test
+    public void testThatLowerPrioritiesAreShedFirst() {
+        assertEquals(1.0, shedder.keepRatio(Priority.DEBUG, 1.0), 0.001);
+        assertEquals(0.5, shedder.keepRatio(Priority.DEBUG, 1.25), 0.001);
+        assertEquals(1.0, shedder.keepRatio(Priority.INFO, 1.25), 0.001);
+
+        assertEquals(0.0, shedder.keepRatio(Priority.DEBUG, 1.75), 0.001);
+        assertEquals(0.5, shedder.keepRatio(Priority.INFO, 1.75), 0.001);
+        assertEquals(1.0, shedder.keepRatio(Priority.WARN, 1.75), 0.001);
+
+        assertEquals(0.0, shedder.keepRatio(Priority.WARN, 10), 0.001);
+        assertEquals(1.0, shedder.keepRatio(Priority.ERROR, 10), 0.001);
+        assertEquals(1.0, shedder.keepRatio(Priority.FATAL, 10), 0.001);
+    }
+
+    @Test
+    public void testThatSampledPriorityKeepsItsRatioAndCountsShedEvents() {
+        int kept = 0;
+        for (int i = 0; i < 1000; i++) {
+            if (!shedder.shed(Priority.DEBUG, 1.25)) {
+                kept++;
+            }
+        }
+        assertEquals(500, kept);
+        assertEquals(500, shedder.getShed(Priority.DEBUG));
+        assertEquals(0, shedder.getShed(Priority.INFO));
+    }
+
+    @Test
+    public void testThatNothingIsShedBelowThresholds() {
+        for (Priority priority : Priority.values()) {
+            assertFalse(shedder.shed(priority, shedder.overload(99, 9, 0)));
+        }
+    }
+
+    @Test
+    public void testThatLatencyAverageDrivesOverload() {
+        LoadShedder latencyShedder = new LoadShedder(Arrays.asList(Priority.DEBUG), 0, 0, 100);
+        for (int i = 0; i < 200; i++) {
+            latencyShedder.recordLatencyNanos(200 * MILLIS, 0);
+        }
+        assertEquals(2.0, latencyShedder.overload(0, 0, 0), 0.01);
+    }
+
+    @Test
+    public void testThatSheddingStopsOnceLatencyRecovers() {
+        LoadShedder latencyShedder = new LoadShedder(Arrays.asList(Priority.DEBUG), 0, 0, 100);
+        for (int i = 0; i < 200; i++) {
+            latencyShedder.recordLatencyNanos(200 * MILLIS, 0);
+        }
+        assertTrue(latencyShedder.shed(Priority.DEBUG, latencyShedder.overload(0, 0, 0)));
+
+        // Nothing completes while everything is shed, so the average decays by itself
+        assertEquals(1.0, latencyShedder.overload(0, 0, 100 * MILLIS), 0.01);
+        assertEquals(0.5, latencyShedder.overload(0, 0, 200 * MILLIS), 0.01);
+        assertFalse(latencyShedder.shed(Priority.DEBUG, latencyShedder.overload(0, 0, 200 * MILLIS)));
+
+        // And fast requests after it keep it down rather than starting from the stale average
+        for (int i = 0; i < 10; i++) {
+            latencyShedder.recordLatencyNanos(10 * MILLIS, 200 * MILLIS);
+        }
+        assertTrue(latencyShedder.overload(0, 0, 200 * MILLIS) < 0.5);
+        assertEquals(0, latencyShedder.getShed(Priority.INFO));
+    }
+}
@@ -0,0 +1,35 @@
+package org.elasticsearch.flume;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class LruCacheTest {
+
+    @Test
+    public void testThatEldestEntryIsEvictedOnceFull() {
+        LruCache<String, Boolean> cache = new LruCache<String, Boolean>(2);
+        cache.put("a", Boolean.TRUE);
+        cache.put("b", Boolean.TRUE);
+        cache.put("c", Boolean.TRUE);
+
+        assertEquals(2, cache.size());
+        assertFalse(cache.containsKey("a"));
+        assertTrue(cache.containsKey("b"));
+        assertTrue(cache.containsKey("c"));
+    }
+
+    @Test
+    public void testThatRecentlyUsedEntriesAreKept() {
+        LruCache<String, Boolean> cache = new LruCache<String, Boolean>(2);
+        cache.put("a", Boolean.TRUE);
+        cache.put("b", Boolean.TRUE);
+        cache.get("a");
+        cache.put("c", Boolean.TRUE);
+
+        assertTrue(cache.containsKey("a"));
+        assertFalse(cache.containsKey("b"));
+    }
+}
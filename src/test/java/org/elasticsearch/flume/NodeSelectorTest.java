@@ -0,0 +1,148 @@
+package org.elasticsearch.flume;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.mockito.Mockito.mock;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.elasticsearch.client.Client;
+import org.junit.Test;
+
+import com.cloudera.flume.reporter.ReportEvent;
+
+public class NodeSelectorTest {
+
+    private static final long MILLIS = 1000000;
+
+    private final NodeSelector selector = new NodeSelector(clients("node1", "node2", "node3"), 100, 2, 1000);
+
+    @Test
+    public void testThatLevelNodesAreSelectedInTurn() {
+        for (int i = 0; i < 6; i++) {
+            NodeSelector.Target target = selector.select(0);
+            assertEquals("node" + (i % 3 + 1), target.getName());
+            selector.onResponse(target, 0, false, 0);
+        }
+    }
+
+    @Test
+    public void testThatNodeWithFewestRequestsInFlightIsSelected() {
+        NodeSelector.Target first = selector.select(0);
+        NodeSelector.Target second = selector.select(0);
+        selector.select(0);
+        selector.onResponse(second, 10 * MILLIS, false, 0);
+
+        assertEquals(second.getName(), selector.select(0).getName());
+        // Everything has one in flight again, and only first hasn't responded yet
+        selector.onResponse(first, 10 * MILLIS, false, 0);
+        assertEquals(first.getName(), selector.select(0).getName());
+    }
+
+    @Test
+    public void testThatFastestNodeIsSelectedWhenNoneAreBusier() {
+        respond("node1", 50 * MILLIS);
+        respond("node2", 10 * MILLIS);
+        respond("node3", 30 * MILLIS);
+
+        for (int i = 0; i < 3; i++) {
+            NodeSelector.Target target = selector.select(0);
+            assertEquals("node2", target.getName());
+            selector.onResponse(target, 10 * MILLIS, false, 0);
+        }
+    }
+
+    @Test
+    public void testThatNodeIsEjectedAfterSlowResponsesInARow() {
+        round(0, 200 * MILLIS, false);
+        round(0, 200 * MILLIS, false);
+
+        for (int i = 0; i < 4; i++) {
+            NodeSelector.Target target = selector.select(500 * MILLIS);
+            assertFalse("node1".equals(target.getName()));
+            selector.onResponse(target, MILLIS, false, 500 * MILLIS);
+        }
+        ReportEvent event = new ReportEvent("test");
+        selector.report(event, 500 * MILLIS);
+        assertEquals(1L, event.getLongMetric(NodeSelector.NO_OF_NODE_EJECTIONS).longValue());
+        assertEquals(1L, event.getLongMetric("NODE_node1_EJECTED").longValue());
+        assertEquals(0L, event.getLongMetric("NODE_node2_EJECTED").longValue());
+
+        // Back after the ejection, and tried first as how slow it was has been forgotten
+        assertEquals("node1", selector.select(1000 * MILLIS).getName());
+    }
+
+    @Test
+    public void testThatFailureOfNodeBackFromEjectionEjectsItAgain() {
+        round(0, 0, true);
+        round(0, 0, true);
+
+        NodeSelector.Target node1 = selector.select(1000 * MILLIS);
+        assertEquals("node1", node1.getName());
+        selector.onResponse(node1, 0, true, 1000 * MILLIS);
+        assertFalse("node1".equals(selector.select(1000 * MILLIS).getName()));
+
+        ReportEvent event = new ReportEvent("test");
+        selector.report(event, 1000 * MILLIS);
+        assertEquals(2L, event.getLongMetric(NodeSelector.NO_OF_NODE_EJECTIONS).longValue());
+    }
+
+    @Test
+    public void testThatResponseInTimeClearsStrikes() {
+        round(0, 0, true);
+        round(0, MILLIS, false);
+        round(0, 0, true);
+
+        ReportEvent event = new ReportEvent("test");
+        selector.report(event, 0);
+        assertEquals(0L, event.getLongMetric(NodeSelector.NO_OF_NODE_EJECTIONS).longValue());
+        assertEquals(0L, event.getLongMetric("NODE_node1_EJECTED").longValue());
+    }
+
+    @Test
+    public void testThatNodeDueBackSoonestIsSelectedWhenAllAreEjected() {
+        NodeSelector selector = new NodeSelector(clients("node1", "node2"), 100, 1, 1000);
+        NodeSelector.Target node1 = selector.select(0);
+        NodeSelector.Target node2 = selector.select(0);
+        selector.onResponse(node2, 0, true, 0);
+        selector.onResponse(node1, 0, true, 10 * MILLIS);
+
+        assertEquals("node2", selector.select(20 * MILLIS).getName());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testThatNoNodesFails() {
+        new NodeSelector(clients(), 100, 2, 1000);
+    }
+
+    private void respond(String name, long latencyNanos) {
+        NodeSelector.Target target = selector.select(0);
+        assertEquals(name, target.getName());
+        selector.onResponse(target, latencyNanos, false, 0);
+    }
+
+    /**
+     * Sends a request to every node at once, node1 responding with its own latency or failing.
+     */
+    private void round(long now, long node1Latency, boolean node1Failed) {
+        List<NodeSelector.Target> targets = new ArrayList<NodeSelector.Target>();
+        for (int i = 0; i < 3; i++) {
+            targets.add(selector.select(now));
+        }
+        for (NodeSelector.Target target : targets) {
+            boolean node1 = target.getName().equals("node1");
+            selector.onResponse(target, node1 ? node1Latency : MILLIS, node1 && node1Failed, now);
+        }
+    }
+
+    private static Map<String, Client> clients(String... names) {
+        Map<String, Client> clients = new LinkedHashMap<String, Client>();
+        for (String name : names) {
+            clients.put(name, mock(Client.class));
+        }
+        return clients;
+    }
+}
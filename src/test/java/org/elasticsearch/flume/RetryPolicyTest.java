@@ -0,0 +1,48 @@
+package org.elasticsearch.flume;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class RetryPolicyTest {
+
+    @Test
+    public void testThatSingleAttemptNeverRetries() {
+        RetryPolicy policy = new RetryPolicy(1, 100, 1000, 0, new Random());
+        assertFalse(policy.isEnabled());
+        assertFalse(policy.canRetry(1));
+    }
+
+    @Test
+    public void testThatRetriesStopAtMaxAttempts() {
+        RetryPolicy policy = new RetryPolicy(3, 100, 1000, 0, new Random());
+        assertTrue(policy.isEnabled());
+        assertTrue(policy.canRetry(1));
+        assertTrue(policy.canRetry(2));
+        assertFalse(policy.canRetry(3));
+    }
+
+    @Test
+    public void testThatBackoffDoublesUpToMax() {
+        RetryPolicy policy = new RetryPolicy(10, 100, 1000, 0, new Random());
+        assertEquals(100, policy.backoffMillis(1));
+        assertEquals(200, policy.backoffMillis(2));
+        assertEquals(400, policy.backoffMillis(3));
+        assertEquals(800, policy.backoffMillis(4));
+        assertEquals(1000, policy.backoffMillis(5));
+        assertEquals(1000, policy.backoffMillis(100));
+    }
+
+    @Test
+    public void testThatJitterOnlyShortensBackoff() {
+        RetryPolicy policy = new RetryPolicy(10, 100, 1000, 0.5, new Random(42));
+        for (int i = 0; i < 1000; i++) {
+            long backoff = policy.backoffMillis(3);
+            assertTrue("backoff " + backoff, backoff >= 200 && backoff <= 400);
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package org.elasticsearch.flume;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.cloudera.flume.core.Event;
+import com.cloudera.flume.core.Event.Priority;
+import com.cloudera.flume.core.EventImpl;
+
+public class RoutingResolverTest {
+
+    @Test
+    public void testThatHostIsResolved() {
+        assertEquals("host1", RoutingResolver.compile("%{host}").resolve(event("host1", "app1")));
+    }
+
+    @Test
+    public void testThatAttributeIsResolved() {
+        assertEquals("app1", RoutingResolver.compile("%{app}").resolve(event("host1", "app1")));
+    }
+
+    @Test
+    public void testThatExpressionsAreResolved() {
+        assertEquals("host1-app1", RoutingResolver.compile("%{host}-%{app}").resolve(event("host1", "app1")));
+    }
+
+    @Test
+    public void testThatEmptyValuesAreNotRouted() {
+        assertNull(RoutingResolver.compile("%{app}").resolve(event("host1", null)));
+        assertNull(RoutingResolver.compile("%{host}").resolve(event("", "app1")));
+    }
+
+    private static Event event(String host, String app) {
+        Map<String, byte[]> attributes = new HashMap<String, byte[]>();
+        if (app != null) {
+            attributes.put("app", app.getBytes());
+        }
+        return new EventImpl("message".getBytes(), 0, Priority.INFO, 0, host, attributes);
+    }
+}
@@ -0,0 +1,120 @@
+package org.elasticsearch.flume;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+import com.cloudera.flume.core.Event;
+import com.cloudera.flume.core.EventImpl;
+
+public class SerializationStageTest {
+
+    @Test
+    public void testThatCloseProcessesEverythingSubmitted() throws InterruptedException {
+        final Set<Thread> threads = Collections.newSetFromMap(new ConcurrentHashMap<Thread, Boolean>());
+        final List<Event> processed = Collections.synchronizedList(new ArrayList<Event>());
+        SerializationStage stage = new SerializationStage(4, 10, false, new SerializationStage.Processor() {
+            @Override
+            public void process(Event event) {
+                threads.add(Thread.currentThread());
+                processed.add(event);
+            }
+        });
+        stage.start();
+        for (int i = 0; i < 1000; i++) {
+            stage.submit(new EventImpl(("event " + i).getBytes()), null);
+        }
+        stage.close(10000);
+
+        assertEquals(1000, processed.size());
+        assertEquals(0, stage.getQueueDepth());
+        assertTrue(threads.size() >= 1);
+        assertTrue(!threads.contains(Thread.currentThread()));
+    }
+
+    @Test
+    public void testThatCloseCountsEventsDroppedWhenWorkersAreStuck() throws InterruptedException {
+        final CountDownLatch processing = new CountDownLatch(1);
+        final CountDownLatch stuck = new CountDownLatch(1);
+        SerializationStage stage = new SerializationStage(1, 2, false, new SerializationStage.Processor() {
+            @Override
+            public void process(Event event) {
+                processing.countDown();
+                try {
+                    stuck.await();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        stage.start();
+        stage.submit(new EventImpl("processing".getBytes()), null);
+        processing.await();
+        stage.submit(new EventImpl("queued 1".getBytes()), null);
+        stage.submit(new EventImpl("queued 2".getBytes()), null);
+
+        // Returns despite the queue being full, rather than blocking to queue the stop
+        assertEquals(2, stage.close(100));
+        assertEquals(0, stage.getQueueDepth());
+    }
+
+    @Test
+    public void testThatOrderedStageKeepsEventsWithSameKeyInOrder() throws InterruptedException {
+        final Map<String, List<Integer>> processed = new HashMap<String, List<Integer>>();
+        SerializationStage stage = new SerializationStage(4, 16, true, new SerializationStage.Processor() {
+            @Override
+            public void process(Event event) {
+                String[] keyAndSequence = new String(event.getBody()).split(":");
+                synchronized (processed) {
+                    List<Integer> sequences = processed.get(keyAndSequence[0]);
+                    if (sequences == null) {
+                        sequences = new ArrayList<Integer>();
+                        processed.put(keyAndSequence[0], sequences);
+                    }
+                    sequences.add(Integer.parseInt(keyAndSequence[1]));
+                }
+            }
+        });
+        stage.start();
+        for (int i = 0; i < 1000; i++) {
+            String key = "index-" + (i % 7);
+            stage.submit(new EventImpl((key + ":" + i).getBytes()), key);
+        }
+        stage.close(10000);
+
+        assertEquals(7, processed.size());
+        for (List<Integer> sequences : processed.values()) {
+            List<Integer> sorted = new ArrayList<Integer>(sequences);
+            Collections.sort(sorted);
+            assertEquals(sorted, sequences);
+        }
+    }
+
+    @Test
+    public void testThatOrderedStageSpreadsOneIndexOverWorkersByHost() throws InterruptedException {
+        final Set<Thread> threads = Collections.newSetFromMap(new ConcurrentHashMap<Thread, Boolean>());
+        SerializationStage stage = new SerializationStage(4, 16, true, new SerializationStage.Processor() {
+            @Override
+            public void process(Event event) {
+                threads.add(Thread.currentThread());
+            }
+        });
+        stage.start();
+        for (int i = 0; i < 100; i++) {
+            stage.submit(new EventImpl(("event " + i).getBytes()), "flume-2011-08-01/host" + (i % 10));
+        }
+        stage.close(10000);
+
+        assertTrue(threads.size() > 1);
+    }
+}
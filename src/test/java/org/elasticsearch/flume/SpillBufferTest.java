@@ -0,0 +1,209 @@
+package org.elasticsearch.flume;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SpillBufferTest {
+
+    private File directory;
+
+    @Before
+    public void createDirectory() throws IOException {
+        directory = File.createTempFile("spill", "test");
+        directory.delete();
+    }
+
+    @After
+    public void deleteDirectory() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void testThatDocumentsAreReadBackInOrderAndDeletedOnceAcknowledged() throws IOException {
+        SpillBuffer buffer = open(1024 * 1024, 100);
+        for (int i = 0; i < 10; i++) {
+            assertTrue(buffer.spill("index" + i, "log", null, null, ("document" + i).getBytes()));
+        }
+        assertTrue(directory.listFiles().length > 1);
+
+        int next = 0;
+        while (!buffer.isEmpty()) {
+            SpillBuffer.Batch batch = buffer.read(3);
+            for (SpillBuffer.Record record : batch.records) {
+                assertEquals("index" + next, record.index);
+                assertEquals("log", record.type);
+                assertEquals(null, record.id);
+                assertEquals("document" + next, new String(record.source));
+                next++;
+            }
+            buffer.ack(batch);
+        }
+
+        assertEquals(10, next);
+        assertEquals(0, buffer.getBytes());
+        assertEquals(0, directory.listFiles().length);
+    }
+
+    @Test
+    public void testThatSeveralBatchesCanBeReadBeforeAcknowledging() throws IOException {
+        SpillBuffer buffer = open(1024 * 1024, 1024 * 1024);
+        buffer.spill("index", "log", null, null, "first".getBytes());
+        buffer.spill("index", "log", null, null, "second".getBytes());
+
+        SpillBuffer.Batch first = buffer.read(1);
+        assertEquals("first", new String(first.records.get(0).source));
+        SpillBuffer.Batch second = buffer.read(1);
+        assertEquals("second", new String(second.records.get(0).source));
+        assertFalse(buffer.hasUnread());
+
+        // The segment is only deleted once every batch read from it has been acknowledged
+        buffer.ack(second);
+        assertFalse(buffer.isEmpty());
+        buffer.ack(first);
+        assertTrue(buffer.isEmpty());
+        assertEquals(0, directory.listFiles().length);
+    }
+
+    @Test
+    public void testThatUnacknowledgedDocumentsAreReadAgainAfterReopening() throws IOException {
+        SpillBuffer buffer = open(1024 * 1024, 1024 * 1024);
+        buffer.spill("index", "log", null, null, "first".getBytes());
+        buffer.spill("index", "log", null, null, "second".getBytes());
+        buffer.ack(buffer.read(1));
+        buffer.read(1);
+        buffer.close();
+
+        SpillBuffer reopened = open(1024 * 1024, 1024 * 1024);
+        assertEquals(2, reopened.read(10).records.size());
+    }
+
+    @Test
+    public void testThatDocumentsSpilledWhileReplayingAreReadAfterwards() throws IOException {
+        SpillBuffer buffer = open(1024 * 1024, 1024 * 1024);
+        buffer.spill("index", "log", null, null, "first".getBytes());
+        SpillBuffer.Batch first = buffer.read(10);
+        assertFalse(buffer.hasUnread());
+
+        buffer.spill("index", "log", null, null, "second".getBytes());
+        assertTrue(buffer.hasUnread());
+        SpillBuffer.Batch second = buffer.read(10);
+        assertEquals("second", new String(second.records.get(0).source));
+        buffer.ack(first);
+        buffer.ack(second);
+        assertTrue(buffer.isEmpty());
+    }
+
+    @Test
+    public void testThatSpillingStopsAtMaxBytes() throws IOException {
+        SpillBuffer buffer = open(100, 1024);
+        assertTrue(buffer.spill("index", "log", null, null, new byte[50]));
+        assertFalse(buffer.spill("index", "log", null, null, new byte[50]));
+        assertTrue(buffer.getBytes() <= 100);
+    }
+
+    @Test
+    public void testThatSegmentsAreRecoveredOnOpen() throws IOException {
+        SpillBuffer buffer = open(1024 * 1024, 50);
+        for (int i = 0; i < 5; i++) {
+            buffer.spill("index", "log", null, null, ("document" + i).getBytes());
+        }
+        buffer.close();
+
+        SpillBuffer reopened = open(1024 * 1024, 50);
+        assertFalse(reopened.isEmpty());
+        int count = 0;
+        while (!reopened.isEmpty()) {
+            SpillBuffer.Batch batch = reopened.read(10);
+            count += batch.records.size();
+            reopened.ack(batch);
+        }
+        assertEquals(5, count);
+    }
+
+    @Test
+    public void testThatATornRecordEndsTheSegmentAndIsCounted() throws IOException {
+        SpillBuffer buffer = open(1024 * 1024, 1024 * 1024);
+        buffer.spill("index", "log", null, null, "complete".getBytes());
+        buffer.spill("index", "log", null, null, "torn".getBytes());
+        buffer.close();
+
+        File segment = directory.listFiles()[0];
+        RandomAccessFile file = new RandomAccessFile(segment, "rw");
+        file.setLength(file.length() - 3);
+        file.close();
+
+        SpillBuffer reopened = open(1024 * 1024, 1024 * 1024);
+        SpillBuffer.Batch batch = reopened.read(10);
+        assertEquals(1, batch.records.size());
+        assertEquals("complete", new String(batch.records.get(0).source));
+        assertEquals(1, reopened.getLostRecords());
+        assertTrue(reopened.getLostBytes() > 0);
+        reopened.ack(batch);
+        assertTrue(reopened.isEmpty());
+    }
+
+    @Test
+    public void testThatACorruptRecordIsSkippedAndCounted() throws IOException {
+        SpillBuffer buffer = open(1024 * 1024, 1024 * 1024);
+        buffer.spill("index", "log", null, null, "corrupt".getBytes());
+        buffer.spill("index", "log", null, null, "intact".getBytes());
+        buffer.close();
+
+        // Flip the last byte of the first record's source, just before its checksum
+        File segment = directory.listFiles()[0];
+        RandomAccessFile file = new RandomAccessFile(segment, "rw");
+        long sourceEnd = 4 + "index".length() + 4 + "log".length() + 4 + 4 + 4 + "corrupt".length();
+        file.seek(sourceEnd - 1);
+        int last = file.read();
+        file.seek(sourceEnd - 1);
+        file.write(last ^ 0xFF);
+        file.close();
+
+        SpillBuffer reopened = open(1024 * 1024, 1024 * 1024);
+        SpillBuffer.Batch batch = reopened.read(10);
+        assertEquals(1, batch.records.size());
+        assertEquals("intact", new String(batch.records.get(0).source));
+        assertEquals(1, reopened.getLostRecords());
+        assertEquals(sourceEnd + 8, reopened.getLostBytes());
+        reopened.ack(batch);
+        assertTrue(reopened.isEmpty());
+    }
+
+    @Test
+    public void testThatDocumentIdsAndRoutingAreKept() throws IOException {
+        SpillBuffer buffer = open(1024 * 1024, 1024);
+        buffer.spill("index", "log", "AAECAwQFBgcICQoLDA0ODw", "host1", "identified".getBytes());
+        buffer.spill("index", "log", null, null, "anonymous".getBytes());
+
+        List<SpillBuffer.Record> records = buffer.read(2).records;
+        assertEquals("AAECAwQFBgcICQoLDA0ODw", records.get(0).id);
+        assertEquals("host1", records.get(0).routing);
+        assertEquals("identified", new String(records.get(0).source));
+        assertNull(records.get(1).id);
+        assertNull(records.get(1).routing);
+        buffer.close();
+    }
+
+    private SpillBuffer open(long maxBytes, long segmentBytes) throws IOException {
+        SpillBuffer buffer = new SpillBuffer(directory, maxBytes, segmentBytes);
+        buffer.open();
+        return buffer;
+    }
+}
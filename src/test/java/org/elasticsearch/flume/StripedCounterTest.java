@@ -0,0 +1,40 @@
+package org.elasticsearch.flume;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class StripedCounterTest {
+
+    @Test
+    public void testThatUpdatesFromManyThreadsAreAllCounted() throws InterruptedException {
+        final StripedCounter counter = new StripedCounter();
+        Thread[] threads = new Thread[32];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 10000; j++) {
+                        counter.increment();
+                    }
+                    counter.add(5);
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(32 * 10005L, counter.sum());
+    }
+
+    @Test
+    public void testThatResettingStartsFromZero() {
+        StripedCounter counter = new StripedCounter();
+        counter.add(7);
+        assertEquals(7L, counter.sumThenReset());
+        counter.increment();
+        assertEquals(1L, counter.sum());
+    }
+}
@@ -0,0 +1,101 @@
+package org.elasticsearch.flume;
+
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import com.cloudera.flume.core.Event;
+import com.cloudera.flume.core.Event.Priority;
+import com.cloudera.flume.core.EventImpl;
+
+/**
+ * Generates Flume events for load testing, with a configurable mix of text and JSON bodies, attribute counts,
+ * priorities and timestamps spread over a number of days.
+ */
+class SyntheticEvents {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final long ONE_DAY = TimeUnit.MILLISECONDS.convert(1, TimeUnit.DAYS);
+    private static final String[] WORDS = {"request", "processed", "user", "session", "timeout", "cache", "miss",
+            "connection", "pool", "query", "slow", "retrying", "order", "payment", "accepted", "rejected"};
+
+    private final Random random;
+    private final double jsonRatio;
+    private final int attributes;
+    private final Priority[] priorities;
+    private final int[] priorityWeights;
+    private final int totalWeight;
+    private final long startTimestamp;
+    private final int days;
+    private final int hosts;
+
+    /**
+     * @param priorityMix priorities with relative weights, such as "DEBUG:50,INFO:35,WARN:10,ERROR:5"
+     */
+    SyntheticEvents(long seed, double jsonRatio, int attributes, String priorityMix, long startTimestamp, int days,
+                    int hosts) {
+        this.random = new Random(seed);
+        this.jsonRatio = jsonRatio;
+        this.attributes = attributes;
+        this.startTimestamp = startTimestamp;
+        this.days = days;
+        this.hosts = hosts;
+
+        String[] entries = priorityMix.split(",");
+        priorities = new Priority[entries.length];
+        priorityWeights = new int[entries.length];
+        int total = 0;
+        for (int i = 0; i < entries.length; i++) {
+            String[] entry = entries[i].trim().split(":");
+            priorities[i] = Priority.valueOf(entry[0]);
+            total += entry.length > 1 ? Integer.parseInt(entry[1]) : 1;
+            priorityWeights[i] = total;
+        }
+        totalWeight = total;
+    }
+
+    Event next() {
+        long timestamp = startTimestamp + (long) (random.nextDouble() * days * ONE_DAY);
+        String host = "app" + random.nextInt(hosts) + ".example.com";
+        byte[] body = random.nextDouble() < jsonRatio ? jsonBody() : textBody();
+
+        Map<String, byte[]> attrs = new HashMap<String, byte[]>();
+        for (int i = 0; i < attributes; i++) {
+            attrs.put("attr" + i, words(2).getBytes(UTF_8));
+        }
+        return new EventImpl(body, timestamp, priority(), System.nanoTime(), host, attrs);
+    }
+
+    private Priority priority() {
+        int pick = random.nextInt(totalWeight);
+        for (int i = 0; i < priorities.length; i++) {
+            if (pick < priorityWeights[i]) {
+                return priorities[i];
+            }
+        }
+        return priorities[priorities.length - 1];
+    }
+
+    private byte[] textBody() {
+        return ("[main] com.example.Service - " + words(4 + random.nextInt(12))).getBytes(UTF_8);
+    }
+
+    private byte[] jsonBody() {
+        return ("{\"logger\":\"com.example.Service\",\"message\":\"" + words(4 + random.nextInt(12))
+                + "\",\"millis\":" + random.nextInt(1000) + ",\"context\":{\"thread\":\"worker-" + random.nextInt(32)
+                + "\"}}").getBytes(UTF_8);
+    }
+
+    private String words(int count) {
+        StringBuilder words = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                words.append(' ');
+            }
+            words.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return words.toString();
+    }
+}
@@ -0,0 +1,38 @@
+package org.elasticsearch.flume;
+
+import static org.junit.Assert.assertEquals;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+
+import org.junit.Test;
+
+public class TimestampFormatterTest {
+
+    @Test
+    public void testThatEpochIsFormattedLikeElasticSearch() {
+        assertEquals("1970-01-01T00:00:00.000Z", format(0));
+    }
+
+    @Test
+    public void testThatTimestampsMatchSimpleDateFormat() {
+        SimpleDateFormat expected = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+        expected.setTimeZone(TimeZone.getTimeZone("UTC"));
+
+        long[] timestamps = {1, 999, 86399999L, 86400000L, 951782400000L, 951868799999L, 1312156800123L,
+                4102444799999L, -1, -86400001L};
+        for (long timestamp : timestamps) {
+            assertEquals(expected.format(new Date(timestamp)), format(timestamp));
+        }
+        for (long timestamp = 0; timestamp < 4102444800000L; timestamp += 7919L * 3600000L + 12345L) {
+            assertEquals(expected.format(new Date(timestamp)), format(timestamp));
+        }
+    }
+
+    private String format(long timestamp) {
+        char[] buffer = new char[TimestampFormatter.LENGTH];
+        int length = TimestampFormatter.format(timestamp, buffer);
+        return new String(buffer, 0, length);
+    }
+}